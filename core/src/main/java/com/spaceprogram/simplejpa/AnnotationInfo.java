@@ -16,6 +16,13 @@ import java.util.List;
  */
 public class AnnotationInfo {
 
+    /**
+     * Column slot of the DTYPE attribute, see getColumnSlot.
+     */
+    public static final int DTYPE_SLOT = 0;
+
+    private static final ClassMethodEntry[][] NO_LISTENERS = new ClassMethodEntry[0][];
+
     private Annotation[] classAnnotations;
     private PersistentProperty idProperty;
     private Map<String, PersistentProperty> persistentProperties = new HashMap();
@@ -24,6 +31,11 @@ public class AnnotationInfo {
     private Class rootClass;
     private Class mainClass;
     private Map<Class, List<ClassMethodEntry>> entityListeners = new HashMap<Class, List<ClassMethodEntry>>();
+    /**
+     * entityListeners indexed like AnnotationManager.ENTITY_EVENTS, empty if the class has no listeners at all.
+     */
+    private volatile ClassMethodEntry[][] listenersByEvent;
+    private volatile Map<String, Integer> columnSlots;
 
     public void setClassAnnotations(Annotation[] classAnnotations) {
         this.classAnnotations = classAnnotations;
@@ -67,6 +79,39 @@ public class AnnotationInfo {
         return persistentProperties.get(field);
     }
 
+    /**
+     * Numbers the columns of the properties so an item's attributes can be grouped into an array, see
+     * AttributeValues. Called by AnnotationManager once the properties are all added.
+     */
+    void indexColumns() {
+        Map<String, Integer> slots = new HashMap<String, Integer>();
+        slots.put(EntityManagerFactoryImpl.DTYPE, DTYPE_SLOT);
+        for (PersistentProperty property : persistentProperties.values()) {
+            String columnName = property.getColumnName();
+            Integer slot = slots.get(columnName);
+            if (slot == null) {
+                slot = slots.size();
+                slots.put(columnName, slot);
+            }
+            property.setColumnSlot(slot);
+        }
+        columnSlots = slots;
+    }
+
+    /**
+     * @return the slot of the column, -1 if no property is stored in it
+     */
+    public int getColumnSlot(String columnName) {
+        if (columnSlots == null) indexColumns();
+        Integer slot = columnSlots.get(columnName);
+        return slot == null ? -1 : slot;
+    }
+
+    public int getColumnCount() {
+        if (columnSlots == null) indexColumns();
+        return columnSlots.size();
+    }
+
     public void setDiscriminatorValue(String discriminatorValue) {
         this.discriminatorValue = discriminatorValue;
     }
@@ -103,5 +148,42 @@ public class AnnotationInfo {
 	 */
 	public void setEntityListeners(Map<Class, List<ClassMethodEntry>> entityListeners) {
 		this.entityListeners = entityListeners;
+		indexEntityListeners();
 	}
+
+    /**
+     * Builds the dispatch table used by getEntityListeners(Class) from the entityListeners map.
+     */
+    void indexEntityListeners() {
+        if (entityListeners == null || entityListeners.isEmpty()) {
+            listenersByEvent = NO_LISTENERS;
+            return;
+        }
+        List<Class<? extends Annotation>> events = AnnotationManager.ENTITY_EVENTS;
+        ClassMethodEntry[][] table = new ClassMethodEntry[events.size()][];
+        for (int i = 0; i < table.length; i++) {
+            List<ClassMethodEntry> listeners = entityListeners.get(events.get(i));
+            if (listeners != null && !listeners.isEmpty()) {
+                table[i] = listeners.toArray(new ClassMethodEntry[listeners.size()]);
+            }
+        }
+        listenersByEvent = table;
+    }
+
+    /**
+     * @param event eg: PrePersist.class
+     * @return the listeners for the event in the order they were declared, null if there aren't any
+     */
+    public ClassMethodEntry[] getEntityListeners(Class event) {
+        ClassMethodEntry[][] table = listenersByEvent;
+        if (table == null) {
+            indexEntityListeners();
+            table = listenersByEvent;
+        }
+        if (table.length == 0) {
+            return null;
+        }
+        int slot = AnnotationManager.entityEventSlot(event);
+        return slot < 0 ? null : table[slot];
+    }
 }
@@ -7,9 +7,12 @@ import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Logger;
 
 import javax.persistence.DiscriminatorValue;
@@ -41,9 +44,52 @@ public class AnnotationManager {
 
     private static Logger logger = Logger.getLogger(AnnotationManager.class.getName());
 
+    /**
+     * The lifecycle events entity listeners can handle, in the order of AnnotationInfo's dispatch table.
+     */
+    @SuppressWarnings("unchecked")
+    static final List<Class<? extends Annotation>> ENTITY_EVENTS = Collections.unmodifiableList(Arrays.<Class<? extends Annotation>>asList(
+            PrePersist.class,
+            PreUpdate.class,
+            PreRemove.class,
+            PostLoad.class,
+            PostPersist.class,
+            PostUpdate.class,
+            PostRemove.class
+    ));
+
+    /**
+     * Event annotation -> its index in ENTITY_EVENTS.
+     */
+    private static final Map<Class, Integer> ENTITY_EVENT_SLOTS = new HashMap<Class, Integer>();
+
+    static {
+        for (int i = 0; i < ENTITY_EVENTS.size(); i++) {
+            ENTITY_EVENT_SLOTS.put(ENTITY_EVENTS.get(i), i);
+        }
+    }
+
+    /**
+     * @return the index of the event in ENTITY_EVENTS, -1 if it isn't one
+     */
+    static int entityEventSlot(Class event) {
+        Integer slot = ENTITY_EVENT_SLOTS.get(event);
+        return slot == null ? -1 : slot;
+    }
+
     // todo: implement EntityListeners for timestamps
-    private Map<String, AnnotationInfo> annotationMap = new HashMap<String, AnnotationInfo>();
-    private Map<String, AnnotationInfo> discriminatorMap = new HashMap<String, AnnotationInfo>();
+    // filled in lazily from request threads, so these are concurrent and putAnnotationInfo publishes under a lock
+    private Map<String, AnnotationInfo> annotationMap = new ConcurrentHashMap<String, AnnotationInfo>();
+    private Map<String, AnnotationInfo> discriminatorMap = new ConcurrentHashMap<String, AnnotationInfo>();
+    /**
+     * Every class seen by getAnnotationInfo, including cglib enhanced subclasses, so the usual lookup is a single
+     * read with no class name stripping.
+     */
+    private ConcurrentMap<Class, AnnotationInfo> classMap = new ConcurrentHashMap<Class, AnnotationInfo>();
+    /**
+     * One instance of each listener class, shared by every entity and event using it.
+     */
+    private ConcurrentMap<Class, Object> listenerInstances = new ConcurrentHashMap<Class, Object>();
     private SimpleJPAConfig config;
 
     public AnnotationManager(SimpleJPAConfig config) {
@@ -51,18 +97,7 @@ public class AnnotationManager {
     }
 
     public AnnotationInfo getAnnotationInfo(Object o) {
-        Class<?> c = getUnwrappedClass(o.getClass());
-        AnnotationInfo ai = getAnnotationInfo(c);
-        return ai;
-    }
-
-    private Class<?> getUnwrappedClass(Class<? extends Object> class1) {
-        Class<?> result = class1;
-
-        while (null != result && result.getClass().getSimpleName().contains("$$EnhancerBy"))
-            result = result.getSuperclass();
-
-        return result;
+        return getAnnotationInfo(o.getClass());
     }
 
     public Map<String, AnnotationInfo> getAnnotationMap() {
@@ -71,10 +106,10 @@ public class AnnotationManager {
 
 
     public AnnotationInfo getAnnotationInfo(Class c) {
-        c = stripEnhancerClass(c);
-        AnnotationInfo ai = getAnnotationInfo(c.getName());
+        AnnotationInfo ai = classMap.get(c);
         if (ai == null) {
-            ai = putAnnotationInfo(c);
+            ai = getAnnotationInfo(stripEnhancerClass(c).getName());
+            classMap.put(c, ai);
         }
         return ai;
     }
@@ -162,6 +197,11 @@ public class AnnotationManager {
      * @return
      */
     public AnnotationInfo putAnnotationInfo(Class c) {
+        AnnotationInfo existing = annotationMap.get(c.getName());
+        if (existing != null && existing.getMainClass() == c) {
+            // another thread got here first
+            return existing;
+        }
         {
             Entity entity = (Entity) c.getAnnotation(Entity.class);
             if(entity == null){
@@ -199,7 +239,6 @@ public class AnnotationManager {
                 discriminatorValue = c.getSimpleName();
             }
             ai.setDiscriminatorValue(discriminatorValue);
-            discriminatorMap.put(discriminatorValue, ai);
         } else {
             ai.setRootClass(c);
         }
@@ -210,8 +249,24 @@ public class AnnotationManager {
             throw new PersistenceException("No ID method specified for: " + c.getName());
         }
         putEntityListeners(ai, c);
-
-        getAnnotationMap().put(c.getName(), ai);
+        ai.indexEntityListeners();
+        for (PersistentProperty property : ai.getPersistentProperties()) {
+            property.resolve();
+        }
+        ai.indexColumns();
+
+        // built without a lock so the factory can load entities in parallel, only published once it's complete and
+        // only once per class, readers don't lock
+        synchronized (this) {
+            existing = annotationMap.get(c.getName());
+            if (existing != null && existing.getMainClass() == c) {
+                return existing;
+            }
+            if (ai.getDiscriminatorValue() != null) {
+                discriminatorMap.put(ai.getDiscriminatorValue(), ai);
+            }
+            getAnnotationMap().put(c.getName(), ai);
+        }
         return ai;
     }
 
@@ -286,22 +341,13 @@ public class AnnotationManager {
 
         Map<Class, List<ClassMethodEntry>> listeners = ai.getEntityListeners();
 
-        List<Class<? extends Annotation>> annotations = Arrays.asList(
-                PrePersist.class,
-                PreUpdate.class,
-                PreRemove.class,
-                PostLoad.class,
-                PostPersist.class,
-                PostUpdate.class,
-                PostRemove.class
-        );
         // TODO: More than one listener per event cannot be handled like this...
 
         for (Class clazz : entityListenerClasses) {
 //            System.out.println("class=" + clazz);
             for (Method method : clazz.getMethods()) {
 //                System.out.println("method=" + method.getName());
-                for (Class<? extends Annotation> annotationClass : annotations) {
+                for (Class<? extends Annotation> annotationClass : ENTITY_EVENTS) {
                     Annotation annotation = method.getAnnotation(annotationClass);
                     addListener(listeners, clazz, method, annotation, annotationClass);
                 }
@@ -326,17 +372,49 @@ public class AnnotationManager {
         return discriminatorMap.get(discriminatorValue);
     }
 
+    /**
+     * @return the shared instance of the listener class, created the first time it's needed
+     */
+    Object getListenerInstance(Class clazz) {
+        Object listener = listenerInstances.get(clazz);
+        if (listener == null) {
+            try {
+                listener = clazz.newInstance();
+            } catch (InstantiationException e) {
+                throw new PersistenceException("Could not create entity listener " + clazz.getName(), e);
+            } catch (IllegalAccessException e) {
+                throw new PersistenceException("Could not create entity listener " + clazz.getName(), e);
+            }
+            Object existing = listenerInstances.putIfAbsent(clazz, listener);
+            if (existing != null) {
+                listener = existing;
+            }
+        }
+        return listener;
+    }
+
+    /**
+     * A listener method bound to the listener instance it's called on, so invoking it doesn't create anything.
+     */
     public class ClassMethodEntry {
         private Class clazz;
         private Method method;
+        private Object listener;
 
         public ClassMethodEntry(Class clazz, Method method) {
             this.clazz = clazz;
             this.method = method;
+            this.listener = getListenerInstance(clazz);
+            try {
+                // skips the access check on every call, the listener class itself may not be public
+                method.setAccessible(true);
+            } catch (SecurityException e) {
+                logger.fine("Can't suppress access checks for " + method);
+            }
         }
 
-        public void invoke(Object... args) throws IllegalArgumentException, IllegalAccessException, InvocationTargetException, InstantiationException {
-            this.method.invoke(clazz.newInstance(), args);
+        public void invoke(Object... args) throws IllegalArgumentException, IllegalAccessException, InvocationTargetException {
+            this.method.invoke(listener, args);
         }
     }
 }
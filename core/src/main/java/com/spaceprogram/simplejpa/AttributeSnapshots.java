@@ -0,0 +1,138 @@
+package com.spaceprogram.simplejpa;
+
+import com.amazonaws.services.simpledb.model.Attribute;
+import com.amazonaws.services.simpledb.model.ReplaceableAttribute;
+
+import org.apache.commons.collections.map.AbstractReferenceMap;
+import org.apache.commons.collections.map.ReferenceIdentityMap;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Remembers the attributes each object was built from, and what was written for it since, so that Save can send only
+ * the attributes that actually changed.
+ * <p/>
+ * Snapshots belong to the instances ObjectBuilder built and are held weakly so they go with the object. Any other
+ * object, like a new instance given the id of an existing item, has no snapshot and is written in full since what's
+ * stored under its id is unknown. At most maxSize objects are tracked at a time, the rest are written in full too.
+ */
+public class AttributeSnapshots {
+
+    private final int maxSize;
+    /**
+     * object -> (attribute name -> values), the inner maps are never modified once stored.
+     */
+    private final Map<Object, Map<String, Set<String>>> snapshots;
+
+    public AttributeSnapshots(int maxSize) {
+        this.maxSize = maxSize;
+        snapshots = Collections.synchronizedMap(new ReferenceIdentityMap(AbstractReferenceMap.WEAK, AbstractReferenceMap.HARD));
+    }
+
+    /**
+     * @return the snapshot of o, null if it wasn't loaded from SimpleDB
+     */
+    public Map<String, Set<String>> get(Object o) {
+        return snapshots.get(o);
+    }
+
+    /**
+     * Stores what o was just built from.
+     */
+    public void loaded(Object o, List<Attribute> atts) {
+        Map<String, Set<String>> snapshot = new HashMap<String, Set<String>>();
+        for (Attribute att : atts) {
+            add(snapshot, att.getName(), att.getValue());
+        }
+        synchronized (snapshots) {
+            if (snapshots.size() < maxSize || snapshots.containsKey(o)) {
+                snapshots.put(o, snapshot);
+            }
+        }
+    }
+
+    /**
+     * Folds a successful write into the snapshot of o, if it has one.
+     *
+     * @param o
+     * @param put         attributes that were put, each name fully replaced
+     * @param deleted     names of attributes that were deleted
+     */
+    public void written(Object o, List<ReplaceableAttribute> put, Collection<String> deleted) {
+        Map<String, Set<String>> old = snapshots.get(o);
+        if (old == null) {
+            return;
+        }
+        Map<String, Set<String>> snapshot = new HashMap<String, Set<String>>(old);
+        for (String name : groupValues(put).keySet()) {
+            snapshot.remove(name);
+        }
+        for (ReplaceableAttribute att : put) {
+            add(snapshot, att.getName(), att.getValue());
+        }
+        for (String name : deleted) {
+            snapshot.remove(name);
+        }
+        snapshots.put(o, snapshot);
+    }
+
+    public void remove(Object o) {
+        snapshots.remove(o);
+    }
+
+    public void clear() {
+        snapshots.clear();
+    }
+
+    /**
+     * @return the attributes from toPut whose values differ from the snapshot. Attributes are compared by name as a
+     *         whole so multi-valued and split attributes are either all sent or not at all.
+     */
+    public static List<ReplaceableAttribute> changed(Map<String, Set<String>> snapshot, List<ReplaceableAttribute> toPut) {
+        Map<String, Set<String>> values = groupValues(toPut);
+        List<ReplaceableAttribute> changed = new ArrayList<ReplaceableAttribute>();
+        for (ReplaceableAttribute att : toPut) {
+            if (!values.get(att.getName()).equals(snapshot.get(att.getName()))) {
+                changed.add(att);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * @return the attributes from toDelete that the snapshot says actually exist.
+     */
+    public static List<Attribute> existing(Map<String, Set<String>> snapshot, List<Attribute> toDelete) {
+        List<Attribute> existing = new ArrayList<Attribute>();
+        for (Attribute att : toDelete) {
+            if (snapshot.containsKey(att.getName())) {
+                existing.add(att);
+            }
+        }
+        return existing;
+    }
+
+    private static Map<String, Set<String>> groupValues(List<ReplaceableAttribute> atts) {
+        Map<String, Set<String>> values = new HashMap<String, Set<String>>();
+        for (ReplaceableAttribute att : atts) {
+            add(values, att.getName(), att.getValue());
+        }
+        return values;
+    }
+
+    private static void add(Map<String, Set<String>> snapshot, String name, String value) {
+        Set<String> values = snapshot.get(name);
+        if (values == null) {
+            values = new HashSet<String>(2);
+            snapshot.put(name, values);
+        }
+        values.add(value);
+    }
+}
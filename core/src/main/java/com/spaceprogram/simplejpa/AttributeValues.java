@@ -0,0 +1,86 @@
+package com.spaceprogram.simplejpa;
+
+import com.amazonaws.services.simpledb.model.Attribute;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An item's attributes grouped by column in one pass, using the column slots of the class's AnnotationInfo.
+ * <p/>
+ * ObjectBuilder reads each property's values straight from its slot rather than scanning every attribute for every
+ * property, which adds up on wide or multi valued items.
+ */
+public class AttributeValues {
+    private final AnnotationInfo ai;
+    /**
+     * Indexed by column slot, a String for a single value or a List of them.
+     */
+    private final Object[] values;
+
+    @SuppressWarnings("unchecked")
+    public AttributeValues(AnnotationInfo ai, List<Attribute> atts) {
+        this.ai = ai;
+        values = new Object[ai.getColumnCount()];
+        for (Attribute att : atts) {
+            int slot = ai.getColumnSlot(att.getName());
+            if (slot < 0) {
+                continue;
+            }
+            Object existing = values[slot];
+            if (existing == null) {
+                values[slot] = att.getValue();
+            } else if (existing instanceof List) {
+                ((List<String>) existing).add(att.getValue());
+            } else {
+                List<String> list = new ArrayList<String>(4);
+                list.add((String) existing);
+                list.add(att.getValue());
+                values[slot] = list;
+            }
+        }
+    }
+
+    public AnnotationInfo getAnnotationInfo() {
+        return ai;
+    }
+
+    /**
+     * @return the DTYPE of the item, null if it doesn't have one
+     */
+    public String getDiscriminator() {
+        return first(values[AnnotationInfo.DTYPE_SLOT]);
+    }
+
+    /**
+     * @return the first value of the property's column, null if there isn't one
+     */
+    public String getValue(PersistentProperty property) {
+        return first(values[property.getColumnSlot()]);
+    }
+
+    /**
+     * @return all values of the property's column, empty if there aren't any
+     */
+    @SuppressWarnings("unchecked")
+    public Collection<String> getValues(PersistentProperty property) {
+        Object value = values[property.getColumnSlot()];
+        if (value == null) {
+            return Collections.emptyList();
+        }
+        if (value instanceof List) {
+            return (List<String>) value;
+        }
+        return Collections.singletonList((String) value);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static String first(Object value) {
+        if (value instanceof List) {
+            return ((List<String>) value).get(0);
+        }
+        return (String) value;
+    }
+}
@@ -0,0 +1,20 @@
+package com.spaceprogram.simplejpa;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Put this on a @OneToMany to load the collections of all the objects in the same page of results together the first
+ * time any one of them is used, instead of one query per object.
+ *
+ * eg: iterating orders and calling order.getLines() runs one `order_id` in (...) query on the lines per 20 orders.
+ *
+ * To do this for every OneToMany use the batchFetch factory property, or for one query the
+ * SimpleQuery.HINT_BATCH_FETCH hint.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.METHOD, ElementType.FIELD})
+public @interface BatchFetch {
+}
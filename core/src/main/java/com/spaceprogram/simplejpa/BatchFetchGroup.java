@@ -0,0 +1,211 @@
+package com.spaceprogram.simplejpa;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.persistence.PersistenceException;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.simpledb.model.Attribute;
+import com.amazonaws.services.simpledb.model.Item;
+import com.amazonaws.services.simpledb.model.SelectResult;
+import com.spaceprogram.simplejpa.query.SimpleQuery;
+
+/**
+ * The objects built from one page of results. OneToMany LazyList's of these objects are registered here so that when
+ * the first one is used, the collections of all of them are loaded with `fk` in (...) queries on the foreign key
+ * column, 20 parents per query, and handed out to each list.
+ * <p/>
+ * ManyToOne keys are registered the same way: the first reference of a class that's resolved loads all the pending
+ * keys of that class with one findAll.
+ */
+public class BatchFetchGroup {
+    private static Logger logger = Logger.getLogger(BatchFetchGroup.class.getName());
+
+    private EntityManagerSimpleJPA em;
+    private boolean all;
+    private Map<String, Siblings> siblings = new HashMap<String, Siblings>();
+    /**
+     * ManyToOne keys not loaded yet, by referenced class.
+     */
+    private Map<Class<?>, Set<String>> pendingKeys = new HashMap<Class<?>, Set<String>>();
+    /**
+     * ManyToOne objects already loaded, by referenced class.
+     */
+    private Map<Class<?>, Map<String, Object>> references = new HashMap<Class<?>, Map<String, Object>>();
+
+    /**
+     * @param em
+     * @param all true to batch every OneToMany, otherwise only the ones marked with @BatchFetch
+     */
+    public BatchFetchGroup(EntityManagerSimpleJPA em, boolean all) {
+        this.em = em;
+        this.all = all;
+    }
+
+    public boolean isAll() {
+        return all;
+    }
+
+    /**
+     * Registers the collection of one parent. Collections ordered by more than one attribute aren't batched since
+     * SimpleDB can only sort on one.
+     */
+    void add(PersistentProperty field, Class<?> typeInList, String foreignKeyFieldName, List<PersistentProperty.OrderClause> orderBy,
+             Object parentId, LazyList<?> list) {
+        if (!all && !field.isBatchFetch()) {
+            return;
+        }
+        if (orderBy != null && orderBy.size() > 1) {
+            return;
+        }
+        PersistentProperty.OrderClause order = orderBy == null || orderBy.isEmpty() ? null : orderBy.get(0);
+        String key = typeInList.getName() + "." + foreignKeyFieldName;
+        Siblings s = siblings.get(key);
+        if (s == null) {
+            s = new Siblings(typeInList, foreignKeyFieldName, order);
+            siblings.put(key, s);
+        }
+        s.lists.put(parentId.toString(), list);
+        list.setBatchFetch(s);
+    }
+
+    /**
+     * Registers foreign keys that may be resolved later with getReference().
+     */
+    public synchronized void addForeignKeys(Class<?> type, Collection<String> keys) {
+        Set<String> pending = pendingKeys.get(type);
+        if (pending == null) {
+            pending = new LinkedHashSet<String>();
+            pendingKeys.put(type, pending);
+        }
+        pending.addAll(keys);
+    }
+
+    /**
+     * @return the referenced object, loading it together with every other pending key of the same class.
+     */
+    public synchronized Object getReference(Class<?> type, String key) {
+        Map<String, Object> loaded = references.get(type);
+        if (loaded == null || !loaded.containsKey(key)) {
+            Set<String> pending = pendingKeys.remove(type);
+            if (pending == null) {
+                pending = new LinkedHashSet<String>();
+            }
+            pending.add(key);
+            if (loaded == null) {
+                loaded = new HashMap<String, Object>();
+                references.put(type, loaded);
+            }
+            if (logger.isLoggable(Level.FINE))
+                logger.fine("batch loading " + pending.size() + " references to " + type.getSimpleName());
+            Map<String, ?> found = em.findAll(type, pending);
+            for (String k : pending) {
+                // remember misses too so they aren't asked for again
+                loaded.put(k, found.get(k));
+            }
+        }
+        return loaded.get(key);
+    }
+
+    /**
+     * The lists of one relationship across the parents in the page.
+     */
+    class Siblings {
+        private Class<?> typeInList;
+        private String foreignKeyFieldName;
+        private PersistentProperty.OrderClause order;
+        private Map<String, LazyList<?>> lists = new LinkedHashMap<String, LazyList<?>>();
+
+        Siblings(Class<?> typeInList, String foreignKeyFieldName, PersistentProperty.OrderClause order) {
+            this.typeInList = typeInList;
+            this.foreignKeyFieldName = foreignKeyFieldName;
+            this.order = order;
+        }
+
+        /**
+         * Loads every list that hasn't been loaded yet. Lists are filled through their own synchronized method,
+         * a list never calls this while holding its own lock.
+         */
+        synchronized void load() {
+            List<String> parentIds = new ArrayList<String>();
+            for (Map.Entry<String, LazyList<?>> entry : lists.entrySet()) {
+                if (!entry.getValue().isFetched()) {
+                    parentIds.add(entry.getKey());
+                }
+            }
+            if (parentIds.isEmpty()) {
+                return;
+            }
+            AnnotationInfo ai = em.getAnnotationManager().getAnnotationInfo(typeInList);
+            Class<?> rootClass = ai.getRootClass();
+            String domainName = em.getDomainName(rootClass);
+            String fkColumn = NamingHelper.foreignKey(foreignKeyFieldName);
+            String orderColumn = order == null ? null : ai.getPersistentProperty(order.field).getColumnName();
+
+            Map<String, List<Object>> children = new HashMap<String, List<Object>>();
+            BatchFetchGroup childGroup = new BatchFetchGroup(em, all);
+            for (int from = 0; from < parentIds.size(); from += DomainHelper.MAX_IN_VALUES) {
+                List<String> chunk = parentIds.subList(from, Math.min(from + DomainHelper.MAX_IN_VALUES, parentIds.size()));
+                String select = select(domainName, ai, fkColumn, orderColumn, chunk);
+                if (em.getFactory().isPrintQueries())
+                    System.out.println("batch fetch query=" + select);
+                String nextToken = null;
+                try {
+                    do {
+                        SelectResult qr = em.selectPage(select, nextToken, em.isConsistentRead());
+                        for (Item item : qr.getItems()) {
+                            String parentId = attributeValue(item.getAttributes(), fkColumn);
+                            List<Object> list = children.get(parentId);
+                            if (list == null) {
+                                list = new ArrayList<Object>();
+                                children.put(parentId, list);
+                            }
+                            list.add(em.buildObject(typeInList, item.getName(), item.getAttributes(), childGroup));
+                        }
+                        nextToken = qr.getNextToken();
+                    } while (nextToken != null);
+                } catch (AmazonClientException e) {
+                    throw new PersistenceException("Batch fetch failed: Domain=" + domainName + " -> " + select, e);
+                }
+            }
+            if (logger.isLoggable(Level.FINE))
+                logger.fine("batch fetched " + typeInList.getSimpleName() + " for " + parentIds.size() + " parents");
+            for (String parentId : parentIds) {
+                List<Object> list = children.get(parentId);
+                lists.get(parentId).batchFetched(list == null ? new ArrayList<Object>(0) : list);
+            }
+        }
+
+        private String select(String domainName, AnnotationInfo ai, String fkColumn, String orderColumn, List<String> parentIds) {
+            StringBuilder sb = new StringBuilder("select * from `").append(domainName).append("` where ");
+            sb.append(DomainHelper.inClause("`" + fkColumn + "`", parentIds));
+            if (ai.getDiscriminatorValue() != null) {
+                sb.append(" and `").append(EntityManagerFactoryImpl.DTYPE).append("` = '").append(ai.getDiscriminatorValue()).append("'");
+            }
+            if (orderColumn != null) {
+                sb.append(" and `").append(orderColumn).append("` is not null order by `").append(orderColumn).append("` ");
+                sb.append(order.order == null ? "asc" : order.order.toString().toLowerCase());
+            }
+            sb.append(" limit ").append(SimpleQuery.MAX_RESULTS_PER_REQUEST);
+            return sb.toString();
+        }
+
+        private String attributeValue(List<Attribute> atts, String name) {
+            for (Attribute att : atts) {
+                if (att.getName().equals(name)) {
+                    return att.getValue();
+                }
+            }
+            return null;
+        }
+    }
+}
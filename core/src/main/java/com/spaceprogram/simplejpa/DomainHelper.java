@@ -10,6 +10,7 @@ import com.amazonaws.services.simpledb.model.GetAttributesResult;
 import com.amazonaws.services.simpledb.model.Item;
 import com.amazonaws.services.simpledb.model.SelectRequest;
 import com.amazonaws.services.simpledb.model.SelectResult;
+import com.spaceprogram.simplejpa.util.EscapeUtils;
 
 /**
  * This is a utility class for doing SimpleDB queries.
@@ -20,6 +21,11 @@ import com.amazonaws.services.simpledb.model.SelectResult;
  */
 public class DomainHelper {
 
+    /**
+     * SimpleDB allows at most 20 comparisons in an IN clause.
+     */
+    public static final int MAX_IN_VALUES = 20;
+
 	/**
 	 * A utility method for loading up all the items in a domain. Uses consistent read.
 	 * 
@@ -87,6 +93,23 @@ public class DomainHelper {
         
         return results;
     }	
+
+    /**
+     * Builds a where condition matching any of the values, eg: itemName() in ('a','b'). Callers split the values
+     * into chunks of at most MAX_IN_VALUES.
+     *
+     * @param attributeRef itemName() or a quoted attribute name
+     * @param values
+     * @return
+     */
+    public static String inClause(String attributeRef, List<String> values) {
+        StringBuilder sb = new StringBuilder(attributeRef).append(" in (");
+        for (int i = 0; i < values.size(); i++) {
+            if (i > 0) sb.append(",");
+            sb.append("'").append(EscapeUtils.escapeQueryParam(values.get(i))).append("'");
+        }
+        return sb.append(")").toString();
+    }
 	
 	/**
 	 * Runs a query on the passed in domain with the passed in whereClause.  If the nextToken is included for pagination. Uses consistent read.
@@ -0,0 +1,116 @@
+package com.spaceprogram.simplejpa;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Annotation processor that lists the @Entity classes being compiled in META-INF/simplejpa-entities, so
+ * EntityManagerFactoryImpl can load them at startup instead of scanning the whole classpath.
+ * <p/>
+ * It isn't registered in META-INF/services, so builds that want the index name it explicitly, eg: javac -processor
+ * com.spaceprogram.simplejpa.EntityIndexProcessor, and turn it on with entityIndex=true. Entries already in the index
+ * from an earlier, partial compile are kept as long as their classes still exist.
+ */
+@SupportedAnnotationTypes("javax.persistence.Entity")
+public class EntityIndexProcessor extends AbstractProcessor {
+
+    /**
+     * Classpath resource holding the entity class names, one per line.
+     */
+    public static final String ENTITY_INDEX = "META-INF/simplejpa-entities";
+
+    private Set<String> entities = new TreeSet<String>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        TypeElement entity = processingEnv.getElementUtils().getTypeElement("javax.persistence.Entity");
+        if (entity != null) {
+            for (Element element : roundEnv.getElementsAnnotatedWith(entity)) {
+                if (element instanceof TypeElement) {
+                    entities.add(processingEnv.getElementUtils().getBinaryName((TypeElement) element).toString());
+                }
+            }
+        }
+        if (roundEnv.processingOver() && !entities.isEmpty()) {
+            writeIndex();
+        }
+        return false;
+    }
+
+    private void writeIndex() {
+        for (String existing : readExisting()) {
+            if (processingEnv.getElementUtils().getTypeElement(existing.replace('$', '.')) != null) {
+                entities.add(existing);
+            }
+        }
+        try {
+            FileObject resource = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", ENTITY_INDEX);
+            Writer writer = new OutputStreamWriter(resource.openOutputStream(), "UTF-8");
+            try {
+                for (String entity : entities) {
+                    writer.write(entity);
+                    writer.write('\n');
+                }
+            } finally {
+                writer.close();
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING, "Could not write " + ENTITY_INDEX + ": " + e.getMessage());
+        }
+    }
+
+    private List<String> readExisting() {
+        List<String> existing = new ArrayList<String>();
+        try {
+            FileObject resource = processingEnv.getFiler().getResource(StandardLocation.CLASS_OUTPUT, "", ENTITY_INDEX);
+            existing.addAll(readIndex(resource.openInputStream()));
+        } catch (IOException e) {
+            // no index yet
+        } catch (IllegalArgumentException e) {
+            // some compilers won't read resources they can also write
+        }
+        return existing;
+    }
+
+    /**
+     * @return the class names in an index, skipping blank lines and # comments
+     */
+    public static List<String> readIndex(InputStream in) throws IOException {
+        List<String> entities = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.length() > 0 && !line.startsWith("#")) {
+                    entities.add(line);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return entities;
+    }
+}
@@ -4,19 +4,34 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.management.ManagementFactory;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
 import javax.persistence.Entity;
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
@@ -44,7 +59,16 @@ import com.spaceprogram.simplejpa.cache.Cache;
 import com.spaceprogram.simplejpa.cache.CacheFactory;
 import com.spaceprogram.simplejpa.cache.NoopCache;
 import com.spaceprogram.simplejpa.cache.NoopCacheFactory;
+import com.spaceprogram.simplejpa.operations.BatchDeleteAttributes;
+import com.spaceprogram.simplejpa.operations.BatchPutAttributes;
+import com.spaceprogram.simplejpa.query.QueryPlanCache;
+import com.spaceprogram.simplejpa.stats.DomainStats;
 import com.spaceprogram.simplejpa.stats.OpStats;
+import com.spaceprogram.simplejpa.stats.StripedCounter;
+import com.spaceprogram.simplejpa.util.AdaptiveLimiter;
+import com.spaceprogram.simplejpa.util.ExecutorStrategy;
+import com.spaceprogram.simplejpa.util.SubmitLimiter;
+import com.spaceprogram.simplejpa.util.ThrottledSimpleDB;
 
 /**
  * User: treeder Date: Feb 10, 2008 Time: 6:20:23 PM
@@ -93,18 +117,36 @@ public class EntityManagerFactoryImpl implements EntityManagerFactory {
      * things like puts/deletes
      */
     private ExecutorService executor;
+    /**
+     * False if the executor was passed in with the executorService property, then it's left running on close.
+     */
+    private boolean ownsExecutor = true;
+    /**
+     * Runs the S3 puts for lobs, sized separately so lob heavy entities don't starve the SimpleDB calls.
+     */
+    private ExecutorService lobExecutor;
     /**
      * Also the prefix that will be applied to each Domain
      */
     private String persistenceUnitName;
     /**
-     * Cached set of existing Amazon SimpleDB domains.
+     * Cached set of existing Amazon SimpleDB domains, concurrent once loaded.
      */
-    private Set<String> domainSet;
+    private volatile Set<String> domainSet;
     /**
-     * same as domainsList, but map access
+     * Domain of each class getDomainName has been asked for, only put once the domain is known to exist, so the usual
+     * lookup is a single read with no lock.
      */
-    private HashSet<String> bucketSet = new HashSet<String>();
+    private ConcurrentMap<Class, String> domainNames = new ConcurrentHashMap<Class, String>();
+    /**
+     * Lock per domain so creating one domain doesn't hold up the others.
+     */
+    private ConcurrentMap<String, Object> domainLocks = new ConcurrentHashMap<String, Object>();
+    /**
+     * The lob bucket once it's known to exist, read without a lock after that.
+     */
+    private volatile String s3BucketName;
+    private final Object s3BucketLock = new Object();
     /**
      * SimpleDB client
      */
@@ -116,18 +158,41 @@ public class EntityManagerFactoryImpl implements EntityManagerFactory {
 
     private static final int DEFAULT_GET_THREADS = 100;
     private int numExecutorThreads = DEFAULT_GET_THREADS;
+    private static final int DEFAULT_LOB_THREADS = 20;
+    private int numLobThreads = DEFAULT_LOB_THREADS;
     public static final String DTYPE = "DTYPE";
 
     private static final String AWSACCESS_KEY_PROP_NAME = "accessKey";
     private static final String AWSSECRET_KEY_PROP_NAME = "secretKey";
 
     // Global stats across all EntityManager's
-    private OpStats stats = new OpStats();
+    private OpStats stats = new OpStats(true, StripedCounter.defaultStripes());
+    /**
+     * The same broken down by domain, filled in as domains are used.
+     */
+    private ConcurrentMap<String, DomainStats> domainStats = new ConcurrentHashMap<String, DomainStats>();
+    /**
+     * Register each DomainStats as an MBean.
+     */
+    private boolean jmx;
 
     /**
      * Whether to display amazon queries or not.
      */
     private boolean printQueries = false;
+    /**
+     * How many pages LazyList fetches ahead of the one being read, 0 to only fetch on demand.
+     */
+    private int lazyListPrefetchDepth;
+    /**
+     * Default for loading the OneToMany collections of a page of results together, see BatchFetch.
+     */
+    private boolean batchFetch;
+    /**
+     * Whether loaded objects are built as cglib subclasses that load their ManyToOne references and lobs on first
+     * access. Off by default, the references and lobs of loaded objects are then left null.
+     */
+    private boolean lazyLoading;
     private String sdbEndpoint;
     private boolean sdbSecure;
     private String s3Endpoint;
@@ -141,6 +206,35 @@ public class EntityManagerFactoryImpl implements EntityManagerFactory {
     private Cache cache;
     private String cacheClassname;
     private boolean consistentRead = true;
+    /**
+     * Coalesce async puts and deletes into batch calls, null unless batchWrites is on.
+     */
+    private BatchPutAttributes batchPutAttributes;
+    private BatchDeleteAttributes batchDeleteAttributes;
+    /**
+     * Limits the SimpleDB calls in flight, null unless adaptiveConcurrency is on.
+     */
+    private AdaptiveLimiter concurrencyLimiter;
+    /**
+     * Calls per second allowed to each domain, 0 for no limit.
+     */
+    private double domainRequestsPerSecond;
+    private double domainBurst;
+    /**
+     * Bounds the pending async operations, null unless maxPendingAsync is set.
+     */
+    private SubmitLimiter asyncLimiter;
+    private static final long DEFAULT_BATCH_LINGER_MILLIS = 10;
+    /**
+     * Attributes each loaded object was built from so updates only send what changed, null unless snapshotCacheSize
+     * is set.
+     */
+    private AttributeSnapshots attributeSnapshots;
+    /**
+     * Parsed queries keyed by JPQL, null if queryPlanCacheSize is 0.
+     */
+    private QueryPlanCache queryPlanCache;
+    private static final int DEFAULT_QUERY_PLAN_CACHE_SIZE = 1000;
     
     // Amazon recommends using no uppercase letters in bucket names, see
     // http://docs.amazonwebservices.com/AmazonS3/latest/dev/BucketRestrictions.html
@@ -219,6 +313,40 @@ public class EntityManagerFactoryImpl implements EntityManagerFactory {
     }
 
     private void createClients() {
+        // clients can be passed in, eg: to go through a proxy or to test without AWS
+        Object simpleDb = props.get("simpleDbClient");
+        Object s3 = props.get("s3Client");
+        AWSCredentials awsCredentials = null;
+        if (!(simpleDb instanceof AmazonSimpleDB) || !(s3 instanceof AmazonS3)) {
+            awsCredentials = loadCredentials();
+        }
+
+        if (simpleDb instanceof AmazonSimpleDB) {
+            this.simpleDbClient = (AmazonSimpleDB) simpleDb;
+        } else {
+            ClientConfiguration sdbConfig = createConfiguration(sdbSecure);
+            // enough connections for every executor thread to have its own
+            sdbConfig.setMaxConnections(Math.max(sdbConfig.getMaxConnections(),
+                    MapUtils.getIntValue(props, "sdbMaxConnections", numExecutorThreads)));
+            this.simpleDbClient = new AmazonSimpleDBClient(awsCredentials, sdbConfig);
+            this.simpleDbClient.setEndpoint(sdbEndpoint);
+        }
+        if (concurrencyLimiter != null || domainRequestsPerSecond > 0) {
+            this.simpleDbClient = new ThrottledSimpleDB(simpleDbClient, concurrencyLimiter, domainRequestsPerSecond, domainBurst);
+        }
+
+        if (s3 instanceof AmazonS3) {
+            this.s3Client = (AmazonS3) s3;
+        } else {
+            ClientConfiguration s3Config = createConfiguration(s3Secure);
+            // enough connections for every lob thread to have its own
+            s3Config.setMaxConnections(Math.max(s3Config.getMaxConnections(), numLobThreads));
+            this.s3Client = new AmazonS3Client(awsCredentials, s3Config);
+            this.s3Client.setEndpoint(s3Endpoint);
+        }
+    }
+
+    private AWSCredentials loadCredentials() {
         AWSCredentials awsCredentials = null;
         InputStream credentialsFile = getClass().getClassLoader().getResourceAsStream("AwsCredentials.properties");
         if (credentialsFile != null) {
@@ -241,12 +369,7 @@ public class EntityManagerFactoryImpl implements EntityManagerFactory {
 
             awsCredentials = new BasicAWSCredentials(awsAccessKey, awsSecretKey);
         }
-
-        this.simpleDbClient = new AmazonSimpleDBClient(awsCredentials, createConfiguration(sdbSecure));
-        this.simpleDbClient.setEndpoint(sdbEndpoint);
-
-        this.s3Client = new AmazonS3Client(awsCredentials, createConfiguration(s3Secure));
-        this.s3Client.setEndpoint(s3Endpoint);
+        return awsCredentials;
     }
 
     private ClientConfiguration createConfiguration(boolean isSecure) {
@@ -310,6 +433,24 @@ public class EntityManagerFactoryImpl implements EntityManagerFactory {
         String prop = (String) props.get("threads");
         if (prop != null)
             numExecutorThreads = Integer.parseInt(prop);
+        numLobThreads = MapUtils.getIntValue(props, "lobThreads", DEFAULT_LOB_THREADS);
+        jmx = MapUtils.getBoolean(props, "jmx", false);
+
+        if (MapUtils.getBoolean(props, "adaptiveConcurrency", false)) {
+            int maxConcurrency = MapUtils.getIntValue(props, "maxConcurrency", numExecutorThreads);
+            int minConcurrency = MapUtils.getIntValue(props, "minConcurrency", 1);
+            concurrencyLimiter = new AdaptiveLimiter(minConcurrency, maxConcurrency, maxConcurrency);
+        }
+        domainRequestsPerSecond = MapUtils.getDoubleValue(props, "domainRequestsPerSecond", 0);
+        domainBurst = MapUtils.getDoubleValue(props, "domainBurst", domainRequestsPerSecond);
+        int maxPendingAsync = MapUtils.getIntValue(props, "maxPendingAsync", 0);
+        if (maxPendingAsync > 0) {
+            String backpressure = MapUtils.getString(props, "asyncBackpressure", "block");
+            if (!backpressure.equals("block") && !backpressure.equals("fail")) {
+                throw new PersistenceException("Unknown asyncBackpressure " + backpressure + ", should be block or fail.");
+            }
+            asyncLimiter = new SubmitLimiter(maxPendingAsync, backpressure.equals("block"));
+        }
 
         sdbEndpoint = MapUtils.getString(props, "sdbEndpoint", DEFAULT_SDB_ENDPOINT);
         sdbSecure = MapUtils.getBoolean(props, "sdbSecure", false);
@@ -319,12 +460,34 @@ public class EntityManagerFactoryImpl implements EntityManagerFactory {
         
         allowUppercaseBucketNames = MapUtils.getBoolean(props, "allowUppercaseBucketNames", true);
 
+        lazyListPrefetchDepth = MapUtils.getIntValue(props, "lazyListPrefetchDepth", 0);
+        batchFetch = MapUtils.getBoolean(props, "batchFetch", false);
+        lazyLoading = MapUtils.getBoolean(props, "lazyLoading", false);
+
+        int snapshotCacheSize = MapUtils.getIntValue(props, "snapshotCacheSize", 0);
+        if (snapshotCacheSize > 0) {
+            attributeSnapshots = new AttributeSnapshots(snapshotCacheSize);
+        }
+
+        int queryPlanCacheSize = MapUtils.getIntValue(props, "queryPlanCacheSize", DEFAULT_QUERY_PLAN_CACHE_SIZE);
+        if (queryPlanCacheSize > 0) {
+            queryPlanCache = new QueryPlanCache(queryPlanCacheSize);
+        }
+
+        if (MapUtils.getBoolean(props, "batchWrites", false)) {
+            int batchSize = MapUtils.getIntValue(props, "batchSize", BatchPutAttributes.MAX_BATCH_SIZE);
+            long batchLingerMillis = MapUtils.getLongValue(props, "batchLingerMillis", DEFAULT_BATCH_LINGER_MILLIS);
+            batchPutAttributes = new BatchPutAttributes(this, batchSize, batchLingerMillis);
+            batchDeleteAttributes = new BatchDeleteAttributes(this, batchSize, batchLingerMillis);
+        }
+
         if (null != libsToScan) {
             scanClasses(libsToScan);
         } else {
             if (classNames != null) {
-                for (String className : classNames)
-                    initEntity(className);
+                initEntities(classNames);
+            } else if (MapUtils.getBoolean(props, "entityIndex", false)) {
+                loadEntityIndex();
             } else {
                 scanClasses(new HashSet<String>());
             }
@@ -332,7 +495,20 @@ public class EntityManagerFactoryImpl implements EntityManagerFactory {
 
         initSecondLevelCache();
 
-        executor = Executors.newFixedThreadPool(numExecutorThreads);
+        ExecutorStrategy executorStrategy;
+        try {
+            executorStrategy = ExecutorStrategy.forName(MapUtils.getString(props, "executor"));
+        } catch (IllegalArgumentException e) {
+            throw new PersistenceException(e.getMessage());
+        }
+        Object executorService = props.get("executorService");
+        if (executorService instanceof ExecutorService) {
+            executor = (ExecutorService) executorService;
+            ownsExecutor = false;
+        } else {
+            executor = executorStrategy.create(numExecutorThreads);
+        }
+        lobExecutor = executorStrategy.create(numLobThreads);
     }
 
     private void scanClasses(Set<String> libsToScan) {
@@ -372,9 +548,7 @@ public class EntityManagerFactoryImpl implements EntityManagerFactory {
             annotationDB.scanArchives(urls);
             entities = annotationDB.getAnnotationIndex().get(Entity.class.getName());
             if (entities != null) {
-                for (String entity : entities) {
-                    initEntity(entity);
-                }
+                initEntities(entities);
             }
             logger.info("Finished scanning for entity classes.");
         } catch (IOException e) {
@@ -382,14 +556,79 @@ public class EntityManagerFactoryImpl implements EntityManagerFactory {
         }
     }
 
-    private void initEntity(String entity) {
-        logger.info("entity=" + entity);
-        entityMap.put(entity, entity);
-        // also add simple name to it
-        String simpleName = entity.substring(entity.lastIndexOf(".") + 1);
-        entityMap.put(simpleName, entity);
-        Class c = getAnnotationManager().getClass(entity, null);
-        getAnnotationManager().putAnnotationInfo(c);
+    /**
+     * Loads the entity class names EntityIndexProcessor wrote at compile time instead of scanning the classpath, used
+     * when entityIndex=true. Every index on the classpath is used and nothing is scanned, so each jar with entities
+     * needs to have been compiled with the processor.
+     */
+    private void loadEntityIndex() {
+        ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        if (classLoader == null) {
+            classLoader = getClass().getClassLoader();
+        }
+        try {
+            Enumeration<URL> indexes = classLoader.getResources(EntityIndexProcessor.ENTITY_INDEX);
+            if (!indexes.hasMoreElements()) {
+                throw new PersistenceException("entityIndex is set but there is no " + EntityIndexProcessor.ENTITY_INDEX
+                        + " on the classpath, compile the entities with EntityIndexProcessor or leave entityIndex out to scan.");
+            }
+            Set<String> indexed = new TreeSet<String>();
+            while (indexes.hasMoreElements()) {
+                URL index = indexes.nextElement();
+                logger.info("Loading entity index: " + index);
+                indexed.addAll(EntityIndexProcessor.readIndex(index.openStream()));
+            }
+            entities = indexed;
+            initEntities(indexed);
+        } catch (IOException e) {
+            throw new PersistenceException("Failed reading entity index.", e);
+        }
+    }
+
+    /**
+     * Registers the entity names, then builds their AnnotationInfo in parallel.
+     */
+    private void initEntities(Collection<String> entityNames) {
+        List<Class> classes = new ArrayList<Class>(entityNames.size());
+        for (String entity : entityNames) {
+            logger.info("entity=" + entity);
+            entityMap.put(entity, entity);
+            // also add simple name to it
+            String simpleName = entity.substring(entity.lastIndexOf(".") + 1);
+            entityMap.put(simpleName, entity);
+            // loaded here so it's with this thread's class loader
+            classes.add(getAnnotationManager().getClass(entity, null));
+        }
+        int threads = Math.min(classes.size(), Runtime.getRuntime().availableProcessors());
+        if (threads <= 1) {
+            for (Class c : classes) {
+                getAnnotationManager().putAnnotationInfo(c);
+            }
+            return;
+        }
+        ExecutorService loader = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<AnnotationInfo>> futures = new ArrayList<Future<AnnotationInfo>>(classes.size());
+            for (final Class c : classes) {
+                futures.add(loader.submit(new Callable<AnnotationInfo>() {
+                    public AnnotationInfo call() throws Exception {
+                        return getAnnotationManager().putAnnotationInfo(c);
+                    }
+                }));
+            }
+            for (Future<AnnotationInfo> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            throw new PersistenceException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof PersistenceException) {
+                throw (PersistenceException) e.getCause();
+            }
+            throw new PersistenceException(e.getCause());
+        } finally {
+            loader.shutdown();
+        }
     }
 
     private void initSecondLevelCache() {
@@ -445,8 +684,20 @@ public class EntityManagerFactoryImpl implements EntityManagerFactory {
 
     public void close() {
         closed = true;
-        executor.shutdown();
+        if (ownsExecutor) {
+            executor.shutdown();
+        }
+        lobExecutor.shutdown();
         cacheFactory.shutdown();
+        if (jmx) {
+            for (DomainStats ds : domainStats.values()) {
+                try {
+                    ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName(ds));
+                } catch (JMException e) {
+                    logger.fine("Could not unregister stats of " + ds.getDomainName() + ": " + e);
+                }
+            }
+        }
     }
 
     public boolean isOpen() {
@@ -465,6 +716,13 @@ public class EntityManagerFactoryImpl implements EntityManagerFactory {
         return executor;
     }
 
+    /**
+     * @return the executor for lob puts, its size is set with lobThreads
+     */
+    public ExecutorService getLobExecutor() {
+        return lobExecutor;
+    }
+
     public String getPersistenceUnitName() {
         return persistenceUnitName;
     }
@@ -473,23 +731,39 @@ public class EntityManagerFactoryImpl implements EntityManagerFactory {
         this.persistenceUnitName = persistenceUnitName;
     }
 
-    public synchronized void setupDbDomain(String domainName) {
-        try {
-            if (!doesDomainExist(domainName)) {
-                logger.info("creating domain: " + domainName);
-                AmazonSimpleDB db = getSimpleDb();
-                db.createDomain(new CreateDomainRequest().withDomainName(domainName));
-                domainSet.add(domainName);
+    public void setupDbDomain(String domainName) {
+        if (doesDomainExist(domainName)) {
+            return;
+        }
+        Object lock = domainLocks.get(domainName);
+        if (lock == null) {
+            Object newLock = new Object();
+            lock = domainLocks.putIfAbsent(domainName, newLock);
+            if (lock == null) {
+                lock = newLock;
+            }
+        }
+        synchronized (lock) {
+            try {
+                if (!doesDomainExist(domainName)) {
+                    logger.info("creating domain: " + domainName);
+                    AmazonSimpleDB db = getSimpleDb();
+                    db.createDomain(new CreateDomainRequest().withDomainName(domainName));
+                    domainSet.add(domainName);
+                }
+            } catch (AmazonClientException e) {
+                throw new PersistenceException("Could not create SimpleDB domain.", e);
             }
-        } catch (AmazonClientException e) {
-            throw new PersistenceException("Could not create SimpleDB domain.", e);
         }
     }
 
     public boolean doesDomainExist(String domainName) {
-        if (domainSet == null)
+        Set<String> domains = domainSet;
+        if (domains == null) {
             loadDomains();
-        return domainSet.contains(domainName);
+            domains = domainSet;
+        }
+        return domains.contains(domainName);
     }
 
     public boolean doesDomainExist(Class c) {
@@ -513,39 +787,74 @@ public class EntityManagerFactoryImpl implements EntityManagerFactory {
             return;
 
         try {
-            domainSet = new HashSet<String>();
+            Set<String> domains = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
             logger.info("getting all domains");
             AmazonSimpleDB db = getSimpleDb();
             ListDomainsResult listDomainsResult = db.listDomains();
-            domainSet.addAll(listDomainsResult.getDomainNames());
+            domains.addAll(listDomainsResult.getDomainNames());
             while (listDomainsResult.getNextToken() != null) {
                 ListDomainsRequest request = new ListDomainsRequest().withNextToken(listDomainsResult.getNextToken());
                 listDomainsResult = db.listDomains(request);
-                domainSet.addAll(listDomainsResult.getDomainNames());
+                domains.addAll(listDomainsResult.getDomainNames());
             }
+            // only published once it's complete since readers don't lock
+            domainSet = domains;
         } catch (AmazonClientException e) {
             throw new PersistenceException(e);
         }
     }
 
+    /**
+     * @return the SimpleDB client, throttled if adaptiveConcurrency or domainRequestsPerSecond are set
+     */
     public AmazonSimpleDB getSimpleDb() {
         return this.simpleDbClient;
     }
 
+    /**
+     * @return the limiter in front of SimpleDB calls, or null if adaptiveConcurrency is off.
+     */
+    public AdaptiveLimiter getConcurrencyLimiter() {
+        return concurrencyLimiter;
+    }
+
+    /**
+     * @return the bound on pending async operations, or null if maxPendingAsync isn't set.
+     */
+    public SubmitLimiter getAsyncLimiter() {
+        return asyncLimiter;
+    }
+
     public AnnotationManager getAnnotationManager() {
         return annotationManager;
     }
 
+    /**
+     * Creates the domain the first time it's asked for.
+     */
     public String getDomainName(Class<? extends Object> aClass) {
+        String domainName = domainNames.get(aClass);
+        if (domainName != null) {
+            return domainName;
+        }
         String className = getRootClassName(aClass);
         AnnotationInfo ai = getAnnotationManager().getAnnotationInfo(aClass);
-        String domainName = ai.getDomainName();
+        domainName = ai.getDomainName();
         if (domainName == null || domainName.length() <= 0)
             domainName = getDomainName(className);
         createIfNotExistDomain(domainName);
+        domainNames.put(aClass, domainName);
         return domainName;
     }
 
+    /**
+     * @return the domain getDomainName already found for the class, null if it hasn't been asked for it yet. Never
+     *         lists or creates domains.
+     */
+    public String getKnownDomainName(Class<? extends Object> aClass) {
+        return domainNames.get(aClass);
+    }
+
     public String getDomainName(String className) {
         String domainName = getPersistenceUnitName() + "-" + className;
         return domainName;
@@ -565,6 +874,30 @@ public class EntityManagerFactoryImpl implements EntityManagerFactory {
         this.printQueries = printQueries;
     }
 
+    public boolean isBatchFetch() {
+        return batchFetch;
+    }
+
+    public void setBatchFetch(boolean batchFetch) {
+        this.batchFetch = batchFetch;
+    }
+
+    public boolean isLazyLoading() {
+        return lazyLoading;
+    }
+
+    public void setLazyLoading(boolean lazyLoading) {
+        this.lazyLoading = lazyLoading;
+    }
+
+    public int getLazyListPrefetchDepth() {
+        return lazyListPrefetchDepth;
+    }
+
+    public void setLazyListPrefetchDepth(int lazyListPrefetchDepth) {
+        this.lazyListPrefetchDepth = lazyListPrefetchDepth;
+    }
+
     public String getSdbEndpoint() {
         return sdbEndpoint;
     }
@@ -592,6 +925,8 @@ public class EntityManagerFactoryImpl implements EntityManagerFactory {
     public void clearSecondLevelCache() {
         if (cache != null)
             cache.clear();
+        if (attributeSnapshots != null)
+            attributeSnapshots.clear();
     }
 
     /**
@@ -616,7 +951,20 @@ public class EntityManagerFactoryImpl implements EntityManagerFactory {
         return this.s3Client;
     }
 
-    public synchronized String getS3BucketName() {
+    public String getS3BucketName() {
+        String bucketName = s3BucketName;
+        if (bucketName != null) {
+            return bucketName;
+        }
+        synchronized (s3BucketLock) {
+            if (s3BucketName == null) {
+                s3BucketName = createS3Bucket();
+            }
+            return s3BucketName;
+        }
+    }
+
+    private String createS3Bucket() {
         String bucketName;
         if (lobBucketName != null) {
             bucketName = lobBucketName;
@@ -630,23 +978,90 @@ public class EntityManagerFactoryImpl implements EntityManagerFactory {
     		bucketName = bucketName.toLowerCase();
     	}
         
-        // See if we have checked if the bucket already exists.
-        if (!this.bucketSet.contains(bucketName)) {
-
-            // If the bucket doesn't already exist then we need to add it.
-            if (!this.s3Client.doesBucketExist(bucketName)) {
-                this.s3Client.createBucket(bucketName);
-            }
-            this.bucketSet.add(bucketName);
+        // If the bucket doesn't already exist then we need to add it.
+        if (!this.s3Client.doesBucketExist(bucketName)) {
+            this.s3Client.createBucket(bucketName);
         }
 
         return bucketName;
     }
 
+    /**
+     * @return the batcher used by persistAsync, or null if batchWrites is off.
+     */
+    public BatchPutAttributes getBatchPutAttributes() {
+        return batchPutAttributes;
+    }
+
+    /**
+     * @return the batcher used by removeAsync, or null if batchWrites is off.
+     */
+    public BatchDeleteAttributes getBatchDeleteAttributes() {
+        return batchDeleteAttributes;
+    }
+
+    /**
+     * @return the attribute snapshots used for dirty checking in Save, or null if turned off.
+     */
+    public AttributeSnapshots getAttributeSnapshots() {
+        return attributeSnapshots;
+    }
+
+    /**
+     * @return the shared cache of parsed queries, or null if turned off.
+     */
+    public QueryPlanCache getQueryPlanCache() {
+        return queryPlanCache;
+    }
+
     public OpStats getGlobalStats() {
         return stats;
     }
 
+    /**
+     * @return the stats of the domain, created the first time it's used
+     */
+    public DomainStats getDomainStats(String domainName) {
+        DomainStats ds = domainStats.get(domainName);
+        if (ds == null) {
+            DomainStats newStats = new DomainStats(domainName);
+            ds = domainStats.putIfAbsent(domainName, newStats);
+            if (ds == null) {
+                ds = newStats;
+                if (jmx) {
+                    registerMBean(ds);
+                }
+            }
+        }
+        return ds;
+    }
+
+    /**
+     * @return stats of every domain used so far, by domain name
+     */
+    public Map<String, DomainStats> getDomainStats() {
+        return Collections.unmodifiableMap(domainStats);
+    }
+
+    private ObjectName objectName(DomainStats ds) throws JMException {
+        return new ObjectName("com.spaceprogram.simplejpa:type=DomainStats,persistenceUnit="
+                + ObjectName.quote(persistenceUnitName) + ",domain=" + ObjectName.quote(ds.getDomainName()));
+    }
+
+    private void registerMBean(DomainStats ds) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = objectName(ds);
+            if (server.isRegistered(name)) {
+                // left by another factory for the same persistence unit
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(ds, name);
+        } catch (JMException e) {
+            logger.warning("Could not register stats of " + ds.getDomainName() + ": " + e);
+        }
+    }
+
     public void setConsistentRead(boolean consistentRead) {
         this.consistentRead = consistentRead;
     }
@@ -5,12 +5,12 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.io.UnsupportedEncodingException;
-import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.math.BigDecimal;
 import java.text.ParseException;
 import java.util.*;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
@@ -35,12 +35,19 @@ import com.amazonaws.services.simpledb.model.SelectResult;
 import com.spaceprogram.simplejpa.AnnotationManager.ClassMethodEntry;
 import com.spaceprogram.simplejpa.cache.Cache;
 import com.spaceprogram.simplejpa.operations.Delete;
+import com.spaceprogram.simplejpa.operations.DeleteAll;
 import com.spaceprogram.simplejpa.operations.Find;
+import com.spaceprogram.simplejpa.operations.FindAll;
 import com.spaceprogram.simplejpa.operations.Save;
 import com.spaceprogram.simplejpa.query.QueryImpl;
 import com.spaceprogram.simplejpa.query.SimpleDBQuery;
+import com.spaceprogram.simplejpa.stats.DomainStats;
 import com.spaceprogram.simplejpa.stats.OpStats;
+import com.spaceprogram.simplejpa.stats.Operation;
+import com.spaceprogram.simplejpa.stats.StripedCounter;
 import com.spaceprogram.simplejpa.util.AmazonSimpleDBUtil;
+import com.spaceprogram.simplejpa.util.SubmitLimiter;
+import com.spaceprogram.simplejpa.util.ThrottledSimpleDB;
 import com.spaceprogram.simplejpa.util.ConcurrentRetriever;
 
 import net.sf.cglib.proxy.Factory;
@@ -68,14 +75,27 @@ public class EntityManagerSimpleJPA implements SimpleEntityManager, DatabaseMana
      * used for converting numbers to strings
      */
     public static final BigDecimal OFFSET_VALUE = new BigDecimal(Long.MIN_VALUE).negate();
-    private OpStats lastOpStats = new OpStats(); // todo: thread local this
-    private OpStats totalOpStats = new OpStats();
+    /**
+     * Stats of the last operation run by each thread, so threads sharing a sessionless EntityManager don't mix up or
+     * replace each other's.
+     */
+    private final ThreadLocal<OpStats> lastOpStats = new ThreadLocal<OpStats>() {
+        @Override
+        protected OpStats initialValue() {
+            return new OpStats(false);
+        }
+    };
+    private final OpStats totalOpStats;
 
     EntityManagerSimpleJPA(EntityManagerFactoryImpl factory, boolean sessionless) {
         this.factory = factory;
         this.sessionless = sessionless;
         if (!sessionless) {
             sessionCache = new ConcurrentHashMap();
+            totalOpStats = new OpStats();
+        } else {
+            // usually shared by many threads
+            totalOpStats = new OpStats(true, StripedCounter.defaultStripes());
         }
         this.consistentRead = factory.isConsistentRead();
     }
@@ -92,22 +112,38 @@ public class EntityManagerSimpleJPA implements SimpleEntityManager, DatabaseMana
     }
 
     public Future persistAsync(Object o) {
-        Future future = getExecutor().submit(new Save(this, o));
+        Future future = submitAsync(new Save(this, o, true));
         return future;
     }
 
     public Future removeAsync(Object o) {
-        Future future = getExecutor().submit(new Delete(this, o));
+        Future future = submitAsync(new Delete(this, o, true));
         return future;
     }
 
     public <T> Future<T> findAsync(Class<T> tClass, Object o) {
-        Future<T> future = getExecutor().submit(new Find(this, tClass, o));
+        Future<T> future = submitAsync(new Find(this, tClass, o));
+        return future;
+    }
+
+    public <T, K> Future<Map<K, T>> findAllAsync(Class<T> tClass, Collection<K> ids) {
+        Future<Map<K, T>> future = submitAsync(new FindAll<T, K>(this, tClass, ids));
         return future;
     }
 
+    /**
+     * Waits or throws a RejectedExecutionException if maxPendingAsync operations are already pending.
+     */
+    private <T> Future<T> submitAsync(Callable<T> task) {
+        SubmitLimiter asyncLimiter = factory.getAsyncLimiter();
+        if (asyncLimiter == null) {
+            return getExecutor().submit(task);
+        }
+        return asyncLimiter.submit(getExecutor(), task);
+    }
+
     private void resetLastOpStats() {
-        lastOpStats = new OpStats();
+        lastOpStats.set(new OpStats(false));
     }
 
     public <T> T merge(T t) {
@@ -119,12 +155,12 @@ public class EntityManagerSimpleJPA implements SimpleEntityManager, DatabaseMana
     public static String padOrConvertIfRequired(Object ob) {
         if (ob instanceof Integer || ob instanceof Long) {
             // then pad
-            return AmazonSimpleDBUtil.encodeRealNumberRange(new BigDecimal(ob.toString()), AmazonSimpleDBUtil.LONG_DIGITS, OFFSET_VALUE);
-        } else if ((ob instanceof Double && !((Double) ob).isInfinite() && !((Double) ob).isNaN())
-                || (ob instanceof Float && !((Float) ob).isInfinite() && !((Float) ob).isNaN())) {
+            return AmazonSimpleDBUtil.encodeLong(((Number) ob).longValue());
+        } else if (ob instanceof Double && !((Double) ob).isInfinite() && !((Double) ob).isNaN()) {
             // then pad
-            return AmazonSimpleDBUtil.encodeRealNumberRange(new BigDecimal(ob.toString()), AmazonSimpleDBUtil.LONG_DIGITS, AmazonSimpleDBUtil.LONG_DIGITS,
-                    OFFSET_VALUE);
+            return AmazonSimpleDBUtil.encodeDouble((Double) ob);
+        } else if (ob instanceof Float && !((Float) ob).isInfinite() && !((Float) ob).isNaN()) {
+            return AmazonSimpleDBUtil.encodeFloat((Float) ob);
         } else if (ob instanceof BigDecimal) {
             // then pad
             return AmazonSimpleDBUtil.encodeRealNumberRange((BigDecimal) ob, AmazonSimpleDBUtil.LONG_DIGITS, AmazonSimpleDBUtil.LONG_DIGITS, OFFSET_VALUE);
@@ -181,8 +217,8 @@ public class EntityManagerSimpleJPA implements SimpleEntityManager, DatabaseMana
 // ensureClassIsEntity(className); THIS IS DONE IN getAnnotationInfo now
         // now if it the reflection data hasn't been cached, do it now
         AnnotationInfo ai = factory.getAnnotationManager().getAnnotationInfo(o);
-        String domainName = getDomainName(o.getClass());
-        factory.setupDbDomain(domainName);
+        // creates the domain if it's the first time
+        getDomainName(o.getClass());
     }
 
     public Class ensureClassIsEntity(String className) {
@@ -223,6 +259,16 @@ public class EntityManagerSimpleJPA implements SimpleEntityManager, DatabaseMana
         }
     }
 
+    public void removeAll(Collection<?> objects) {
+        if (objects == null || objects.isEmpty())
+            return;
+        try {
+            new DeleteAll(this, objects).call();
+        } catch (Exception e) {
+            throw new PersistenceException(e);
+        }
+    }
+
     /**
      * Finds an object by id.
      * 
@@ -238,25 +284,58 @@ public class EntityManagerSimpleJPA implements SimpleEntityManager, DatabaseMana
         try {
             T ob = cacheGet(tClass, id);
             if (ob != null) {
+                // a hit mustn't list or create domains, so it's only counted once the domain is known
+                String domainName = factory.getKnownDomainName(tClass);
+                if (domainName != null) {
+                    getDomainStats(domainName).cacheHits(1);
+                }
                 if (logger.isLoggable(Level.FINEST)) {
                     logger.finest("found in cache: " + ob);
                 }
                 return ob;
             }
+            String domainName = getDomainName(tClass);
+            if (domainName != null) {
+                getDomainStats(domainName).cacheMisses(1);
+            }
             return findInDb(tClass, id);
         } catch (AmazonClientException e) {
             throw new PersistenceException(e);
         }
     }
 
+    public <T, K> Map<K, T> findAll(Class<T> tClass, Collection<K> ids) {
+        if (!sessionless && closed)
+            throw new PersistenceException("EntityManager already closed.");
+        if (ids == null)
+            throw new IllegalArgumentException("Ids must not be null.");
+        try {
+            return new FindAll<T, K>(this, tClass, ids).call();
+        } catch (AmazonClientException e) {
+            throw new PersistenceException(e);
+        } catch (ExecutionException e) {
+            throw new PersistenceException(e.getCause());
+        } catch (PersistenceException e) {
+            throw e;
+        } catch (IllegalArgumentException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new PersistenceException(e);
+        }
+    }
+
     private <T> T findInDb(Class<T> tClass, Object id) throws AmazonClientException {
         String domainName = getDomainName(tClass);
         if (domainName == null)
             return null;
+        long start = System.nanoTime();
         Item iraw = DomainHelper.findItemById(factory.getSimpleDb(), domainName, id.toString(), consistentRead);
 // logger.fine("got back item=" + item);
         if (iraw == null)
             return null;
+        long duration = System.nanoTime() - start;
+        statsGets(1, duration);
+        getDomainStats(domainName).read(1, duration);
         SdbItem item = new SdbItemImpl2(iraw);
         return getItemAttributesBuildAndCache(tClass, id, item);
 
@@ -375,7 +454,40 @@ public class EntityManagerSimpleJPA implements SimpleEntityManager, DatabaseMana
      * @return
      */
     public <T> T buildObject(Class<T> tClass, Object id, List<Attribute> atts) {
-        return ObjectBuilder.buildObject(this, tClass, id, atts);
+        return buildObject(tClass, id, atts, null);
+    }
+
+    /**
+     * Same as above, but the OneToMany collections can be fetched together with the other objects in the group.
+     */
+    public <T> T buildObject(Class<T> tClass, Object id, List<Attribute> atts, BatchFetchGroup group) {
+        return buildObject(tClass, id, atts, group, true);
+    }
+
+    /**
+     * @param inSession false to leave the object out of the session cache, for results that are read once and
+     *                  dropped. It still goes in the second level cache.
+     */
+    public <T> T buildObject(Class<T> tClass, Object id, List<Attribute> atts, BatchFetchGroup group, boolean inSession) {
+        long start = System.nanoTime();
+        T ob = ObjectBuilder.buildObject(this, tClass, id, atts, group, inSession);
+        statsBuild(System.nanoTime() - start);
+        return ob;
+    }
+
+    /**
+     * Runs the select for one page of a query and records how long it took.
+     */
+    public SelectResult selectPage(String selectExpression, String nextToken, boolean consistentRead) throws AmazonClientException {
+        long start = System.nanoTime();
+        SelectResult result = DomainHelper.selectItems(factory.getSimpleDb(), selectExpression, nextToken, consistentRead);
+        long duration = System.nanoTime() - start;
+        statsSelect(duration);
+        String domainName = ThrottledSimpleDB.selectDomain(selectExpression);
+        if (domainName != null) {
+            getDomainStats(domainName).queryPage(result.getItems().size(), duration);
+        }
+        return result;
     }
 
     public <T> T cacheGet(Class<T> aClass, Object id) {
@@ -401,6 +513,13 @@ public class EntityManagerSimpleJPA implements SimpleEntityManager, DatabaseMana
         logger.finest("putting item in cache with cachekey=" + key + " - " + newInstance);
         if (sessionCache != null)
             sessionCache.put(key, newInstance);
+        secondLevelCachePut(id, newInstance);
+    }
+
+    /**
+     * Puts the object in the second level cache only, not in this EntityManager's session.
+     */
+    public void secondLevelCachePut(Object id, Object newInstance) {
         Cache c = getFactory().getCache(newInstance.getClass());
         if (c != null) {
             c.put(id, newInstance);
@@ -452,7 +571,7 @@ public class EntityManagerSimpleJPA implements SimpleEntityManager, DatabaseMana
             String attName = property.getFieldName();
             Class retType = property.getRawClass();
 // logger.fine("getter in setFieldValue = " + attName + " - valAsString=" + valAsString + " rettype=" + retType);
-            Object newField = convert(vals, property, property.getRawClass());
+            Object newField = property.getCodec().decode(vals);
             property.setProperty(newInstance, newField);
             //Method setMethod = tClass.getMethod("set" + StringUtils.capitalize(attName), retType);
             //Object newField = convert(vals, property, property.getRawClass());
@@ -541,6 +660,8 @@ public class EntityManagerSimpleJPA implements SimpleEntityManager, DatabaseMana
     public void close() {
         closed = true;
         sessionCache = null;
+        // otherwise a pooled thread keeps this EntityManager's stats until the ThreadLocal is collected
+        lastOpStats.remove();
     }
 
     public boolean isOpen() {
@@ -555,8 +676,12 @@ public class EntityManagerSimpleJPA implements SimpleEntityManager, DatabaseMana
         return factory.getExecutor();
     }
 
+    public ExecutorService getLobExecutor() {
+        return factory.getLobExecutor();
+    }
+
     public Object getObjectFromS3(String idOnS3) throws AmazonClientException, IOException, ClassNotFoundException {
-        long start = System.currentTimeMillis();
+        long start = System.nanoTime();
         AmazonS3 s3 = factory.getS3Service();
         S3Object s3o = s3.getObject(factory.getS3BucketName(), idOnS3);
         logger.fine("got s3object=" + s3o);
@@ -568,13 +693,13 @@ public class EntityManagerSimpleJPA implements SimpleEntityManager, DatabaseMana
             s3o.getObjectContent().close();
         }
 
-        statsS3Get(System.currentTimeMillis() - start);
+        statsS3Get(System.nanoTime() - start);
         return ret;
     }
 
     public void incrementQueryCount() {
-        totalOpStats.queries.incrementAndGet();
-        factory.getGlobalStats().queries.incrementAndGet();
+        totalOpStats.queried();
+        factory.getGlobalStats().queried();
 
     }
 
@@ -582,7 +707,7 @@ public class EntityManagerSimpleJPA implements SimpleEntityManager, DatabaseMana
      * @return the number of actual queries sent to amazon.
      */
     public int getQueryCount() {
-        return totalOpStats.queries.get();
+        return totalOpStats.getQueries();
     }
 
     /**
@@ -617,19 +742,22 @@ public class EntityManagerSimpleJPA implements SimpleEntityManager, DatabaseMana
     }
 
     public void invokeEntityListener(Object o, Class event) {
-// System.out.println("invoking entity listeners on " + o + " for " + event);
-        Map<Class, List<ClassMethodEntry>> listeners = getAnnotationManager().getAnnotationInfo(o).getEntityListeners();
-        if (listeners != null && listeners.containsKey(event)) {
-// System.out.println("founder listeners: " + listeners);
-            List<ClassMethodEntry> listenerList = listeners.get(event);
-            if (listenerList != null) {
-                for (ClassMethodEntry listener : listenerList) {
-                    try {
-                        listener.invoke(o);
-                    } catch (Exception e) {
-                        throw new PersistenceException("Error invoking entity listener", e);
-                    }
-                }
+        invokeEntityListener(getAnnotationManager().getAnnotationInfo(o), o, event);
+    }
+
+    /**
+     * Same as invokeEntityListener(o, event) for callers that already have the object's AnnotationInfo.
+     */
+    public void invokeEntityListener(AnnotationInfo ai, Object o, Class event) {
+        ClassMethodEntry[] listeners = ai.getEntityListeners(event);
+        if (listeners == null) {
+            return;
+        }
+        for (ClassMethodEntry listener : listeners) {
+            try {
+                listener.invoke(o);
+            } catch (Exception e) {
+                throw new PersistenceException("Error invoking entity listener", e);
             }
         }
     }
@@ -642,8 +770,11 @@ public class EntityManagerSimpleJPA implements SimpleEntityManager, DatabaseMana
         return factory;
     }
 
+    /**
+     * @return stats of the last operation this thread ran. Async operations count towards the thread that ran them.
+     */
     public OpStats getLastOpStats() {
-        return lastOpStats;
+        return lastOpStats.get();
     }
 
     public static <T> void replaceEntityManager(T newInstance, EntityManagerSimpleJPA em) {
@@ -654,28 +785,40 @@ public class EntityManagerSimpleJPA implements SimpleEntityManager, DatabaseMana
         }
     }
 
-    public void statsS3Get(long duration) {
-        getLastOpStats().s3Get(duration);
-        totalOpStats.s3Get(duration);
-        factory.getGlobalStats().s3Get(duration);
+    /**
+     * @param nanos how long the S3 get took, in nanoseconds
+     */
+    public void statsS3Get(long nanos) {
+        getLastOpStats().s3Get(nanos);
+        totalOpStats.s3Get(nanos);
+        factory.getGlobalStats().s3Get(nanos);
     }
 
-    public void statsS3Put(long duration) {
-        getLastOpStats().s3Put(duration);
-        totalOpStats.s3Put(duration);
-        factory.getGlobalStats().s3Put(duration);
+    /**
+     * @param nanos how long the S3 put took, in nanoseconds
+     */
+    public void statsS3Put(long nanos) {
+        getLastOpStats().s3Put(nanos);
+        totalOpStats.s3Put(nanos);
+        factory.getGlobalStats().s3Put(nanos);
     }
 
-    public void statsAttsPut(int numAtts, long duration2) {
-        getLastOpStats().attsPut(numAtts, duration2);
-        totalOpStats.attsPut(numAtts, duration2);
-        factory.getGlobalStats().attsPut(numAtts, duration2);
+    /**
+     * @param nanos how long the put took, in nanoseconds
+     */
+    public void statsAttsPut(int numAtts, long nanos) {
+        getLastOpStats().attsPut(numAtts, nanos);
+        totalOpStats.attsPut(numAtts, nanos);
+        factory.getGlobalStats().attsPut(numAtts, nanos);
     }
 
-    public void statsAttsDeleted(int numAtts, long duration2) {
-        getLastOpStats().attsDeleted(numAtts, duration2);
-        totalOpStats.attsDeleted(numAtts, duration2);
-        factory.getGlobalStats().attsDeleted(numAtts, duration2);
+    /**
+     * @param nanos how long the delete took, in nanoseconds
+     */
+    public void statsAttsDeleted(int numAtts, long nanos) {
+        getLastOpStats().attsDeleted(numAtts, nanos);
+        totalOpStats.attsDeleted(numAtts, nanos);
+        factory.getGlobalStats().attsDeleted(numAtts, nanos);
     }
 
     public OpStats getTotalOpStats() {
@@ -686,10 +829,33 @@ public class EntityManagerSimpleJPA implements SimpleEntityManager, DatabaseMana
         return factory.getGlobalStats();
     }
 
-    public void statsGets(int numItems, long duration2) {
-        getLastOpStats().got(numItems, duration2);
-        totalOpStats.got(numItems, duration2);
-        factory.getGlobalStats().got(numItems, duration2);
+    /**
+     * @param nanos how long the read took, in nanoseconds
+     */
+    public void statsGets(int numItems, long nanos) {
+        getLastOpStats().got(numItems, nanos);
+        totalOpStats.got(numItems, nanos);
+        factory.getGlobalStats().got(numItems, nanos);
+    }
+
+    /**
+     * @param nanos how long the select took, in nanoseconds
+     */
+    public void statsSelect(long nanos) {
+        totalOpStats.record(Operation.SELECT, nanos);
+        factory.getGlobalStats().record(Operation.SELECT, nanos);
+    }
+
+    public DomainStats getDomainStats(String domainName) {
+        return factory.getDomainStats(domainName);
+    }
+
+    /**
+     * @param nanos how long building the object took, in nanoseconds
+     */
+    public void statsBuild(long nanos) {
+        totalOpStats.record(Operation.BUILD, nanos);
+        factory.getGlobalStats().record(Operation.BUILD, nanos);
     }
 
     public String getS3BucketName() {
@@ -708,116 +874,12 @@ public class EntityManagerSimpleJPA implements SimpleEntityManager, DatabaseMana
         return consistentRead;
     }
 
+    /**
+     * Converts SimpleDB values to retType the same way the property's codec does.
+     */
     @SuppressWarnings("unchecked")
     public <T> T convert(Collection<String> values, PersistentProperty property, Class retType) throws ParseException, InvocationTargetException, IllegalAccessException, NoSuchMethodException, InstantiationException {
-        Object newField = null;
-        Object val = null;
-        if (Integer.class.isAssignableFrom(retType) || retType == int.class) {
-            val = AmazonSimpleDBUtil.decodeRealNumberRange(values.iterator().next(), EntityManagerSimpleJPA.OFFSET_VALUE).toString();
-            if (retType == int.class)
-                retType = Integer.class;
-        } else if (Long.class.isAssignableFrom(retType) || retType == long.class) {
-            val = AmazonSimpleDBUtil.decodeRealNumberRange(values.iterator().next(), EntityManagerSimpleJPA.OFFSET_VALUE).toString();
-            if (retType == long.class)
-                retType = Long.class;
-        } else if (Float.class.isAssignableFrom(retType) || retType == float.class) {
-            // Ignore NaN and Infinity
-            if (!values.iterator().next().matches(".*Infinity|NaN")) {
-                val = AmazonSimpleDBUtil.decodeRealNumberRange(values.iterator().next(), AmazonSimpleDBUtil.LONG_DIGITS, EntityManagerSimpleJPA.OFFSET_VALUE).toString();
-            }
-            else newField = Float.NaN;
-            if (retType == float.class)
-                retType = Float.class;
-        } else if (Double.class.isAssignableFrom(retType) || retType == double.class) {
-            // Ignore NaN and Infinity
-            if (!values.iterator().next().matches(".*Infinity|NaN")) {
-                val = AmazonSimpleDBUtil.decodeRealNumberRange(values.iterator().next(), AmazonSimpleDBUtil.LONG_DIGITS, EntityManagerSimpleJPA.OFFSET_VALUE).toString();
-            }
-            else newField = Double.NaN;
-            if (retType == double.class)
-                retType = Double.class;
-        } else if (Boolean.class.isAssignableFrom(retType) || retType == boolean.class) {
-        	newField = AmazonSimpleDBUtil.decodeBoolean(values.iterator().next());
-        } else if (BigDecimal.class.isAssignableFrom(retType)) {
-            val = AmazonSimpleDBUtil.decodeRealNumberRange(values.iterator().next(), AmazonSimpleDBUtil.LONG_DIGITS, EntityManagerSimpleJPA.OFFSET_VALUE).toString();
-        } else if (byte[].class.isAssignableFrom(retType)) {
-            newField = AmazonSimpleDBUtil.decodeByteArray(values.iterator().next());
-        } else if (Date.class.isAssignableFrom(retType)) {
-            newField = AmazonSimpleDBUtil.decodeDate(values.iterator().next());
-        } else if (Collection.class.isAssignableFrom(retType)) { // convert all of the contents of the collection
-            Collection coll = new ArrayList(); //TODO support other collection types
-            for (String value : values) {
-                coll.add(convert(Collections.singleton(value), property, property.getPropertyClass()));
-            }
-            newField = coll;
-        } else {
-            //adapted from https://github.com/mikrado/simplejpa/commit/5df06fd93b2135e6868b150b9a536755cabc819c
-        	String useVal = values.iterator().next();
-        	Object obj = null;
-        	String encoded = null;
-        	if (values.size() > 1) {
-            	// Value has been split into multiple chunks.
-            	// 1. Order chunks according to attached counter.
-        		String[] chunks = new String[values.size()];
-        		for (String value : values) {
-        			String chunk = value;
-            		int counter = Integer.parseInt("" + chunk.charAt(chunk.length() - 4)) * 1000 + Integer.parseInt("" + chunk.charAt(chunk.length() - 3)) * 100 + Integer.parseInt("" + chunk.charAt(chunk.length() - 2)) * 10 + Integer.parseInt("" + chunk.charAt(chunk.length() - 1));
-            		chunks[counter] = chunk.substring(0, chunk.length() - 4);
-        		}
-            	// 2. Append chunks.
-            	StringBuffer sb = new StringBuffer();
-            	for (String chunk : chunks) {
-            		sb.append(chunk);
-            	}
-                encoded = sb.toString();
-        	} else if (values.size() == 1) {
-        		encoded = useVal;
-        	}
-        	if (encoded != null) {
-        		if (String.class.isAssignableFrom(retType) || retType == String.class) {
-                	newField = encoded;
-        		} else {
-		        	try {
-						obj = AmazonSimpleDBUtil.decodeSerializable(encoded);
-						newField = retType.cast(obj);
-		        	} catch (ClassCastException e) {
-		        		logger.fine("Object not deserializable. Attempting default casting.");
-		        		obj = null;
-					} catch (ClassNotFoundException e) {
-		        		logger.fine("Object not deserializable. Attempting default casting.");
-		        		obj = null;
-					} catch (IOException e) {
-		        		logger.fine("Object not deserializable. Attempting default casting.");
-		        		obj = null;
-					}
-        		}
-        	}
-        	if (newField == null) {
-                val = useVal;
-        	}
-        }
-        // If newField has not been created yet then we create it from val.
-        if (newField == null) {
-            // We build a new field object here because we may get an argument mismatch otherwise, eg: BigDecimal for an Integer field.
-            // todo: getConstructor throws a NoSuchMethodException here, should ensure that these are second class object fields
-        	try {
-        		Constructor forNewField = retType.getConstructor(val.getClass());
-                
-                if (forNewField == null) {
-                    throw new PersistenceException("No constructor for field type: " + retType + " that can take a " + val.getClass());
-                }
-                newField = forNewField.newInstance(val);
-        	} catch (NoSuchMethodException e) {
-        		newField = null;
-        	}
-        }
-    	if (newField == null) {
-    		try {
-    		newField = retType.cast(val);
-    		} catch (ClassCastException e) {
-    			throw new PersistenceException("Can't cast " + val.getClass() +  " value to correct type (" + retType + "). Tried everything.");
-    		}
-    	}
-        return (T)newField;
+        PropertyCodec codec = retType == property.getRawClass() ? property.getCodec() : PropertyCodec.forClass(retType, property);
+        return (T) codec.decode(values);
     }
 }
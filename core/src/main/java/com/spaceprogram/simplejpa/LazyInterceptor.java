@@ -12,7 +12,6 @@ import javax.persistence.ManyToOne;
 import javax.persistence.PersistenceException;
 import java.io.IOException;
 import java.io.Serializable;
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.*;
 import java.util.logging.Level;
@@ -32,6 +31,10 @@ public class LazyInterceptor implements MethodInterceptor, Serializable {
     private transient EntityManagerSimpleJPA em;
     /** Just for reference */
     private Map<String, Set<String>> foreignKeys;
+    /** The page this object was loaded with, lets ManyToOne's be loaded for the whole page at once. Can be null. */
+    private transient BatchFetchGroup batchFetchGroup;
+    /** Content hash stored next to each lob key, so Save can tell if a lob changed. */
+    private Map<String, String> lobHashes;
 
     /** So we know which fields to delete */
     private Map<String, Object> nulledFields = new HashMap<String, Object>();
@@ -62,13 +65,22 @@ public class LazyInterceptor implements MethodInterceptor, Serializable {
         String attributeName = NamingHelper.attributeName(method);
         if (args != null && args.length == 1) {
             Object valueToSet = args[0];
+            // set by the user, the stored key doesn't apply anymore
+            Set<String> unloadedKeys = foreignKeys != null ? foreignKeys.remove(attributeName) : null;
             if (valueToSet == null) {
                 // FIXME support direct field accessors better here
             	PersistentProperty persistentProperty = em.getFactory().getAnnotationManager().getAnnotationInfo(obj).getPersistentProperty(attributeName);
+                if (persistentProperty == null) {
+                    return;
+                }
                 //PersistentMethod persistentMethod = persistentProperty.getGetter();
                 //Method getter = persistentProperty.getGetter();
-                MethodProxy getterProxy = MethodProxy.find(obj.getClass(), new Signature(persistentProperty.getName(), Type.getType(persistentProperty.getPropertyClass()), new Type[]{}));
+                MethodProxy getterProxy = MethodProxy.find(obj.getClass(), new Signature(NamingHelper.getterName(persistentProperty.getName()), Type.getType(persistentProperty.getRawClass()), new Type[]{}));
                 Object ret = getterProxy.invokeSuper(obj, null);
+                if (ret == null) {
+                    // never loaded, but there's still a stored value to delete
+                    ret = unloadedKeys;
+                }
                 if (ret != null) {
                     nulledFields.put(attributeName, ret);
                     logger.fine("field " + attributeName + " is being nulled. Old value = " + ret);
@@ -77,9 +89,12 @@ public class LazyInterceptor implements MethodInterceptor, Serializable {
         }
     }
 
-    private boolean handleGetMethod(Object obj, Method method) throws NoSuchMethodException, IllegalAccessException, InvocationTargetException, AmazonClientException, IOException, ClassNotFoundException {
+    private boolean handleGetMethod(Object obj, Method method) throws AmazonClientException, IOException, ClassNotFoundException {
         // TODO user persistentproperty methods here instead
         PersistentProperty property = em.getAnnotationManager().getAnnotationInfo(obj.getClass()).getPersistentProperty(NamingHelper.attributeName(method));
+        if (property == null) {
+            return false;
+        }
 
         if (property.isForeignKeyRelationship()) {
             logger.fine("intercepting many to one");
@@ -93,21 +108,30 @@ public class LazyInterceptor implements MethodInterceptor, Serializable {
                 Class retType = property.getRawClass();
                 logger.fine("loading Relationship object for type=" + retType + " with id=" + keys);
                 Object toSet;
-                // TODO load in batch
                 if(Collection.class.isAssignableFrom(retType)) {
                     toSet = new ArrayList(); //TODO support other collection types
-                    for(String key : keys) {
-                        ((Collection)toSet).add(em.find(property.getPropertyClass(), key));
+                    if (batchFetchGroup != null) {
+                        for (String key : keys) {
+                            ((Collection)toSet).add(batchFetchGroup.getReference(property.getPropertyClass(), key));
+                        }
+                    } else {
+                        // all keys in one go, misses stay in the list as nulls
+                        Map found = em.findAll(property.getPropertyClass(), keys);
+                        for (String key : keys) {
+                            ((Collection)toSet).add(found.get(key));
+                        }
                     }
+                } else if (batchFetchGroup != null) {
+                    toSet = batchFetchGroup.getReference(retType, keys.iterator().next());
                 } else {
-                    toSet = em.find(retType, keys.iterator().next());
+                    String key = keys.iterator().next();
+                    toSet = em.findAll(retType, Collections.singleton(key)).get(key);
                 }
                 if(logger.isLoggable(Level.FINEST)){
                     logger.finest("got object for Relationship=" + toSet);
                 }
-                String setterName = em.getSetterNameFromGetter(method);
-                Method setter = obj.getClass().getMethod(setterName, retType);
-                setter.invoke(obj, toSet);
+                // straight to the field, going through the setter would count as the user changing it
+                property.setProperty(obj, toSet);
             }
         } else if (property.isLob()) {
             if (foreignKeys != null) {
@@ -118,12 +142,9 @@ public class LazyInterceptor implements MethodInterceptor, Serializable {
                 }
                 checkEntityManager();
                 logger.finer("intercepting lob. key==" + lobKey);
-                Class retType = method.getReturnType();
                 Object toSet = em.getObjectFromS3(lobKey.iterator().next());
                 // System.out.println("toset=" + toSet);
-                String setterName = em.getSetterNameFromGetter(method);
-                Method setter = obj.getClass().getMethod(setterName, retType);
-                setter.invoke(obj, toSet);
+                property.setProperty(obj, toSet);
             }
         }
         return false;
@@ -140,6 +161,30 @@ public class LazyInterceptor implements MethodInterceptor, Serializable {
         foreignKeys.put(attributeName, foreignKeyVal);
     }
 
+    /**
+     * Same as putForeignKey(attributeName, foreignKeyVal), but also registers the keys with the page the object was
+     * loaded in so all the references of the page are loaded with the first one.
+     */
+    public void putForeignKey(String attributeName, Set<String> foreignKeyVal, Class type, BatchFetchGroup group) {
+        putForeignKey(attributeName, foreignKeyVal);
+        if (group != null) {
+            this.batchFetchGroup = group;
+            group.addForeignKeys(type, foreignKeyVal);
+        }
+    }
+
+    public void putLobHash(String attributeName, String hash) {
+        if (lobHashes == null) lobHashes = new HashMap<String, String>();
+        lobHashes.put(attributeName, hash);
+    }
+
+    /**
+     * @return the hash of the lob as last loaded or saved, null if it isn't known
+     */
+    public String getLobHash(String attributeName) {
+        return lobHashes == null ? null : lobHashes.get(attributeName);
+    }
+
     public Map<String, Object> getNulledFields() {
         return nulledFields;
     }
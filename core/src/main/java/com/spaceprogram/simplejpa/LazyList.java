@@ -2,8 +2,13 @@ package com.spaceprogram.simplejpa;
 
 import java.io.Serializable;
 import java.util.AbstractList;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -50,12 +55,40 @@ public class LazyList<E> extends AbstractList<E> implements Serializable {
     
     private boolean loadAllOnSize = false;
 
+    /**
+     * How many pages to fetch ahead on the executor while the current one is being built, 0 to turn off.
+     */
+    private int prefetchDepth;
+    /**
+     * Pages already requested, in order, never more than prefetchDepth. Only used when prefetching.
+     */
+    private transient LinkedList<Future<Page>> prefetched;
+    /**
+     * The last page fetched, if it found prefetched full and didn't request the page after it.
+     */
+    private transient Page stalled;
+    /**
+     * Bumped by cancelPrefetch so fetches already running don't queue any more pages.
+     */
+    private transient int prefetchGeneration;
+
+    /**
+     * Set when this is a OneToMany that gets loaded together with the same collection of the other objects in its page.
+     */
+    private transient BatchFetchGroup.Siblings batchFetch;
+    /**
+     * Whether to batch fetch the OneToMany collections of the objects in this list.
+     */
+    private boolean batchFetchChildren;
+
     public LazyList(EntityManagerSimpleJPA em, Class tClass, SimpleQuery query) {
         this.em = em;
         this.genericReturnType = tClass;
         this.origQuery = query;
         this.maxResults = query.getMaxResults();
         this.consistentRead = query.isConsistentRead();
+        this.prefetchDepth = em.getFactory().getLazyListPrefetchDepth();
+        this.batchFetchChildren = query.isBatchFetch();
         if (query.hasOffset()) {
         	this.offsetQuery = SimpleDBQuery.convertToCountQuery(query.createAmazonQuery(false).getValue());
         }
@@ -82,6 +115,7 @@ public class LazyList<E> extends AbstractList<E> implements Serializable {
     }
 
     public int size() {
+        loadBatchFetch();
         if (count > -1) return count;
 
         if (loadAllOnSize) {
@@ -135,7 +169,42 @@ public class LazyList<E> extends AbstractList<E> implements Serializable {
         return backingList.get(i);
     }
 
-    private synchronized void loadAtleastItems(int index) {
+    private void loadAtleastItems(int index) {
+        loadBatchFetch();
+        loadPages(index);
+    }
+
+    /**
+     * Lets the batch fill this list along with its siblings. Must not be called holding this list's lock.
+     */
+    private void loadBatchFetch() {
+        BatchFetchGroup.Siblings b = batchFetch;
+        if (b != null) {
+            b.load();
+        }
+    }
+
+    void setBatchFetch(BatchFetchGroup.Siblings batchFetch) {
+        this.batchFetch = batchFetch;
+    }
+
+    synchronized boolean isFetched() {
+        return backingList != null;
+    }
+
+    /**
+     * Called by the batch with every object of this list.
+     */
+    synchronized void batchFetched(List<?> objects) {
+        batchFetch = null;
+        if (backingList == null) {
+            backingList = GrowthList.decorate(new ArrayList<E>((List<E>) objects));
+            nextToken = null;
+            count = objects.size();
+        }
+    }
+
+    private synchronized void loadPages(int index) {
         if ((backingList != null && nextToken == null) || (!noLimit() && index >= maxResults)) {
             return;
         }
@@ -162,7 +231,7 @@ public class LazyList<E> extends AbstractList<E> implements Serializable {
         			String limitQuery = offsetQuery + " limit " + limit;
                     if (em.getFactory().isPrintQueries())
                         System.out.println("offset query in lazylist=" + limitQuery);
-                    qr = DomainHelper.selectItems(this.em.getSimpleDb(), limitQuery, nextToken, isConsistentRead());
+                    qr = this.em.selectPage(limitQuery, nextToken, isConsistentRead());
                     for (Item item : qr.getItems()) {
                     	for (Attribute attribute : item.getAttributes()) {
                     		if (attribute.getName().equalsIgnoreCase("count")) {
@@ -208,13 +277,18 @@ public class LazyList<E> extends AbstractList<E> implements Serializable {
                 String limitQuery = realQuery + " limit " + (noLimit() ? maxResultsPerToken : Math.min(maxResultsPerToken, limit));
                 if (em.getFactory().isPrintQueries())
                     System.out.println("query in lazylist=" + limitQuery);
-                qr = DomainHelper.selectItems(this.em.getSimpleDb(), limitQuery, nextToken, isConsistentRead());
+                if (prefetchDepth > 0 && noLimit() && !origQuery.hasLimit()) {
+                    qr = nextPrefetchedPage(limitQuery);
+                } else {
+                    qr = this.em.selectPage(limitQuery, nextToken, isConsistentRead());
+                }
 
                 if (logger.isLoggable(Level.FINER))
                     logger.finer("got items for lazylist=" + qr.getItems().size());
 
+                BatchFetchGroup group = new BatchFetchGroup(em, batchFetchChildren);
                 for (Item item : qr.getItems()) {
-                    backingList.add((E) em.buildObject(genericReturnType, item.getName(), item.getAttributes()));
+                    backingList.add((E) em.buildObject(genericReturnType, item.getName(), item.getAttributes(), group));
                 }
                 
                 if (origQuery.hasLimit() && backingList.size() == origQuery.getLimit()) {
@@ -239,6 +313,97 @@ public class LazyList<E> extends AbstractList<E> implements Serializable {
 
     }
     
+    /**
+     * Returns the page for nextToken and makes sure the following page is already being fetched, so the select
+     * round trip overlaps with building the objects of this page. Each page fetch starts the next one itself while
+     * fewer than prefetchDepth pages are waiting, so a list that is dropped part way through has at most
+     * prefetchDepth selects left running.
+     */
+    private SelectResult nextPrefetchedPage(String limitQuery) throws AmazonClientException {
+        // called from loadAtleastItems which holds the list's lock, the fetches synchronize on prefetched instead
+        if (prefetched == null) {
+            prefetched = new LinkedList<Future<Page>>();
+        }
+        Future<Page> future;
+        synchronized (prefetched) {
+            if (prefetched.isEmpty()) {
+                stalled = null;
+                prefetched.add(em.getExecutor().submit(new PageFetch(limitQuery, nextToken, prefetchGeneration)));
+            }
+            future = prefetched.removeFirst();
+        }
+        Page page;
+        try {
+            page = future.get();
+        } catch (InterruptedException e) {
+            cancelPrefetch();
+            throw new PersistenceException(e);
+        } catch (ExecutionException e) {
+            cancelPrefetch();
+            if (e.getCause() instanceof AmazonClientException) {
+                throw (AmazonClientException) e.getCause();
+            }
+            throw new PersistenceException(e.getCause());
+        }
+        synchronized (prefetched) {
+            // carry on from where the fetches stopped once taking pages made room
+            if (stalled != null && prefetched.size() < prefetchDepth) {
+                prefetched.add(em.getExecutor().submit(new PageFetch(limitQuery, stalled.result.getNextToken(), prefetchGeneration)));
+                stalled = null;
+            }
+        }
+        return page.result;
+    }
+
+    /**
+     * Cancels the pages being fetched ahead, eg: when giving up on the list part way through. Pages already in the
+     * list are kept and any after them are fetched again if the list is read further.
+     */
+    public void cancelPrefetch() {
+        if (prefetched == null) {
+            return;
+        }
+        synchronized (prefetched) {
+            prefetchGeneration++;
+            for (Future<Page> future : prefetched) {
+                future.cancel(true);
+            }
+            prefetched.clear();
+            stalled = null;
+        }
+    }
+
+    private static class Page {
+        private SelectResult result;
+    }
+
+    private class PageFetch implements Callable<Page> {
+        private String limitQuery;
+        private String token;
+        private int generation;
+
+        PageFetch(String limitQuery, String token, int generation) {
+            this.limitQuery = limitQuery;
+            this.token = token;
+            this.generation = generation;
+        }
+
+        public Page call() throws Exception {
+            Page page = new Page();
+            page.result = em.selectPage(limitQuery, token, isConsistentRead());
+            synchronized (prefetched) {
+                if (page.result.getNextToken() != null && generation == prefetchGeneration) {
+                    if (prefetched.size() < prefetchDepth) {
+                        prefetched.add(em.getExecutor().submit(new PageFetch(limitQuery, page.result.getNextToken(), generation)));
+                    } else {
+                        stalled = page;
+                    }
+                }
+            }
+            return page;
+        }
+    }
+
     private synchronized void calculateCountWithOffset() {
     	if (count > -1) {
     		return;
@@ -258,7 +423,7 @@ public class LazyList<E> extends AbstractList<E> implements Serializable {
         			String limitQuery = offsetQuery + " limit " + limit;
                     if (em.getFactory().isPrintQueries())
                         System.out.println("offset query in lazylist=" + limitQuery);
-                    qr = DomainHelper.selectItems(this.em.getSimpleDb(), limitQuery, offsetNextToken, isConsistentRead());
+                    qr = this.em.selectPage(limitQuery, offsetNextToken, isConsistentRead());
                     for (Item item : qr.getItems()) {
                     	for (Attribute attribute : item.getAttributes()) {
                     		if (attribute.getName().equalsIgnoreCase("count")) {
@@ -307,7 +472,7 @@ public class LazyList<E> extends AbstractList<E> implements Serializable {
                 String limitQuery = countQuery + " limit " + (noLimit() ? maxResultsPerToken : Math.min(maxResultsPerToken, limit));
                 if (em.getFactory().isPrintQueries())
                     System.out.println("query in lazylist=" + limitQuery);
-                qr = DomainHelper.selectItems(this.em.getSimpleDb(), limitQuery, nextToken, isConsistentRead());
+                qr = this.em.selectPage(limitQuery, nextToken, isConsistentRead());
                 
                 int value = 0;
                 for (Item item : qr.getItems()) {
@@ -377,6 +542,20 @@ public class LazyList<E> extends AbstractList<E> implements Serializable {
 		this.loadAllOnSize = loadAllOnSize;
 	}
 
+    public int getPrefetchDepth() {
+        return prefetchDepth;
+    }
+
+    /**
+     * Sets how many pages to fetch ahead while iterating, defaults to the factory's lazyListPrefetchDepth. Only used
+     * when there is no limit or max results since those lists are already bounded.
+     *
+     * @param prefetchDepth 0 to only fetch pages on demand
+     */
+    public void setPrefetchDepth(int prefetchDepth) {
+        this.prefetchDepth = prefetchDepth;
+    }
+
 	private class LazyListIterator implements Iterator<E> {
         private int iNext = 0;
 
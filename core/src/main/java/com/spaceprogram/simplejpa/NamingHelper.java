@@ -52,6 +52,13 @@ public class NamingHelper {
         return attName + "-lobkey";
     }
 
+    /**
+     * @return the attribute holding the content hash of the lob stored under the lob key in attName
+     */
+    public static String lobHashAttributeName(String attName) {
+        return attName + "-lobhash";
+    }
+
     public static String foreignKey(Method getter) {
         return foreignKey(attributeName(getter));
     }
@@ -25,6 +25,21 @@ public class ObjectBuilder {
     private static Logger logger = Logger.getLogger(ObjectBuilder.class.getName());
 
     public static <T> T buildObject(EntityManagerSimpleJPA em, Class<T> tClass, Object id, List<Attribute> atts) {
+        return buildObject(em, tClass, id, atts, null);
+    }
+
+    /**
+     * @param group the page this object was loaded in, its OneToMany collections may be fetched together with the
+     *              rest of the page. Can be null.
+     */
+    public static <T> T buildObject(EntityManagerSimpleJPA em, Class<T> tClass, Object id, List<Attribute> atts, BatchFetchGroup group) {
+        return buildObject(em, tClass, id, atts, group, true);
+    }
+
+    /**
+     * @param inSession false to only put the object in the second level cache, not the EntityManager's session
+     */
+    public static <T> T buildObject(EntityManagerSimpleJPA em, Class<T> tClass, Object id, List<Attribute> atts, BatchFetchGroup group, boolean inSession) {
         T newInstance;
         /*
         Why was this here?  Should we merge if it exists though?
@@ -35,39 +50,46 @@ public class ObjectBuilder {
         AnnotationInfo ai = em.getFactory().getAnnotationManager().getAnnotationInfo(tClass);
         try {
 //            newInstance = tClass.newInstance();
-            // check for DTYPE to see if it's a subclass, must be a faster way to do this you'd think?
-            for (Attribute att : atts) {
-                if (att.getName().equals(EntityManagerFactoryImpl.DTYPE)) {
-                    logger.finest("dtype=" + att.getValue());
-                    ai = em.getFactory().getAnnotationManager().getAnnotationInfoByDiscriminator(att.getValue());
-                    if(ai == null) {
-                        throw new PersistenceException(new ClassNotFoundException("Could not build object with dtype = " + att.getValue() + ". Class not found or is not an @Entity."));
-                    }
-                    tClass = ai.getMainClass();
-                    // check cache again with new class
-                    newInstance = em.cacheGet(tClass, id);
-                    if (newInstance != null) return newInstance;
-                    break;
+            AttributeValues values = new AttributeValues(ai, atts);
+            // check for DTYPE to see if it's a subclass
+            String dtype = values.getDiscriminator();
+            if (dtype != null) {
+                logger.finest("dtype=" + dtype);
+                ai = em.getFactory().getAnnotationManager().getAnnotationInfoByDiscriminator(dtype);
+                if(ai == null) {
+                    throw new PersistenceException(new ClassNotFoundException("Could not build object with dtype = " + dtype + ". Class not found or is not an @Entity."));
                 }
+                tClass = ai.getMainClass();
+                // check cache again with new class
+                newInstance = em.cacheGet(tClass, id);
+                if (newInstance != null) return newInstance;
+                if (ai != values.getAnnotationInfo()) {
+                    // the subclass has its own columns
+                    values = new AttributeValues(ai, atts);
+                }
+            }
+            ObjectWithInterceptor owi = null;
+            if (em.getFactory().isLazyLoading()) {
+                owi = newEnancedInstance(em, tClass);
+                newInstance = (T) owi.getBean();
+            } else {
+                newInstance = tClass.newInstance();
             }
-            //ObjectWithInterceptor owi = newEnancedInstance(em, tClass);
-            //newInstance = (T) owi.getBean();
-            newInstance = tClass.newInstance();
             for (PersistentProperty field : ai.getPersistentProperties()) {
                 String attName = field.getFieldName();
                 String columnName = field.getColumnName();
                 if (field.isForeignKeyRelationship()) {
                     // lazy it up
-                    Set<String> keys = getForeignKeys(em, field, columnName, atts);
+                    Set<String> keys = new HashSet<String>(values.getValues(field));
                     logger.finest("keys=" + keys);
                     if (keys == null || keys.isEmpty()) {
                         continue;
                     }
                     // todo: stick a cache in here and check the cache for the instance before creating the lazy loader.
                     logger.finest("creating new lazy loading instance for field " + field.getFieldName() + " of class " + tClass.getSimpleName() + " with id " + id);
-//                    Object toSet = newLazyLoadingInstance(retType, keys);
-                    //owi.getInterceptor().putForeignKey(attName, keys);
-                    //TODO implement foreignkey thing
+                    if (owi != null) {
+                        owi.getInterceptor().putForeignKey(attName, keys, field.getPropertyClass(), group);
+                    }
                 } else if (field.isInverseRelationship()) {
                     Class typeInList = field.getPropertyClass();
                     // todo: should this return null if there are no elements??
@@ -79,21 +101,34 @@ public class ObjectBuilder {
                         orderBy = field.getOrderClauses();
                     }
                     
-                    LazyList lazyList = new LazyList(em, typeInList, oneToManyQuery(em, attName, field.getMappedBy(), id, typeInList, orderBy));
+                    String foreignKeyFieldName = field.getMappedBy();
+                    if (foreignKeyFieldName == null || foreignKeyFieldName.length() == 0) {
+                        // use the class containing the OneToMany
+                        foreignKeyFieldName = attName;
+                    }
+                    LazyList lazyList = new LazyList(em, typeInList, oneToManyQuery(em, foreignKeyFieldName, id, typeInList, orderBy));
+                    if (group != null) {
+                        group.add(field, typeInList, foreignKeyFieldName, orderBy, id, lazyList);
+                    }
 //                    Class retType = field.getReturnType();
                     // todo: assuming List for now, handle other collection types
                     field.setProperty(newInstance, lazyList);
                 } else if (field.isLob()) {
                     // handled in Proxy
                     String lobKeyAttributeName = field.getColumnName();
-                    String lobKeyVal = getValueToSet(atts, lobKeyAttributeName, columnName);
+                    String lobKeyVal = values.getValue(field);
                     logger.finest("lobkeyval to set on interceptor=" + lobKeyVal + " - fromatt=" + lobKeyAttributeName);
                     // TODO add multivalue support for LOB keys
-                    //if (lobKeyVal != null) owi.getInterceptor().putForeignKey(attName, Collections.singleton(lobKeyVal));
-                    //TODO implement foreignkey thing
+                    if (owi != null && lobKeyVal != null) {
+                        owi.getInterceptor().putForeignKey(attName, Collections.singleton(lobKeyVal));
+                        String lobHash = attributeValue(atts, NamingHelper.lobHashAttributeName(lobKeyAttributeName));
+                        if (lobHash != null) {
+                            owi.getInterceptor().putLobHash(attName, lobHash);
+                        }
+                    }
                     
                 } else if (field.getEnumType() != null) {
-                    String val = getValueToSet(atts, attName, columnName);
+                    String val = values.getValue(field);
                     if(val != null){
                         Object enumVal = getEnumValue(field, val);
                         field.setProperty(newInstance, enumVal);
@@ -103,7 +138,7 @@ public class ObjectBuilder {
                     field.setProperty(newInstance, id);
                 }
                 else {
-                    Collection<String> val = getValuesToSet(atts, attName, columnName);
+                    Collection<String> val = values.getValues(field);
                     if (val != null && !val.isEmpty()) {
                         em.setFieldValue(tClass, newInstance, field, val);
                     }
@@ -112,11 +147,31 @@ public class ObjectBuilder {
         } catch (Exception e) {
             throw new PersistenceException(e);
         }
-        em.cachePut(id, newInstance);
+        AttributeSnapshots snapshots = em.getFactory().getAttributeSnapshots();
+        if (snapshots != null) {
+            snapshots.loaded(newInstance, atts);
+        }
+        if (inSession) {
+            em.cachePut(id, newInstance);
+        } else {
+            em.secondLevelCachePut(id, newInstance);
+        }
         return newInstance;
 
     }
 
+    /**
+     * For attributes that aren't a property's column, so have no slot in AttributeValues.
+     */
+    private static String attributeValue(List<Attribute> atts, String name) {
+        for (Attribute att : atts) {
+            if (att.getName().equals(name)) {
+                return att.getValue();
+            }
+        }
+        return null;
+    }
+
     static Object getEnumValue(PersistentProperty field, String val) {
         EnumType enumType = field.getEnumType();
         Class<? extends Enum> retType = (Class<? extends Enum>)field.getPropertyClass();
@@ -139,59 +194,29 @@ public class ObjectBuilder {
         return cwi;
     }
 
-    private static Set<String> getForeignKeys(EntityManagerSimpleJPA em, PersistentProperty getter, String columnName, List<Attribute> atts) {
-        String fkAttName = columnName != null ? columnName : NamingHelper.foreignKey(getter.getFieldName());
-        HashSet<String> keys = new HashSet<String>(atts.size());
-        for (Attribute att : atts) {
-            if (att.getName().equals(fkAttName)) {
-                keys.add(att.getValue());
-            }
-        }
-        return keys;
-    }
-
-    private static Collection<String> getValuesToSet(List<Attribute> atts, String propertyName, String columnName) {
-        Collection<String> values = new ArrayList<String>();
-        if(columnName != null) propertyName = columnName;
-        for (Attribute att : atts) {
-            String attName = att.getName();
-            if (attName.equals(propertyName)) {
-                values.add(att.getValue());
-            }
-        }
-        return values;
-    }
-
-    private static String getValueToSet(List<Attribute> atts, String propertyName, String columnName) {
-        if(columnName != null) propertyName = columnName;
-        for (Attribute att : atts) {
-            String attName = att.getName();
-            if (attName.equals(propertyName)) {
-                String val = att.getValue();
-                return val;
-            }
-        }
-        return null;
-    }
-
 
-    private static QueryImpl oneToManyQuery(EntityManagerSimpleJPA em, String attName, String foreignKeyFieldName, Object id, Class typeInList, List<PersistentProperty.OrderClause> orderBy) {
-        if (foreignKeyFieldName == null || foreignKeyFieldName.length() == 0) {
-            // use the class containing the OneToMany
-            foreignKeyFieldName = attName;
-        }
+    private static QueryImpl oneToManyQuery(EntityManagerSimpleJPA em, String foreignKeyFieldName, Object id, Class typeInList, List<PersistentProperty.OrderClause> orderBy) {
         AnnotationInfo ai = em.getFactory().getAnnotationManager().getAnnotationInfo(typeInList);
         Class refType = ai.getPersistentProperty(foreignKeyFieldName).getPropertyClass();
         AnnotationInfo refAi = em.getAnnotationManager().getAnnotationInfo(refType);
-        String query = createOneToManyQuery(typeInList, foreignKeyFieldName, refAi, id, orderBy);
-        
+        // the id is a parameter so every parent shares one cached query plan
+        String query = oneToManyQueryString(typeInList, foreignKeyFieldName, refAi, ":" + ONE_TO_MANY_ID_PARAM, orderBy);
+
         logger.finer("OneToMany query=" + query);
-        return new QueryImpl(em, query);
+        QueryImpl q = new QueryImpl(em, query);
+        q.setParameter(ONE_TO_MANY_ID_PARAM, id);
+        return q;
     }
 
+    private static final String ONE_TO_MANY_ID_PARAM = "oneToManyId";
+
     static String createOneToManyQuery(Class typeInList, String foreignKeyFieldName, AnnotationInfo refAi, Object id, List<PersistentProperty.OrderClause> orderBy) {
+        return oneToManyQueryString(typeInList, foreignKeyFieldName, refAi, "'" + id + "'", orderBy);
+    }
+
+    private static String oneToManyQueryString(Class typeInList, String foreignKeyFieldName, AnnotationInfo refAi, String idValue, List<PersistentProperty.OrderClause> orderBy) {
         String foreignIdAttr = refAi.getIdProperty().getFieldName();
-        String query = "select o from " + typeInList.getName() + " o where o." + foreignKeyFieldName + "." + foreignIdAttr + " = '" + id + "'";
+        String query = "select o from " + typeInList.getName() + " o where o." + foreignKeyFieldName + "." + foreignIdAttr + " = " + idValue;
 
         if (orderBy != null) {
             for(PersistentProperty.OrderClause clause : orderBy)
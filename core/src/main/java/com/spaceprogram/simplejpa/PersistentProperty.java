@@ -14,6 +14,22 @@ import java.util.*;
 public abstract class PersistentProperty {
     protected final List<OrderClause> orderBys;
     protected final Field field;
+    protected PropertyCodec codec;
+
+    // annotation lookups done once by resolve(), Save and ObjectBuilder ask for these for every field of every object
+    private volatile boolean resolved;
+    private boolean lob;
+    private boolean id;
+    private boolean versioned;
+    private boolean foreignKeyRelationship;
+    private boolean inverseRelationship;
+    private boolean cascadePersist;
+    private boolean batchFetch;
+    private EnumType enumType;
+    private String mappedBy;
+    private String columnName;
+    private Class<?> propertyClass;
+    private int columnSlot = -1;
 
     protected PersistentProperty(Field field) {
         field.setAccessible(true);
@@ -39,11 +55,70 @@ public abstract class PersistentProperty {
         }
     }
     
+    /**
+     * @return converts this property's values to and from SimpleDB strings
+     */
+    public PropertyCodec getCodec() {
+        if (!resolved) resolve();
+        return codec;
+    }
+
     public <T extends Annotation> T getAnnotation(Class<T> annotationClass) {
     	return field.getAnnotation(annotationClass);
     }
 
+    /**
+     * Reads the annotations once so the getters below don't have to. AnnotationManager calls this when it loads the
+     * class, the getters call it if it hasn't been done yet.
+     */
+    void resolve() {
+        if (resolved) return;
+        lob = field.isAnnotationPresent(Lob.class);
+        id = field.isAnnotationPresent(Id.class);
+        versioned = field.isAnnotationPresent(Version.class);
+        // TODO add support for non "mapped" OneToMany (ie: unidirectional one-to-many as multivalued attribute)
+        foreignKeyRelationship = field.isAnnotationPresent(ManyToOne.class) || field.isAnnotationPresent(ManyToMany.class);
+        inverseRelationship = field.isAnnotationPresent(OneToMany.class);
+        ManyToOne manyToOne = field.getAnnotation(ManyToOne.class);
+        OneToMany oneToMany = field.getAnnotation(OneToMany.class);
+        cascadePersist = (manyToOne != null && cascadesPersist(manyToOne.cascade())) || (oneToMany != null && cascadesPersist(oneToMany.cascade()));
+        batchFetch = field.isAnnotationPresent(BatchFetch.class);
+        if (field.isAnnotationPresent(Enumerated.class)) {
+            enumType = field.getAnnotation(Enumerated.class).value() == EnumType.STRING ? EnumType.STRING : EnumType.ORDINAL;
+        }
+        if (oneToMany != null) {
+            mappedBy = oneToMany.mappedBy();
+        } else if (field.isAnnotationPresent(OneToOne.class)) {
+            mappedBy = field.getAnnotation(OneToOne.class).mappedBy();
+        } else if (field.isAnnotationPresent(ManyToMany.class)) {
+            mappedBy = field.getAnnotation(ManyToMany.class).mappedBy();
+        }
+        columnName = resolveColumnName();
+        if (!Collection.class.isAssignableFrom(field.getType()) || field.getGenericType() instanceof ParameterizedType) {
+            propertyClass = getPropertyClass(field);
+        }
+        codec = PropertyCodec.forClass(field.getType(), propertyClass != null ? propertyClass : Object.class);
+        resolved = true;
+    }
+
+    private static boolean cascadesPersist(CascadeType[] cascadeTypes) {
+        if (cascadeTypes == null) return false;
+        for (CascadeType type : cascadeTypes) {
+            if (CascadeType.ALL == type || CascadeType.PERSIST == type) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public Class<?> getPropertyClass() {
+        if (!resolved) resolve();
+        if (propertyClass != null) return propertyClass;
+        // raw collection, fails the same way it always has
+        return getPropertyClass(field);
+    }
+
+    private static Class<?> getPropertyClass(Field field) {
         Class clazz = field.getType();
         if (Collection.class.isAssignableFrom(clazz)) {
         	return (Class<?>)((ParameterizedType)field.getGenericType()).getActualTypeArguments()[0];
@@ -64,48 +139,73 @@ public abstract class PersistentProperty {
     }
 
     public boolean isLob() {
-        return field.isAnnotationPresent(Lob.class);
+        if (!resolved) resolve();
+        return lob;
     }
 
     public boolean isForeignKeyRelationship() {
-        // TODO add support for non "mapped" OneToMany (ie: unidirectional one-to-many as multivalued attribute)
-        return field.isAnnotationPresent(ManyToOne.class) || field.isAnnotationPresent(ManyToMany.class);
+        if (!resolved) resolve();
+        return foreignKeyRelationship;
     }
 
     public boolean isInverseRelationship() {
-        return field.isAnnotationPresent(OneToMany.class);
+        if (!resolved) resolve();
+        return inverseRelationship;
+    }
+
+    /**
+     * @return true if the ManyToOne or OneToMany cascades ALL or PERSIST
+     */
+    public boolean isCascadePersist() {
+        if (!resolved) resolve();
+        return cascadePersist;
+    }
+
+    /**
+     * @return true if the field is marked with @BatchFetch
+     */
+    public boolean isBatchFetch() {
+        if (!resolved) resolve();
+        return batchFetch;
     }
 
     public boolean isId() {
-        return field.isAnnotationPresent(Id.class);
+        if (!resolved) resolve();
+        return id;
     }
 
     public boolean isVersioned() {
-        return field.isAnnotationPresent(Version.class);
+        if (!resolved) resolve();
+        return versioned;
     }
 
     public EnumType getEnumType() {
-        if (field.isAnnotationPresent(Enumerated.class)) {
-            if (field.getAnnotation(Enumerated.class).value() == EnumType.STRING) return EnumType.STRING;
-            else return EnumType.ORDINAL;
-        }
-        return null;
+        if (!resolved) resolve();
+        return enumType;
     }
 
     public String getMappedBy() {
-        if (field.isAnnotationPresent(OneToMany.class)) {
-            return field.getAnnotation(OneToMany.class).mappedBy();
-        }
-        else if (field.isAnnotationPresent(OneToOne.class)) {
-            return field.getAnnotation(OneToMany.class).mappedBy();
-        }
-        else if (field.isAnnotationPresent(ManyToMany.class)) {
-            return field.getAnnotation(ManyToMany.class).mappedBy();
-        }
-        return null;
+        if (!resolved) resolve();
+        return mappedBy;
     }
 
     public String getColumnName() {
+        if (!resolved) resolve();
+        return columnName;
+    }
+
+    /**
+     * @return where AttributeValues keeps this property's values, set by AnnotationInfo.indexColumns
+     */
+    int getColumnSlot() {
+        return columnSlot;
+    }
+
+    void setColumnSlot(int columnSlot) {
+        this.columnSlot = columnSlot;
+    }
+
+    private String resolveColumnName() {
         if (field.isAnnotationPresent(Column.class)) {
             Column column = field.getAnnotation(Column.class);
             if (column.name() != null && !column.name().trim().isEmpty()) {
@@ -113,13 +213,13 @@ public abstract class PersistentProperty {
                 return columnName;
             }
         }
-        if (isForeignKeyRelationship()) {
+        if (foreignKeyRelationship) {
             return NamingHelper.foreignKey(getFieldName());
         }
-        if (isLob()) {
+        if (lob) {
             return NamingHelper.lobKeyAttributeName(getFieldName());
         }
-        if (isId()) {
+        if (id) {
             return NamingHelper.NAME_FIELD_REF;
         }
         return StringUtils.uncapitalize(getFieldName());
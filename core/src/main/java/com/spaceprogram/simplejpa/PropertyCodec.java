@@ -0,0 +1,342 @@
+package com.spaceprogram.simplejpa;
+
+import com.spaceprogram.simplejpa.util.AmazonSimpleDBUtil;
+
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.math.BigDecimal;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.logging.Logger;
+
+import javax.persistence.PersistenceException;
+
+/**
+ * Converts a property's values to and from SimpleDB strings.
+ * <p/>
+ * Each PersistentProperty picks its codec once from its type when the metadata is loaded, so reading and writing
+ * objects doesn't repeat the type checks and reflection lookups for every attribute. The encodings are the same as
+ * EntityManagerSimpleJPA.padOrConvertIfRequired, which is still used for values whose type isn't known up front.
+ */
+public abstract class PropertyCodec {
+    private static Logger logger = Logger.getLogger(PropertyCodec.class.getName());
+
+    /**
+     * @param retType  type to decode to, may differ from the property's, eg: the element type of a collection
+     * @param property
+     */
+    public static PropertyCodec forClass(Class retType, PersistentProperty property) {
+        return forClass(retType, Collection.class.isAssignableFrom(retType) ? elementClass(property) : null);
+    }
+
+    /**
+     * @param retType      type to decode to
+     * @param elementClass type of the elements if retType is a collection
+     */
+    static PropertyCodec forClass(Class retType, Class elementClass) {
+        if (Integer.class.isAssignableFrom(retType) || retType == int.class) {
+            return INTEGER;
+        } else if (Long.class.isAssignableFrom(retType) || retType == long.class) {
+            return LONG;
+        } else if (Float.class.isAssignableFrom(retType) || retType == float.class) {
+            return FLOAT;
+        } else if (Double.class.isAssignableFrom(retType) || retType == double.class) {
+            return DOUBLE;
+        } else if (Boolean.class.isAssignableFrom(retType) || retType == boolean.class) {
+            return BOOLEAN;
+        } else if (BigDecimal.class.isAssignableFrom(retType)) {
+            return BIG_DECIMAL;
+        } else if (byte[].class.isAssignableFrom(retType)) {
+            return BYTE_ARRAY;
+        } else if (Date.class.isAssignableFrom(retType)) {
+            return DATE;
+        } else if (Collection.class.isAssignableFrom(retType)) {
+            return new CollectionCodec(forClass(elementClass, (Class) null));
+        } else if (String.class.isAssignableFrom(retType)) {
+            return STRING;
+        }
+        return new ObjectCodec(retType);
+    }
+
+    private static Class elementClass(PersistentProperty property) {
+        try {
+            return property.getPropertyClass();
+        } catch (ClassCastException e) {
+            // raw collection type
+            return Object.class;
+        }
+    }
+
+    /**
+     * @param value not null
+     * @return the string to store
+     */
+    public String encode(Object value) {
+        return EntityManagerSimpleJPA.padOrConvertIfRequired(value);
+    }
+
+    /**
+     * @param values all the values of the attribute, never empty
+     */
+    public Object decode(Collection<String> values) throws ParseException, InvocationTargetException, IllegalAccessException, InstantiationException {
+        return decodeValue(values.iterator().next());
+    }
+
+    protected abstract Object decodeValue(String value) throws ParseException, InvocationTargetException, IllegalAccessException, InstantiationException;
+
+    /**
+     * @return the codec for each element if this is a collection, otherwise this
+     */
+    public PropertyCodec getElementCodec() {
+        return this;
+    }
+
+    /**
+     * Same as matching ".*Infinity|NaN" without compiling the pattern on every value.
+     */
+    static boolean isNaNOrInfinity(String value) {
+        return value.endsWith("Infinity") || value.equals("NaN");
+    }
+
+    /**
+     * Puts back together a value Save split into chunks, each ending with a 4 digit counter.
+     */
+    static String joinChunks(Collection<String> values) {
+        if (values.size() == 1) {
+            return values.iterator().next();
+        }
+        // 1. Order chunks according to attached counter.
+        String[] chunks = new String[values.size()];
+        for (String chunk : values) {
+            int counter = Integer.parseInt("" + chunk.charAt(chunk.length() - 4)) * 1000 + Integer.parseInt("" + chunk.charAt(chunk.length() - 3)) * 100 + Integer.parseInt("" + chunk.charAt(chunk.length() - 2)) * 10 + Integer.parseInt("" + chunk.charAt(chunk.length() - 1));
+            chunks[counter] = chunk.substring(0, chunk.length() - 4);
+        }
+        // 2. Append chunks.
+        StringBuilder sb = new StringBuilder();
+        for (String chunk : chunks) {
+            sb.append(chunk);
+        }
+        return sb.toString();
+    }
+
+    static final PropertyCodec INTEGER = new PropertyCodec() {
+        @Override
+        public String encode(Object value) {
+            return AmazonSimpleDBUtil.encodeLong(((Number) value).longValue());
+        }
+
+        @Override
+        protected Object decodeValue(String value) {
+            return AmazonSimpleDBUtil.decodeInt(value);
+        }
+    };
+
+    static final PropertyCodec LONG = new PropertyCodec() {
+        @Override
+        public String encode(Object value) {
+            return AmazonSimpleDBUtil.encodeLong(((Number) value).longValue());
+        }
+
+        @Override
+        protected Object decodeValue(String value) {
+            return AmazonSimpleDBUtil.decodeLong(value);
+        }
+    };
+
+    static final PropertyCodec FLOAT = new PropertyCodec() {
+        @Override
+        public String encode(Object value) {
+            Float f = (Float) value;
+            if (f.isInfinite() || f.isNaN()) {
+                return super.encode(value);
+            }
+            return AmazonSimpleDBUtil.encodeFloat(f);
+        }
+
+        @Override
+        protected Object decodeValue(String value) {
+            // Ignore NaN and Infinity
+            if (isNaNOrInfinity(value)) {
+                return Float.NaN;
+            }
+            return AmazonSimpleDBUtil.decodeFloat(value);
+        }
+    };
+
+    static final PropertyCodec DOUBLE = new PropertyCodec() {
+        @Override
+        public String encode(Object value) {
+            Double d = (Double) value;
+            if (d.isInfinite() || d.isNaN()) {
+                return super.encode(value);
+            }
+            return AmazonSimpleDBUtil.encodeDouble(d);
+        }
+
+        @Override
+        protected Object decodeValue(String value) {
+            // Ignore NaN and Infinity
+            if (isNaNOrInfinity(value)) {
+                return Double.NaN;
+            }
+            return AmazonSimpleDBUtil.decodeDouble(value);
+        }
+    };
+
+    static final PropertyCodec BOOLEAN = new PropertyCodec() {
+        @Override
+        public String encode(Object value) {
+            return AmazonSimpleDBUtil.encodeBoolean((Boolean) value);
+        }
+
+        @Override
+        protected Object decodeValue(String value) {
+            return AmazonSimpleDBUtil.decodeBoolean(value);
+        }
+    };
+
+    static final PropertyCodec BIG_DECIMAL = new PropertyCodec() {
+        @Override
+        public String encode(Object value) {
+            return AmazonSimpleDBUtil.encodeRealNumberRange((BigDecimal) value, AmazonSimpleDBUtil.LONG_DIGITS, AmazonSimpleDBUtil.LONG_DIGITS,
+                    EntityManagerSimpleJPA.OFFSET_VALUE);
+        }
+
+        @Override
+        protected Object decodeValue(String value) {
+            return AmazonSimpleDBUtil.decodeRealNumberRange(value, AmazonSimpleDBUtil.LONG_DIGITS, EntityManagerSimpleJPA.OFFSET_VALUE);
+        }
+    };
+
+    static final PropertyCodec BYTE_ARRAY = new PropertyCodec() {
+        @Override
+        public String encode(Object value) {
+            return AmazonSimpleDBUtil.encodeByteArray((byte[]) value);
+        }
+
+        @Override
+        protected Object decodeValue(String value) throws ParseException {
+            return AmazonSimpleDBUtil.decodeByteArray(value);
+        }
+    };
+
+    static final PropertyCodec DATE = new PropertyCodec() {
+        @Override
+        public String encode(Object value) {
+            return AmazonSimpleDBUtil.encodeDate((Date) value);
+        }
+
+        @Override
+        protected Object decodeValue(String value) throws ParseException {
+            return AmazonSimpleDBUtil.decodeDate(value);
+        }
+    };
+
+    static final PropertyCodec STRING = new PropertyCodec() {
+        @Override
+        public String encode(Object value) {
+            return value.toString();
+        }
+
+        @Override
+        public Object decode(Collection<String> values) {
+            return joinChunks(values);
+        }
+
+        @Override
+        protected Object decodeValue(String value) {
+            return value;
+        }
+    };
+
+    /**
+     * Multi valued attributes, each value is an element.
+     */
+    static class CollectionCodec extends PropertyCodec {
+        private final PropertyCodec elementCodec;
+
+        CollectionCodec(PropertyCodec elementCodec) {
+            this.elementCodec = elementCodec;
+        }
+
+        @Override
+        public PropertyCodec getElementCodec() {
+            return elementCodec;
+        }
+
+        @Override
+        public Object decode(Collection<String> values) throws ParseException, InvocationTargetException, IllegalAccessException, InstantiationException {
+            Collection coll = new ArrayList(values.size()); //TODO support other collection types
+            for (String value : values) {
+                coll.add(elementCodec.decodeValue(value));
+            }
+            return coll;
+        }
+
+        @Override
+        protected Object decodeValue(String value) throws ParseException, InvocationTargetException, IllegalAccessException, InstantiationException {
+            return decode(Collections.singleton(value));
+        }
+    }
+
+    /**
+     * Everything else, stored serialized if it can be, otherwise using toString and a String constructor.
+     */
+    static class ObjectCodec extends PropertyCodec {
+        private final Class retType;
+        private final Constructor stringConstructor;
+
+        ObjectCodec(Class retType) {
+            this.retType = retType;
+            Constructor constructor = null;
+            try {
+                constructor = retType.getConstructor(String.class);
+            } catch (NoSuchMethodException e) {
+                // falls back to a cast
+            }
+            this.stringConstructor = constructor;
+        }
+
+        @Override
+        public Object decode(Collection<String> values) throws InvocationTargetException, IllegalAccessException, InstantiationException {
+            //adapted from https://github.com/mikrado/simplejpa/commit/5df06fd93b2135e6868b150b9a536755cabc819c
+            String encoded = joinChunks(values);
+            try {
+                return retType.cast(AmazonSimpleDBUtil.decodeSerializable(encoded));
+            } catch (ClassCastException e) {
+                logger.fine("Object not deserializable. Attempting default casting.");
+            } catch (ClassNotFoundException e) {
+                logger.fine("Object not deserializable. Attempting default casting.");
+            } catch (IOException e) {
+                logger.fine("Object not deserializable. Attempting default casting.");
+            } catch (ParseException e) {
+                logger.fine("Object not deserializable. Attempting default casting.");
+            }
+            return fromString(values.iterator().next());
+        }
+
+        @Override
+        protected Object decodeValue(String value) throws InvocationTargetException, IllegalAccessException, InstantiationException {
+            return decode(Collections.singleton(value));
+        }
+
+        private Object fromString(String val) throws InvocationTargetException, IllegalAccessException, InstantiationException {
+            // We build a new field object here because we may get an argument mismatch otherwise, eg: BigDecimal for an Integer field.
+            if (stringConstructor != null) {
+                Object newField = stringConstructor.newInstance(val);
+                if (newField != null) {
+                    return newField;
+                }
+            }
+            try {
+                return retType.cast(val);
+            } catch (ClassCastException e) {
+                throw new PersistenceException("Can't cast " + val.getClass() + " value to correct type (" + retType + "). Tried everything.");
+            }
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package com.spaceprogram.simplejpa;
 
 import javax.persistence.EntityManager;
+import java.util.Collection;
+import java.util.Map;
 import java.util.concurrent.Future;
 
 /**
@@ -27,6 +29,11 @@ public interface SimpleEntityManager extends EntityManager {
      *    ex.getCause().printStackTrace();
      * }
      *
+     * If the factory has batchWrites=true, saves to the same domain are sent together in BatchPutAttributes
+     * calls of up to batchSize items (max 25), waiting at most batchLingerMillis for a batch to fill. The Future
+     * completes once the batch holding this object has been written. Objects with a @Version field are still
+     * put one at a time since batch puts can't be conditional.
+     *
      * @param o the object to persist.
      * @return the Future representing the persist task.
      */
@@ -34,12 +41,22 @@ public interface SimpleEntityManager extends EntityManager {
 
     /**
      * Removes an object asynchronously. This method returns immediately and queues up the remove for processing.
+     * With batchWrites=true on the factory, removes are sent in BatchDeleteAttributes calls the same way as
+     * persistAsync.
      * 
      * @param o
      * @return
      */
     Future removeAsync(Object o);
 
+    /**
+     * Removes all the objects using BatchDeleteAttributes, 25 items per call per domain. PreRemove and PostRemove
+     * listeners are still invoked for each object.
+     *
+     * @param objects
+     */
+    void removeAll(Collection<?> objects);
+
     /**
      * Like find(), but returns a Future. Use future.get() to obtain the object.
      *
@@ -49,5 +66,24 @@ public interface SimpleEntityManager extends EntityManager {
      */
     <T> Future<T> findAsync(Class<T> tClass, Object o);
 
+    /**
+     * Finds many objects of the same class at once. Cached objects are returned straight away, the rest are read
+     * with itemName() in (...) selects of up to 20 ids each, run in parallel.
+     *
+     * @param tClass
+     * @param ids
+     * @return the objects found, keyed and ordered by the ids passed in. Ids that don't exist are left out.
+     */
+    <T, K> Map<K, T> findAll(Class<T> tClass, Collection<K> ids);
+
+    /**
+     * Like findAll(), but returns a Future.
+     *
+     * @param tClass
+     * @param ids
+     * @return
+     */
+    <T, K> Future<Map<K, T>> findAllAsync(Class<T> tClass, Collection<K> ids);
+
 
 }
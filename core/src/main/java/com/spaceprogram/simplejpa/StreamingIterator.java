@@ -0,0 +1,180 @@
+package com.spaceprogram.simplejpa;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.persistence.PersistenceException;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.simpledb.model.Attribute;
+import com.amazonaws.services.simpledb.model.Item;
+import com.amazonaws.services.simpledb.model.SelectResult;
+import com.spaceprogram.simplejpa.query.CloseableIterator;
+import com.spaceprogram.simplejpa.query.SimpleDBQuery;
+import com.spaceprogram.simplejpa.query.SimpleQuery;
+
+/**
+ * Forward only, bounded memory alternative to LazyList for large result sets. Only the raw items of the current
+ * page are held, each object is built when next() reaches it and isn't referenced by the iterator afterwards.
+ * <p/>
+ * Follows nextToken like LazyList and honours offset, limit and maxResults. The objects aren't put in the
+ * EntityManager's session cache either, so a non sessionless EntityManager doesn't hold on to them.
+ */
+@SuppressWarnings("unchecked")
+public class StreamingIterator<E> implements CloseableIterator<E> {
+    private static Logger logger = Logger.getLogger(StreamingIterator.class.getName());
+
+    private EntityManagerSimpleJPA em;
+    private Class genericReturnType;
+    private SimpleQuery origQuery;
+
+    private String realQuery;
+    private String domainName;
+    private String nextToken;
+    private boolean consistentRead;
+    private int maxResultsPerToken = SimpleQuery.MAX_RESULTS_PER_REQUEST;
+    /**
+     * Most results to return, -1 for no limit.
+     */
+    private int maxResults = -1;
+    private int returned;
+
+    private Iterator<Item> page;
+    private BatchFetchGroup pageGroup;
+    private boolean lastPage;
+    private boolean closed;
+
+    public StreamingIterator(EntityManagerSimpleJPA em, Class tClass, SimpleQuery query) {
+        this.em = em;
+        this.genericReturnType = tClass;
+        this.origQuery = query;
+        this.consistentRead = query.isConsistentRead();
+        this.maxResults = query.getMaxResults();
+        if (query.hasLimit()) {
+            maxResults = maxResults < 0 ? query.getLimit() : Math.min(maxResults, query.getLimit());
+            setMaxResultsPerToken(query.getLimit());
+        }
+        AnnotationInfo ai = em.getAnnotationManager().getAnnotationInfo(genericReturnType);
+        try {
+            domainName = em.getDomainName(ai.getRootClass());
+            if (domainName == null) {
+                logger.warning("Domain does not exist for " + ai.getRootClass());
+                lastPage = true;
+            } else {
+                realQuery = query.createAmazonQuery(false).getValue();
+                if (query.hasOffset()) {
+                    skipOffset(query.getOffset(), SimpleDBQuery.convertToCountQuery(realQuery));
+                }
+            }
+        } catch (PersistenceException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new PersistenceException(e);
+        }
+    }
+
+    public void setMaxResultsPerToken(int maxResultsPerToken) {
+        this.maxResultsPerToken = Math.min(maxResultsPerToken, SimpleQuery.MAX_RESULTS_PER_REQUEST);
+    }
+
+    public boolean hasNext() {
+        if (closed) {
+            return false;
+        }
+        while ((page == null || !page.hasNext()) && !lastPage) {
+            fetchPage();
+        }
+        if (page != null && page.hasNext()) {
+            return true;
+        }
+        close();
+        return false;
+    }
+
+    public E next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Item item = page.next();
+        returned++;
+        return (E) em.buildObject(genericReturnType, item.getName(), item.getAttributes(), pageGroup, false);
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException("Results are read only, use EntityManager.remove()");
+    }
+
+    public void close() {
+        closed = true;
+        page = null;
+        pageGroup = null;
+    }
+
+    private boolean noLimit() {
+        return maxResults < 0;
+    }
+
+    private void fetchPage() {
+        int limit = noLimit() ? maxResultsPerToken : Math.min(maxResultsPerToken, maxResults - returned);
+        if (limit <= 0) {
+            lastPage = true;
+            page = null;
+            return;
+        }
+        String limitQuery = realQuery + " limit " + limit;
+        if (em.getFactory().isPrintQueries())
+            System.out.println("query in streaming iterator=" + limitQuery);
+        try {
+            SelectResult qr = em.selectPage(limitQuery, nextToken, consistentRead);
+            if (logger.isLoggable(Level.FINER))
+                logger.finer("got items for streaming iterator=" + qr.getItems().size());
+            List<Item> items = qr.getItems();
+            page = items.iterator();
+            pageGroup = new BatchFetchGroup(em, origQuery.isBatchFetch());
+            nextToken = qr.getNextToken();
+            if (nextToken == null || (!noLimit() && returned + items.size() >= maxResults)) {
+                lastPage = true;
+            }
+        } catch (AmazonClientException e) {
+            throw new PersistenceException("Query failed: Domain=" + domainName + " -> " + origQuery, e);
+        }
+    }
+
+    /**
+     * Moves nextToken past the first offset results using count queries, the same way LazyList does.
+     */
+    private void skipOffset(int expectedOffset, String offsetQuery) {
+        int currentCount = 0;
+        while (currentCount < expectedOffset) {
+            String limitQuery = offsetQuery + " limit " + (expectedOffset - currentCount);
+            if (em.getFactory().isPrintQueries())
+                System.out.println("offset query in streaming iterator=" + limitQuery);
+            SelectResult qr;
+            try {
+                qr = em.selectPage(limitQuery, nextToken, consistentRead);
+            } catch (AmazonClientException e) {
+                throw new PersistenceException("Offset query failed: Domain=" + domainName + " -> " + origQuery + "; offset query: " + offsetQuery, e);
+            }
+            for (Item item : qr.getItems()) {
+                for (Attribute attribute : item.getAttributes()) {
+                    if (attribute.getName().equalsIgnoreCase("count")) {
+                        try {
+                            currentCount += Integer.parseInt(attribute.getValue());
+                        } catch (NumberFormatException e) {
+                            //do nothing
+                        }
+                    }
+                }
+            }
+            nextToken = qr.getNextToken();
+            if (nextToken == null) {
+                // fewer results than the offset
+                lastPage = true;
+                return;
+            }
+        }
+    }
+}
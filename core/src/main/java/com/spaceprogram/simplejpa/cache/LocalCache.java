@@ -0,0 +1,227 @@
+package com.spaceprogram.simplejpa.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * In process LRU cache for one entity region, see LocalCacheFactory.
+ * <p/>
+ * The entries are split over a number of segments, each an access ordered LinkedHashMap with its own lock, so threads
+ * only contend when they hit the same segment. Each segment evicts its least recently used entries once it is over
+ * its share of maxSize or maxWeight. The counters are kept per segment under the same lock and summed when read.
+ */
+public class LocalCache implements Cache {
+
+    /**
+     * Gives the relative cost of keeping a value, eg: its approximate size in bytes.
+     */
+    public interface Weigher {
+        int weigh(Object key, Object value);
+    }
+
+    private final String name;
+    private final Segment[] segments;
+    private final long ttlMillis;
+    private final Weigher weigher;
+
+    /**
+     * @param name
+     * @param maxSize   most entries to keep
+     * @param maxWeight most total weight to keep, only used with a weigher
+     * @param ttlMillis how long an entry lives after it is put, 0 for no limit
+     * @param segments  number of segments, rounded up to a power of 2
+     * @param weigher   can be null
+     */
+    public LocalCache(String name, int maxSize, long maxWeight, long ttlMillis, int segments, Weigher weigher) {
+        this.name = name;
+        this.ttlMillis = ttlMillis;
+        this.weigher = weigher;
+        int n = 1;
+        while (n < segments) {
+            n <<= 1;
+        }
+        // don't end up with segments too small to be useful
+        while (n > 1 && maxSize / n < 8) {
+            n >>= 1;
+        }
+        this.segments = new Segment[n];
+        for (int i = 0; i < n; i++) {
+            this.segments[i] = new Segment(Math.max(1, maxSize / n), weigher == null ? 0 : Math.max(1, maxWeight / n));
+        }
+    }
+
+    private Segment segmentFor(Object key) {
+        int h = key.hashCode();
+        // spread the bits, same idea as HashMap
+        h ^= (h >>> 20) ^ (h >>> 12);
+        h ^= (h >>> 7) ^ (h >>> 4);
+        return segments[h & (segments.length - 1)];
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.map.size();
+            }
+        }
+        return size;
+    }
+
+    public Object getObj(Object key) {
+        Segment segment = segmentFor(key);
+        synchronized (segment) {
+            Entry entry = segment.map.get(key);
+            if (entry == null) {
+                segment.misses++;
+                return null;
+            }
+            if (entry.expires != 0 && entry.expires < System.currentTimeMillis()) {
+                segment.map.remove(key);
+                segment.weight -= entry.weight;
+                segment.expirations++;
+                segment.misses++;
+                return null;
+            }
+            segment.hits++;
+            return entry.value;
+        }
+    }
+
+    public void put(Object key, Object value) {
+        int weight = weigher == null ? 0 : weigher.weigh(key, value);
+        Entry entry = new Entry(value, ttlMillis > 0 ? System.currentTimeMillis() + ttlMillis : 0, weight);
+        Segment segment = segmentFor(key);
+        synchronized (segment) {
+            Entry old = segment.map.put(key, entry);
+            if (old != null) {
+                segment.weight -= old.weight;
+            }
+            segment.weight += weight;
+            segment.evict();
+        }
+    }
+
+    public boolean remove(Object key) {
+        Segment segment = segmentFor(key);
+        synchronized (segment) {
+            Entry old = segment.map.remove(key);
+            if (old == null) {
+                return false;
+            }
+            segment.weight -= old.weight;
+            return true;
+        }
+    }
+
+    public void clear() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.map.clear();
+                segment.weight = 0;
+            }
+        }
+    }
+
+    public long getHits() {
+        long total = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                total += segment.hits;
+            }
+        }
+        return total;
+    }
+
+    public long getMisses() {
+        long total = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                total += segment.misses;
+            }
+        }
+        return total;
+    }
+
+    public long getEvictions() {
+        long total = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                total += segment.evictions;
+            }
+        }
+        return total;
+    }
+
+    public long getExpirations() {
+        long total = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                total += segment.expirations;
+            }
+        }
+        return total;
+    }
+
+    public long getWeight() {
+        long total = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                total += segment.weight;
+            }
+        }
+        return total;
+    }
+
+    @Override
+    public String toString() {
+        return "LocalCache{" + "name='" + name + '\'' + ", size=" + size() + ", hits=" + getHits() + ", misses=" + getMisses()
+                + ", evictions=" + getEvictions() + ", expirations=" + getExpirations() + '}';
+    }
+
+    private static class Entry {
+        final Object value;
+        final long expires;
+        final int weight;
+
+        Entry(Object value, long expires, int weight) {
+            this.value = value;
+            this.expires = expires;
+            this.weight = weight;
+        }
+    }
+
+    private static class Segment {
+        final LinkedHashMap<Object, Entry> map = new LinkedHashMap<Object, Entry>(16, 0.75f, true);
+        final int maxSize;
+        final long maxWeight;
+        long weight;
+        long hits;
+        long misses;
+        long evictions;
+        long expirations;
+
+        Segment(int maxSize, long maxWeight) {
+            this.maxSize = maxSize;
+            this.maxWeight = maxWeight;
+        }
+
+        /**
+         * Drops least recently used entries until within bounds, always keeps the newest one.
+         */
+        void evict() {
+            Iterator<Map.Entry<Object, Entry>> it = map.entrySet().iterator();
+            while (map.size() > 1 && (map.size() > maxSize || (maxWeight > 0 && weight > maxWeight))) {
+                Entry eldest = it.next().getValue();
+                it.remove();
+                weight -= eldest.weight;
+                evictions++;
+            }
+        }
+    }
+}
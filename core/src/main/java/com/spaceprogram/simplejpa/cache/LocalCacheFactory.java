@@ -0,0 +1,91 @@
+package com.spaceprogram.simplejpa.cache;
+
+import org.apache.commons.collections.MapUtils;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Logger;
+
+/**
+ * Built in second level cache, no extra dependencies. Set cacheFactory=com.spaceprogram.simplejpa.cache.LocalCacheFactory
+ * to use it.
+ * <p/>
+ * Each entity root class gets its own LocalCache region. Properties, all optional:
+ * <ul>
+ * <li>localCache.maxSize - most objects per region, default 10000. localCache.maxSize.[root class name] overrides
+ * it for one region.</li>
+ * <li>localCache.ttlSeconds - how long an object is kept after it's put, default 0 for no limit.</li>
+ * <li>localCache.segments - lock stripes per region, default 32.</li>
+ * <li>localCache.weigher - class name of a LocalCache.Weigher, together with localCache.maxWeight bounds the total
+ * weight per region.</li>
+ * </ul>
+ */
+public class LocalCacheFactory implements CacheFactory {
+    private static Logger logger = Logger.getLogger(LocalCacheFactory.class.getName());
+
+    public static final int DEFAULT_MAX_SIZE = 10000;
+    public static final int DEFAULT_SEGMENTS = 32;
+
+    private final ConcurrentMap<String, LocalCache> caches = new ConcurrentHashMap<String, LocalCache>();
+    private Map properties = Collections.EMPTY_MAP;
+    private int maxSize = DEFAULT_MAX_SIZE;
+    private long maxWeight;
+    private long ttlMillis;
+    private int segments = DEFAULT_SEGMENTS;
+    private LocalCache.Weigher weigher;
+
+    public void init(Map properties) {
+        if (properties == null) {
+            return;
+        }
+        this.properties = properties;
+        maxSize = MapUtils.getIntValue(properties, "localCache.maxSize", DEFAULT_MAX_SIZE);
+        ttlMillis = MapUtils.getLongValue(properties, "localCache.ttlSeconds", 0) * 1000;
+        segments = MapUtils.getIntValue(properties, "localCache.segments", DEFAULT_SEGMENTS);
+        maxWeight = MapUtils.getLongValue(properties, "localCache.maxWeight", 0);
+        String weigherClass = MapUtils.getString(properties, "localCache.weigher");
+        if (weigherClass != null) {
+            try {
+                weigher = (LocalCache.Weigher) Class.forName(weigherClass).newInstance();
+            } catch (Exception e) {
+                throw new RuntimeException("Could not create weigher: " + weigherClass, e);
+            }
+        }
+    }
+
+    /**
+     * Returns the region for the name, creating it the first time. Called on every cache access so it's just a map
+     * lookup after that.
+     */
+    public Cache createCache(String name) {
+        LocalCache cache = caches.get(name);
+        if (cache == null) {
+            int regionMaxSize = MapUtils.getIntValue(properties, "localCache.maxSize." + name, maxSize);
+            cache = new LocalCache(name, regionMaxSize, maxWeight, ttlMillis, segments, weigher);
+            LocalCache existing = caches.putIfAbsent(name, cache);
+            if (existing != null) {
+                cache = existing;
+            } else {
+                logger.fine("created local cache region " + name + " maxSize=" + regionMaxSize);
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * @return every region created so far, for reporting hits, misses and evictions.
+     */
+    public Collection<LocalCache> getCaches() {
+        return Collections.unmodifiableCollection(caches.values());
+    }
+
+    public void shutdown() {
+        for (LocalCache cache : caches.values()) {
+            cache.clear();
+        }
+        caches.clear();
+    }
+}
@@ -0,0 +1,29 @@
+package com.spaceprogram.simplejpa.operations;
+
+import java.util.List;
+
+import com.amazonaws.services.simpledb.model.BatchDeleteAttributesRequest;
+import com.amazonaws.services.simpledb.model.DeletableItem;
+import com.spaceprogram.simplejpa.EntityManagerFactoryImpl;
+
+/**
+ * Groups the deletes from removeAsync into BatchDeleteAttributes calls when batchWrites is turned on.
+ */
+public class BatchDeleteAttributes extends ItemBatcher<DeletableItem> {
+    private EntityManagerFactoryImpl factory;
+
+    public BatchDeleteAttributes(EntityManagerFactoryImpl factory, int batchSize, long lingerMillis) {
+        super(batchSize, lingerMillis);
+        this.factory = factory;
+    }
+
+    @Override
+    protected String itemName(DeletableItem item) {
+        return item.getName();
+    }
+
+    @Override
+    protected void send(String domainName, List<DeletableItem> items) {
+        factory.getSimpleDb().batchDeleteAttributes(new BatchDeleteAttributesRequest(domainName, items));
+    }
+}
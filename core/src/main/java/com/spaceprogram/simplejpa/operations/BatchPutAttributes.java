@@ -0,0 +1,31 @@
+package com.spaceprogram.simplejpa.operations;
+
+import java.util.List;
+
+import com.amazonaws.services.simpledb.model.BatchPutAttributesRequest;
+import com.amazonaws.services.simpledb.model.ReplaceableItem;
+import com.spaceprogram.simplejpa.EntityManagerFactoryImpl;
+
+/**
+ * Groups the puts from Save into BatchPutAttributes calls when batchWrites is turned on.
+ * <p/>
+ * Conditional puts (@Version) can't be batched, Save sends those on their own.
+ */
+public class BatchPutAttributes extends ItemBatcher<ReplaceableItem> {
+    private EntityManagerFactoryImpl factory;
+
+    public BatchPutAttributes(EntityManagerFactoryImpl factory, int batchSize, long lingerMillis) {
+        super(batchSize, lingerMillis);
+        this.factory = factory;
+    }
+
+    @Override
+    protected String itemName(ReplaceableItem item) {
+        return item.getName();
+    }
+
+    @Override
+    protected void send(String domainName, List<ReplaceableItem> items) {
+        factory.getSimpleDb().batchPutAttributes(new BatchPutAttributesRequest(domainName, items));
+    }
+}
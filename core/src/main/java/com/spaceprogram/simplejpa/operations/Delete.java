@@ -1,6 +1,9 @@
 package com.spaceprogram.simplejpa.operations;
 
+import com.amazonaws.services.simpledb.model.DeletableItem;
 import com.amazonaws.services.simpledb.model.DeleteAttributesRequest;
+import com.spaceprogram.simplejpa.AnnotationInfo;
+import com.spaceprogram.simplejpa.AttributeSnapshots;
 import com.spaceprogram.simplejpa.EntityManagerSimpleJPA;
 
 import javax.persistence.PostRemove;
@@ -20,10 +23,19 @@ public class Delete implements Callable {
     private EntityManagerSimpleJPA em;
     private Object toDelete;
     private String id;
+    /**
+     * Whether the delete may wait to be coalesced with others, only used from removeAsync.
+     */
+    private boolean batched;
 
     public Delete(EntityManagerSimpleJPA em, Object toDelete) {
+        this(em, toDelete, false);
+    }
+
+    public Delete(EntityManagerSimpleJPA em, Object toDelete, boolean batched) {
         this.em = em;
         this.toDelete = toDelete;
+        this.batched = batched;
         id = em.getId(toDelete);
         em.cacheRemove(toDelete.getClass(), id);
     }
@@ -31,11 +43,26 @@ public class Delete implements Callable {
     public Object call() throws Exception {
         String domainName = em.getOrCreateDomain(toDelete.getClass());
         if(logger.isLoggable(Level.FINE)) logger.fine("deleting item with id: " + id);
-        em.invokeEntityListener(toDelete, PreRemove.class);
-        this.em.getSimpleDb().deleteAttributes(new DeleteAttributesRequest()
-        	.withDomainName(domainName)
-        	.withItemName(id));
-        em.invokeEntityListener(toDelete, PostRemove.class);
+        AnnotationInfo ai = em.getAnnotationManager().getAnnotationInfo(toDelete);
+        em.invokeEntityListener(ai, toDelete, PreRemove.class);
+        BatchDeleteAttributes batchDelete = em.getFactory().getBatchDeleteAttributes();
+        long start = System.nanoTime();
+        if (batched && batchDelete != null) {
+            // blocks until the batch holding this item has landed
+            batchDelete.submit(domainName, new DeletableItem().withName(id));
+        } else {
+            this.em.getSimpleDb().deleteAttributes(new DeleteAttributesRequest()
+                .withDomainName(domainName)
+                .withItemName(id));
+        }
+        long duration = System.nanoTime() - start;
+        em.statsAttsDeleted(0, duration);
+        em.getDomainStats(domainName).deleted(0, duration);
+        AttributeSnapshots snapshots = em.getFactory().getAttributeSnapshots();
+        if (snapshots != null) {
+            snapshots.remove(toDelete);
+        }
+        em.invokeEntityListener(ai, toDelete, PostRemove.class);
         return toDelete;
     }
 }
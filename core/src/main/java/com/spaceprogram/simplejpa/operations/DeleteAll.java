@@ -0,0 +1,76 @@
+package com.spaceprogram.simplejpa.operations;
+
+import com.amazonaws.services.simpledb.model.BatchDeleteAttributesRequest;
+import com.amazonaws.services.simpledb.model.DeletableItem;
+import com.spaceprogram.simplejpa.AttributeSnapshots;
+import com.spaceprogram.simplejpa.EntityManagerSimpleJPA;
+
+import javax.persistence.PostRemove;
+import javax.persistence.PreRemove;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Deletes a collection of objects with BatchDeleteAttributes, up to 25 items per call and one call per domain chunk.
+ * Listeners fire per object, PreRemove before its chunk is sent and PostRemove after.
+ */
+public class DeleteAll implements Callable {
+    private static Logger logger = Logger.getLogger(DeleteAll.class.getName());
+
+    private EntityManagerSimpleJPA em;
+    /**
+     * domain name -> (id -> object), ids are unique within a batch call
+     */
+    private Map<String, Map<String, Object>> byDomain = new LinkedHashMap<String, Map<String, Object>>();
+
+    public DeleteAll(EntityManagerSimpleJPA em, Collection<?> toDelete) {
+        this.em = em;
+        for (Object o : toDelete) {
+            if (o == null) continue;
+            String id = em.getId(o);
+            em.cacheRemove(o.getClass(), id);
+            String domainName = em.getOrCreateDomain(o.getClass());
+            Map<String, Object> objects = byDomain.get(domainName);
+            if (objects == null) {
+                objects = new LinkedHashMap<String, Object>();
+                byDomain.put(domainName, objects);
+            }
+            objects.put(id, o);
+        }
+    }
+
+    public Object call() throws Exception {
+        AttributeSnapshots snapshots = em.getFactory().getAttributeSnapshots();
+        for (Map.Entry<String, Map<String, Object>> entry : byDomain.entrySet()) {
+            String domainName = entry.getKey();
+            List<Map.Entry<String, Object>> objects = new ArrayList<Map.Entry<String, Object>>(entry.getValue().entrySet());
+            for (int from = 0; from < objects.size(); from += ItemBatcher.MAX_BATCH_SIZE) {
+                List<Map.Entry<String, Object>> chunk = objects.subList(from, Math.min(from + ItemBatcher.MAX_BATCH_SIZE, objects.size()));
+                List<DeletableItem> items = new ArrayList<DeletableItem>(chunk.size());
+                for (Map.Entry<String, Object> o : chunk) {
+                    em.invokeEntityListener(o.getValue(), PreRemove.class);
+                    items.add(new DeletableItem().withName(o.getKey()));
+                }
+                if (logger.isLoggable(Level.FINE)) logger.fine("deleting " + items.size() + " items from " + domainName);
+                long start = System.nanoTime();
+                em.getSimpleDb().batchDeleteAttributes(new BatchDeleteAttributesRequest(domainName, items));
+                long duration = System.nanoTime() - start;
+                em.statsAttsDeleted(0, duration);
+                em.getDomainStats(domainName).itemsDeleted(items.size(), duration);
+                for (Map.Entry<String, Object> o : chunk) {
+                    if (snapshots != null) {
+                        snapshots.remove(o.getValue());
+                    }
+                    em.invokeEntityListener(o.getValue(), PostRemove.class);
+                }
+            }
+        }
+        return null;
+    }
+}
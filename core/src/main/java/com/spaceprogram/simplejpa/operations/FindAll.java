@@ -0,0 +1,161 @@
+package com.spaceprogram.simplejpa.operations;
+
+import com.amazonaws.services.simpledb.model.Item;
+import com.amazonaws.services.simpledb.model.SelectResult;
+import com.spaceprogram.simplejpa.BatchFetchGroup;
+import com.spaceprogram.simplejpa.DomainHelper;
+import com.spaceprogram.simplejpa.EntityManagerSimpleJPA;
+import com.spaceprogram.simplejpa.NamingHelper;
+import com.spaceprogram.simplejpa.stats.DomainStats;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Loads many objects of one class by id.
+ * <p/>
+ * Ids found in the session or second level cache aren't fetched. The rest are read with
+ * select * where itemName() in (...), up to 20 ids per select, with the selects run in parallel on the executor. A
+ * single miss uses GetAttributes instead since that is the cheaper call for one item.
+ * <p/>
+ * The returned map is in the order of the ids passed in, ids that don't exist are left out.
+ */
+public class FindAll<T, K> implements Callable<Map<K, T>> {
+    private static Logger logger = Logger.getLogger(FindAll.class.getName());
+
+    private EntityManagerSimpleJPA em;
+    private Class<T> c;
+    private Collection<K> ids;
+
+    public FindAll(EntityManagerSimpleJPA em, Class<T> c, Collection<K> ids) {
+        this.em = em;
+        this.c = c;
+        this.ids = ids;
+    }
+
+    public Map<K, T> call() throws Exception {
+        Map<K, T> found = new HashMap<K, T>();
+        Map<String, K> misses = new LinkedHashMap<String, K>();
+        for (K id : ids) {
+            if (id == null)
+                throw new IllegalArgumentException("Id value must not be null.");
+            if (found.containsKey(id) || misses.containsKey(id.toString()))
+                continue;
+            T ob = em.cacheGet(c, id);
+            if (ob != null) {
+                found.put(id, ob);
+            } else {
+                misses.put(id.toString(), id);
+            }
+        }
+        if (logger.isLoggable(Level.FINE))
+            logger.fine("findAll " + c.getName() + " cache hits=" + found.size() + " misses=" + misses.size());
+
+        String domainName = em.getDomainName(c);
+        if (domainName != null) {
+            DomainStats ds = em.getDomainStats(domainName);
+            ds.cacheHits(found.size());
+            // a single miss is counted by find
+            if (misses.size() > 1) {
+                ds.cacheMisses(misses.size());
+            }
+        }
+        if (!misses.isEmpty() && domainName != null) {
+            if (misses.size() == 1) {
+                K id = misses.values().iterator().next();
+                T ob = em.find(c, id);
+                if (ob != null) {
+                    found.put(id, ob);
+                }
+            } else {
+                List<FutureTask<List<Item>>> tasks = new ArrayList<FutureTask<List<Item>>>();
+                List<String> chunk = new ArrayList<String>(DomainHelper.MAX_IN_VALUES);
+                for (String itemName : misses.keySet()) {
+                    chunk.add(itemName);
+                    if (chunk.size() == DomainHelper.MAX_IN_VALUES) {
+                        tasks.add(execute(new SelectByItemNames(domainName, chunk)));
+                        chunk = new ArrayList<String>(DomainHelper.MAX_IN_VALUES);
+                    }
+                }
+                if (!chunk.isEmpty()) {
+                    tasks.add(execute(new SelectByItemNames(domainName, chunk)));
+                }
+                BatchFetchGroup group = new BatchFetchGroup(em, em.getFactory().isBatchFetch());
+                for (FutureTask<List<Item>> task : tasks) {
+                    // runs it here if no executor thread has picked it up yet, a no-op otherwise
+                    task.run();
+                    for (Item item : task.get()) {
+                        K id = misses.get(item.getName());
+                        if (id == null || item.getAttributes().isEmpty())
+                            continue;
+                        T ob = em.buildObject(c, id, item.getAttributes(), group);
+                        if (ob != null) {
+                            found.put(id, ob);
+                        }
+                    }
+                }
+            }
+        }
+
+        Map<K, T> ret = new LinkedHashMap<K, T>();
+        for (K id : ids) {
+            T ob = found.get(id);
+            if (ob != null) {
+                ret.put(id, ob);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Hands the select to the executor, but the caller runs whatever hasn't started by the time it needs the result.
+     * So this never waits on tasks queued behind itself, eg: when it's running on the same executor from findAllAsync
+     * and every thread is busy.
+     */
+    private FutureTask<List<Item>> execute(SelectByItemNames select) {
+        FutureTask<List<Item>> task = new FutureTask<List<Item>>(select);
+        try {
+            em.getExecutor().execute(task);
+        } catch (RejectedExecutionException e) {
+            // run by the caller
+        }
+        return task;
+    }
+
+    private class SelectByItemNames implements Callable<List<Item>> {
+        private String domainName;
+        private List<String> itemNames;
+
+        SelectByItemNames(String domainName, List<String> itemNames) {
+            this.domainName = domainName;
+            this.itemNames = itemNames;
+        }
+
+        public List<Item> call() throws Exception {
+            String where = DomainHelper.inClause(NamingHelper.NAME_FIELD_REF, itemNames);
+            long start = System.nanoTime();
+            List<Item> items = new ArrayList<Item>(itemNames.size());
+            String nextToken = null;
+            do {
+                // results can be cut short by the response size limit
+                SelectResult result = DomainHelper.selectItems(em.getSimpleDb(), domainName, where, nextToken,
+                        em.isConsistentRead());
+                items.addAll(result.getItems());
+                nextToken = result.getNextToken();
+            } while (nextToken != null);
+            long duration = System.nanoTime() - start;
+            em.statsGets(items.size(), duration);
+            em.getDomainStats(domainName).read(items.size(), duration);
+            return items;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.spaceprogram.simplejpa.operations;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Coalesces single item operations against the same domain into SimpleDB batch calls.
+ * <p/>
+ * Callers block in submit() until the batch holding their item has been sent. A batch is sent as soon as it is full,
+ * otherwise by the first caller whose linger time runs out, so no background thread is needed. Whoever takes a batch
+ * out of the open map is the one that sends it.
+ */
+public abstract class ItemBatcher<I> {
+    private static Logger logger = Logger.getLogger(ItemBatcher.class.getName());
+
+    /**
+     * SimpleDB accepts at most 25 items per batch request.
+     */
+    public static final int MAX_BATCH_SIZE = 25;
+
+    private final int batchSize;
+    private final long lingerMillis;
+    private final Map<String, Batch<I>> openBatches = new HashMap<String, Batch<I>>();
+
+    protected ItemBatcher(int batchSize, long lingerMillis) {
+        this.batchSize = Math.max(1, Math.min(batchSize, MAX_BATCH_SIZE));
+        this.lingerMillis = Math.max(0, lingerMillis);
+    }
+
+    /**
+     * Adds the item to the open batch for the domain and waits until that batch has been sent.
+     *
+     * @param domainName
+     * @param item
+     * @throws InterruptedException
+     * @throws RuntimeException whatever the batch call threw, for every item in the batch
+     */
+    public void submit(String domainName, I item) throws InterruptedException {
+        String itemName = itemName(item);
+        Batch<I> batch;
+        Batch<I> displaced = null;
+        boolean full;
+        synchronized (openBatches) {
+            batch = openBatches.get(domainName);
+            if (batch != null && batch.itemNames.contains(itemName)) {
+                // SimpleDB rejects duplicate item names in one batch, send the earlier write first
+                displaced = batch;
+                batch = null;
+            }
+            if (batch == null) {
+                batch = new Batch<I>(domainName);
+                openBatches.put(domainName, batch);
+            }
+            batch.add(itemName, item);
+            full = batch.items.size() >= batchSize;
+            if (full) {
+                openBatches.remove(domainName);
+            }
+        }
+        if (displaced != null) {
+            send(displaced);
+        }
+        if (full) {
+            send(batch);
+        } else if (!batch.done.await(lingerMillis, TimeUnit.MILLISECONDS)) {
+            boolean claimed = false;
+            synchronized (openBatches) {
+                if (openBatches.get(domainName) == batch) {
+                    openBatches.remove(domainName);
+                    claimed = true;
+                }
+            }
+            if (claimed) {
+                send(batch);
+            } else {
+                batch.done.await();
+            }
+        }
+        if (batch.error != null) {
+            throw batch.error;
+        }
+    }
+
+    private void send(Batch<I> batch) {
+        try {
+            if (logger.isLoggable(Level.FINE))
+                logger.fine("sending batch of " + batch.items.size() + " to " + batch.domainName);
+            send(batch.domainName, batch.items);
+        } catch (RuntimeException e) {
+            batch.error = e;
+        } finally {
+            batch.done.countDown();
+        }
+    }
+
+    /**
+     * @return the SimpleDB item name, used to keep duplicates out of a single batch.
+     */
+    protected abstract String itemName(I item);
+
+    /**
+     * Makes the actual batch call.
+     */
+    protected abstract void send(String domainName, List<I> items);
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public long getLingerMillis() {
+        return lingerMillis;
+    }
+
+    private static class Batch<I> {
+        private final String domainName;
+        private final List<I> items = new ArrayList<I>(MAX_BATCH_SIZE);
+        private final Set<String> itemNames = new HashSet<String>();
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile RuntimeException error;
+
+        Batch(String domainName) {
+            this.domainName = domainName;
+        }
+
+        void add(String itemName, I item) {
+            itemNames.add(itemName);
+            items.add(item);
+        }
+    }
+}
@@ -7,20 +7,25 @@ import java.io.InputStream;
 import java.io.ObjectOutputStream;
 import java.io.UnsupportedEncodingException;
 import java.lang.reflect.InvocationTargetException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import javax.persistence.CascadeType;
 import javax.persistence.EnumType;
-import javax.persistence.ManyToOne;
-import javax.persistence.OneToMany;
 import javax.persistence.PersistenceException;
 import javax.persistence.PostPersist;
 import javax.persistence.PostUpdate;
@@ -35,12 +40,18 @@ import com.amazonaws.services.simpledb.model.Attribute;
 import com.amazonaws.services.simpledb.model.DeleteAttributesRequest;
 import com.amazonaws.services.simpledb.model.PutAttributesRequest;
 import com.amazonaws.services.simpledb.model.ReplaceableAttribute;
+import com.amazonaws.services.simpledb.model.ReplaceableItem;
 import com.amazonaws.services.simpledb.model.UpdateCondition;
 import com.spaceprogram.simplejpa.AnnotationInfo;
+import com.spaceprogram.simplejpa.AttributeSnapshots;
 import com.spaceprogram.simplejpa.EntityManagerFactoryImpl;
 import com.spaceprogram.simplejpa.EntityManagerSimpleJPA;
 import com.spaceprogram.simplejpa.LazyInterceptor;
+import com.spaceprogram.simplejpa.NamingHelper;
 import com.spaceprogram.simplejpa.PersistentProperty;
+import com.spaceprogram.simplejpa.PropertyCodec;
+import com.spaceprogram.simplejpa.stats.DomainStats;
+import com.spaceprogram.simplejpa.util.AmazonSimpleDBUtil;
 
 /**
  * User: treeder Date: Apr 1, 2008 Time: 11:51:16 AM
@@ -52,10 +63,19 @@ public class Save implements Callable {
     private Object o;
     private String id;
     private boolean newObject;
+    /**
+     * Whether the put may wait to be coalesced with others, only used from persistAsync.
+     */
+    private boolean batched;
 
     public Save(EntityManagerSimpleJPA entityManager, Object o) {
+        this(entityManager, o, false);
+    }
+
+    public Save(EntityManagerSimpleJPA entityManager, Object o, boolean batched) {
         this.em = entityManager;
         this.o = o;
+        this.batched = batched;
         long start = System.currentTimeMillis();
         id = prePersist(o);
         if (logger.isLoggable(Level.FINE))
@@ -96,11 +116,11 @@ public class Save implements Callable {
     }
 
     protected void persistOnly(Object o, String id) throws AmazonClientException, IllegalAccessException,
-            InvocationTargetException, IOException {
+            InvocationTargetException, IOException, InterruptedException {
         long start = System.currentTimeMillis();
         //System.out.println("persistOnly: called " + o.getClass().getAnnotations().toString());
-        em.invokeEntityListener(o, newObject ? PrePersist.class : PreUpdate.class);
         AnnotationInfo ai = em.getFactory().getAnnotationManager().getAnnotationInfo(o);
+        em.invokeEntityListener(ai, o, newObject ? PrePersist.class : PreUpdate.class);
 
         UpdateCondition expected = null;
         PersistentProperty versionField = null;
@@ -117,10 +137,19 @@ public class Save implements Callable {
         // now set attributes
         List<ReplaceableAttribute> attsToPut = new ArrayList<ReplaceableAttribute>();
         List<Attribute> attsToDelete = new ArrayList<Attribute>();
+        // lob puts run on the lob executor while the rest of the attributes are built
+        List<Future<Long>> lobPuts = null;
+        AttributeSnapshots snapshots = em.getFactory().getAttributeSnapshots();
+        // only objects built from SimpleDB have one, anything else is written in full
+        Map<String, Set<String>> snapshot = snapshots != null && !newObject ? snapshots.get(o) : null;
         if (ai.getDiscriminatorValue() != null) {
             attsToPut.add(new ReplaceableAttribute(EntityManagerFactoryImpl.DTYPE, ai.getDiscriminatorValue(), true));
         }
 
+        // only objects loaded lazily or with a snapshot carry the stored lob hash to compare with
+        boolean keepLobHashes = snapshots != null || em.getFactory().isLazyLoading();
+        Map<String, String> writtenLobHashes = null;
+
         LazyInterceptor interceptor = null;
         if (o instanceof Factory) {
             Factory factory = (Factory) o;
@@ -140,6 +169,9 @@ public class Save implements Callable {
             String columnName = field.getColumnName();
             if (ob == null) {
                 attsToDelete.add(new Attribute(columnName, null));
+                if (field.isLob()) {
+                    attsToDelete.add(new Attribute(NamingHelper.lobHashAttributeName(columnName), null));
+                }
                 continue;
             }
             if (field.isForeignKeyRelationship()) {
@@ -154,17 +186,7 @@ public class Save implements Callable {
                     attsToPut.add(new ReplaceableAttribute(columnName, id2, true));
 
                     /* check if we should persist this */
-                    boolean persistRelationship = false;
-                    ManyToOne a = field.getAnnotation(ManyToOne.class);
-                    if (a != null && null != a.cascade()) {
-                        CascadeType[] cascadeType = a.cascade();
-                        for (CascadeType type : cascadeType) {
-                            if (CascadeType.ALL == type || CascadeType.PERSIST == type) {
-                                persistRelationship = true;
-                            }
-                        }
-                    }
-                    if (persistRelationship) {
+                    if (field.isCascadePersist()) {
                         em.persist(ob);
                     }
                 }
@@ -172,10 +194,10 @@ public class Save implements Callable {
                 Long curVersion = Long.parseLong("" + ob);
                 nextVersion = (1 + curVersion);
 
-                attsToPut.add(new ReplaceableAttribute(columnName, em.padOrConvertIfRequired(nextVersion), true));
+                attsToPut.add(new ReplaceableAttribute(columnName, AmazonSimpleDBUtil.encodeLong(nextVersion), true));
 
                 if (curVersion > 0) {
-                    expected = new UpdateCondition(columnName, em.padOrConvertIfRequired(curVersion), true);
+                    expected = new UpdateCondition(columnName, AmazonSimpleDBUtil.encodeLong(curVersion), true);
                 } else {
                     expected = new UpdateCondition().withName(columnName).withExists(false);
                 }
@@ -186,15 +208,7 @@ public class Save implements Callable {
                 // ... except for cascading persistence down to all items in the
                 // OneToMany collection
                 /* check if we should persist this */
-                boolean persistRelationship = false;
-                OneToMany a = field.getAnnotation(OneToMany.class);
-                CascadeType[] cascadeType = a.cascade();
-                for (CascadeType type : cascadeType) {
-                    if (CascadeType.ALL == type || CascadeType.PERSIST == type) {
-                        persistRelationship = true;
-                    }
-                }
-                if (persistRelationship) {
+                if (field.isCascadePersist()) {
                     if (ob instanceof Collection) {
                         // it's OneToMany, so this should always be the case,
                         // shouldn't it?
@@ -206,14 +220,7 @@ public class Save implements Callable {
                 }
 
             } else if (field.isLob()) {
-                // store in s3
-                AmazonS3 s3 = null;
-                // todo: need to make sure we only store to S3 if it's changed,
-                // too slow.
-                logger.fine("putting lob to s3");
-                long start3 = System.currentTimeMillis();
-                s3 = em.getS3Service();
-                String bucketName = em.getS3BucketName();
+                // store in s3, unless the stored hash says the same content is already there
                 String s3ObjectId = id + "-" + field.getFieldName();
 
                 ByteArrayOutputStream bos = new ByteArrayOutputStream();
@@ -221,11 +228,30 @@ public class Save implements Callable {
                 out.writeObject(ob);
                 byte[] contentBytes = bos.toByteArray();
                 out.close();
-                InputStream input = new ByteArrayInputStream(contentBytes);
-
-                s3.putObject(bucketName, s3ObjectId, input, null);
 
-                em.statsS3Put(System.currentTimeMillis() - start3);
+                boolean unchanged = false;
+                if (keepLobHashes) {
+                    String hashColumnName = NamingHelper.lobHashAttributeName(columnName);
+                    String hash = lobHash(contentBytes);
+                    String loadedHash = interceptor != null ? interceptor.getLobHash(field.getFieldName()) : null;
+                    Set<String> snapshotHash = snapshot != null ? snapshot.get(hashColumnName) : null;
+                    unchanged = hash.equals(loadedHash) || (snapshotHash != null && snapshotHash.contains(hash));
+                    // left out of the put below by the snapshot if it didn't change
+                    attsToPut.add(new ReplaceableAttribute(hashColumnName, hash, true));
+                    if (writtenLobHashes == null) {
+                        writtenLobHashes = new HashMap<String, String>();
+                    }
+                    writtenLobHashes.put(field.getFieldName(), hash);
+                }
+                if (unchanged) {
+                    logger.fine("lob unchanged, not putting to s3");
+                } else {
+                    logger.fine("putting lob to s3");
+                    if (lobPuts == null) {
+                        lobPuts = new ArrayList<Future<Long>>();
+                    }
+                    lobPuts.add(em.getLobExecutor().submit(new PutLob(s3ObjectId, contentBytes)));
+                }
                 logger.finer("setting lobkeyattribute=" + columnName + " - " + s3ObjectId);
                 attsToPut.add(new ReplaceableAttribute(columnName, s3ObjectId, true));
             } else if (field.getEnumType() != null) {
@@ -234,8 +260,9 @@ public class Save implements Callable {
             } else if (field.isId()) {
                 continue;
             } else if (Collection.class.isInstance(ob)) {
+                PropertyCodec elementCodec = field.getCodec().getElementCodec();
                 for (Object each : ((Collection) ob)) {
-                    String toSet = each != null ? em.padOrConvertIfRequired(each) : "";
+                    String toSet = each != null ? elementCodec.encode(each) : "";
                     // todo: throw an exception if this is going to exceed
                     // maximum size, suggest using @Lob
                     attsToPut.add(new ReplaceableAttribute(columnName, toSet, true));
@@ -248,7 +275,7 @@ public class Save implements Callable {
                 attsToPut.add(new ReplaceableAttribute(columnName, toSet, true));
                 */
 
-                String toSet = ob != null ? em.padOrConvertIfRequired(ob) : "";
+                String toSet = ob != null ? field.getCodec().encode(ob) : "";
 
                 try {
                 	// Check size of encoded value.
@@ -281,17 +308,60 @@ public class Save implements Callable {
             }
         }
 
+        if (lobPuts != null) {
+            // the lob keys mustn't be stored until the lobs are
+            boolean stored = false;
+            try {
+                for (Future<Long> lobPut : lobPuts) {
+                    try {
+                        // counted here so it goes to this thread's stats rather than the lob thread's
+                        em.statsS3Put(lobPut.get());
+                    } catch (ExecutionException e) {
+                        if (e.getCause() instanceof AmazonClientException) {
+                            throw (AmazonClientException) e.getCause();
+                        }
+                        throw new PersistenceException("Failed putting lob to S3.", e.getCause());
+                    }
+                }
+                stored = true;
+            } finally {
+                if (!stored) {
+                    // the item won't be written, so stop the other lobs still queued or uploading
+                    for (Future<Long> lobPut : lobPuts) {
+                        lobPut.cancel(true);
+                    }
+                }
+            }
+        }
+
+        // Only send what changed since we last read or wrote this item
+        List<ReplaceableAttribute> allAtts = attsToPut;
+        if (snapshot != null) {
+            attsToPut = AttributeSnapshots.changed(snapshot, attsToPut);
+            attsToDelete = AttributeSnapshots.existing(snapshot, attsToDelete);
+            if (logger.isLoggable(Level.FINE))
+                logger.fine("dirty attributes=" + attsToPut.size() + " of " + allAtts.size());
+        }
+        List<String> deletedNames = new ArrayList<String>();
+
         // Now finally send it for storage (If have attributes to add)
-        long start2 = System.currentTimeMillis();
+        long start2 = System.nanoTime();
         long duration2;
         if (!attsToPut.isEmpty()) {
-            this.em.getSimpleDb().putAttributes(
-                    new PutAttributesRequest().withDomainName(domainName).withItemName(id).withAttributes(attsToPut)
-                            .withExpected(expected));
-            duration2 = System.currentTimeMillis() - start2;
+            BatchPutAttributes batchPut = em.getFactory().getBatchPutAttributes();
+            if (batched && batchPut != null && expected == null) {
+                // blocks until the batch holding this item has landed
+                batchPut.submit(domainName, new ReplaceableItem(id, attsToPut));
+            } else {
+                this.em.getSimpleDb().putAttributes(
+                        new PutAttributesRequest().withDomainName(domainName).withItemName(id).withAttributes(attsToPut)
+                                .withExpected(expected));
+            }
+            duration2 = System.nanoTime() - start2;
             if (logger.isLoggable(Level.FINE))
-                logger.fine("putAttributes time=" + (duration2));
+                logger.fine("putAttributes time=" + TimeUnit.NANOSECONDS.toMillis(duration2));
             em.statsAttsPut(attsToPut.size(), duration2);
+            em.getDomainStats(domainName).written(attsToPut.size(), bytesSent(attsToPut), duration2);
 
             if (null != versionField)
                 versionField.setProperty(o, nextVersion);
@@ -307,25 +377,33 @@ public class Save implements Callable {
             if (interceptor.getNulledFields() != null && interceptor.getNulledFields().size() > 0) {
                 List<Attribute> attsToDelete2 = new ArrayList<Attribute>();
                 for (String s : interceptor.getNulledFields().keySet()) {
-                    String columnName = ai.getPersistentProperty(s).getColumnName();
+                    PersistentProperty property = ai.getPersistentProperty(s);
+                    String columnName = property.getColumnName();
                     attsToDelete2.add(new Attribute(columnName, null));
+                    deletedNames.add(columnName);
+                    if (property.isLob()) {
+                        String hashColumnName = NamingHelper.lobHashAttributeName(columnName);
+                        attsToDelete2.add(new Attribute(hashColumnName, null));
+                        deletedNames.add(hashColumnName);
+                    }
                 }
-                start2 = System.currentTimeMillis();
+                start2 = System.nanoTime();
                 this.em.getSimpleDb().deleteAttributes(
                         new DeleteAttributesRequest().withDomainName(domainName).withItemName(id)
                                 .withAttributes(attsToDelete2));
 
                 // todo: what about lobs? need to delete from s3
-                duration2 = System.currentTimeMillis() - start2;
-                logger.fine("deleteAttributes time=" + (duration2));
+                duration2 = System.nanoTime() - start2;
+                logger.fine("deleteAttributes time=" + TimeUnit.NANOSECONDS.toMillis(duration2));
                 em.statsAttsDeleted(attsToDelete2.size(), duration2);
+                em.getDomainStats(domainName).deleted(attsToDelete2.size(), duration2);
             } else {
                 logger.fine("deleteAttributes time= no nulled fields, nothing to delete.");
             }
         } else {
             if (!newObject && attsToDelete.size() > 0) {
                 // not enhanced, but still have to deal with deleted attributes
-                start2 = System.currentTimeMillis();
+                start2 = System.nanoTime();
                 // for (ItemAttribute itemAttribute : attsToDelete) {
                 // System.out.println("itemAttr=" + itemAttribute.getName() +
                 // ": " + itemAttribute.getValue());
@@ -333,17 +411,29 @@ public class Save implements Callable {
                 this.em.getSimpleDb().deleteAttributes(
                         new DeleteAttributesRequest().withDomainName(domainName).withItemName(id)
                                 .withAttributes(attsToDelete));
+                for (Attribute attribute : attsToDelete) {
+                    deletedNames.add(attribute.getName());
+                }
                 // todo: what about lobs? need to delete from s3
-                duration2 = System.currentTimeMillis() - start2;
-                logger.fine("deleteAttributes time=" + (duration2));
+                duration2 = System.nanoTime() - start2;
+                logger.fine("deleteAttributes time=" + TimeUnit.NANOSECONDS.toMillis(duration2));
                 em.statsAttsDeleted(attsToDelete.size(), duration2);
+                em.getDomainStats(domainName).deleted(attsToDelete.size(), duration2);
             }
         }
         if (interceptor != null) {
             // reset the interceptor since we're all synced with the db now
             interceptor.reset();
+            if (writtenLobHashes != null) {
+                for (Map.Entry<String, String> entry : writtenLobHashes.entrySet()) {
+                    interceptor.putLobHash(entry.getKey(), entry.getValue());
+                }
+            }
         }
-        em.invokeEntityListener(o, newObject ? PostPersist.class : PostUpdate.class);
+        if (snapshots != null) {
+            snapshots.written(o, attsToPut, deletedNames);
+        }
+        em.invokeEntityListener(ai, o, newObject ? PostPersist.class : PostUpdate.class);
         if (logger.isLoggable(Level.FINE))
             logger.fine("persistOnly time=" + (System.currentTimeMillis() - start));
     }
@@ -372,4 +462,50 @@ public class Save implements Callable {
         return toSet;
     }
 
+    /**
+     * @return the SHA-256 of a serialized lob, compared with the one stored next to the lob key to skip unchanged puts.
+     *         Only written with lazyLoading or snapshotCacheSize on, otherwise a loaded object has nothing to compare.
+     */
+    static String lobHash(byte[] contentBytes) {
+        try {
+            return AmazonSimpleDBUtil.encodeByteArray(MessageDigest.getInstance("SHA-256").digest(contentBytes));
+        } catch (NoSuchAlgorithmException e) {
+            throw new PersistenceException(e);
+        }
+    }
+
+    /**
+     * @return UTF-8 size of the names and values, roughly what the put sends
+     */
+    private static long bytesSent(List<ReplaceableAttribute> atts) {
+        long bytes = 0;
+        for (ReplaceableAttribute att : atts) {
+            bytes += DomainStats.utf8Length(att.getName());
+            if (att.getValue() != null) {
+                bytes += DomainStats.utf8Length(att.getValue());
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Puts one serialized lob to the lob bucket and returns how long it took in nanoseconds.
+     */
+    private class PutLob implements Callable<Long> {
+        private String s3ObjectId;
+        private byte[] contentBytes;
+
+        PutLob(String s3ObjectId, byte[] contentBytes) {
+            this.s3ObjectId = s3ObjectId;
+            this.contentBytes = contentBytes;
+        }
+
+        public Long call() throws Exception {
+            long start = System.nanoTime();
+            AmazonS3 s3 = em.getS3Service();
+            InputStream input = new ByteArrayInputStream(contentBytes);
+            s3.putObject(em.getS3BucketName(), s3ObjectId, input, null);
+            return System.nanoTime() - start;
+        }
+    }
 }
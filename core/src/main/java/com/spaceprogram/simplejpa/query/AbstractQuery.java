@@ -5,10 +5,10 @@ import com.amazonaws.services.simpledb.model.Attribute;
 import com.amazonaws.services.simpledb.model.Item;
 import com.amazonaws.services.simpledb.model.NoSuchDomainException;
 import com.amazonaws.services.simpledb.model.SelectResult;
-import com.spaceprogram.simplejpa.DomainHelper;
 import com.spaceprogram.simplejpa.EntityManagerSimpleJPA;
 import com.spaceprogram.simplejpa.LazyList;
 import com.spaceprogram.simplejpa.PersistentProperty;
+import com.spaceprogram.simplejpa.StreamingIterator;
 import com.spaceprogram.simplejpa.util.AmazonSimpleDBUtil;
 import com.spaceprogram.simplejpa.util.EscapeUtils;
 import org.apache.commons.lang.NotImplementedException;
@@ -26,10 +26,12 @@ public abstract class AbstractQuery implements SimpleQuery {
     protected int maxResults = -1;
     protected Class tClass;
     private boolean consistentRead = false;
+    private boolean batchFetch;
 
     public AbstractQuery(EntityManagerSimpleJPA em) {
         this.em = em;
         this.consistentRead = em.isConsistentRead();
+        this.batchFetch = em.getFactory().isBatchFetch();
     }
 
     public int getMaxResults() {
@@ -64,12 +66,10 @@ public abstract class AbstractQuery implements SimpleQuery {
         String param;
         if (Integer.class.isAssignableFrom(retType)) {
             Integer x = (Integer) paramOb;
-            param = AmazonSimpleDBUtil.encodeRealNumberRange(new BigDecimal(x), AmazonSimpleDBUtil.LONG_DIGITS, EntityManagerSimpleJPA.OFFSET_VALUE)
-                    .toString();
+            param = AmazonSimpleDBUtil.encodeLong(x);
         } else if (Long.class.isAssignableFrom(retType)) {
             Long x = (Long) paramOb;
-            param = AmazonSimpleDBUtil.encodeRealNumberRange(new BigDecimal(x), AmazonSimpleDBUtil.LONG_DIGITS, EntityManagerSimpleJPA.OFFSET_VALUE)
-                    .toString();
+            param = AmazonSimpleDBUtil.encodeLong(x);
         } else if (Double.class.isAssignableFrom(retType)) {
             Double x = (Double) paramOb;
             if (!x.isInfinite() && !x.isNaN()) {
@@ -114,8 +114,18 @@ public abstract class AbstractQuery implements SimpleQuery {
         throw new NotImplementedException("TODO");
     }
 
+    /**
+     * Supports HINT_BATCH_FETCH, other hints are ignored.
+     */
     public Query setHint(String s, Object o) {
-        throw new NotImplementedException("TODO");
+        if (HINT_BATCH_FETCH.equals(s)) {
+            batchFetch = o instanceof Boolean ? (Boolean) o : Boolean.parseBoolean(String.valueOf(o));
+        }
+        return this;
+    }
+
+    public boolean isBatchFetch() {
+        return batchFetch;
     }
 
     public Query setMaxResults(int maxResults) {
@@ -191,7 +201,7 @@ public abstract class AbstractQuery implements SimpleQuery {
                 	long expectedOffset = getOffset();
 
                     AmazonQueryString amazonOffsetQuery = createAmazonQuery(false);
-                    while (expectedOffset > 0 && (qr = DomainHelper.selectItems(this.em.getSimpleDb(), amazonOffsetQuery.getValue() + " limit " + expectedOffset, nextToken)) != null) {
+                    while (expectedOffset > 0 && (qr = this.em.selectPage(amazonOffsetQuery.getValue() + " limit " + expectedOffset, nextToken, true)) != null) {
                         Map<String, List<Attribute>> itemMap = new HashMap<String, List<Attribute>>();
                         for (Item item : qr.getItems()) {
                             itemMap.put(item.getName(), item.getAttributes());
@@ -213,7 +223,7 @@ public abstract class AbstractQuery implements SimpleQuery {
                     }
                 }
 
-                while (!reachedEnd && (qr = DomainHelper.selectItems(this.em.getSimpleDb(), amazonQuery.getValue(), nextToken)) != null) {
+                while (!reachedEnd && (qr = this.em.selectPage(amazonQuery.getValue(), nextToken, true)) != null) {
                     Map<String, List<Attribute>> itemMap = new HashMap<String, List<Attribute>>();
                     for (Item item : qr.getItems()) {
                         itemMap.put(item.getName(), item.getAttributes());
@@ -245,6 +255,56 @@ public abstract class AbstractQuery implements SimpleQuery {
         }
     }
 
+    public <E> CloseableIterator<E> iterate() {
+        AmazonQueryString amazonQuery;
+        try {
+            amazonQuery = createAmazonQuery();
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+        try {
+            if (amazonQuery == null || amazonQuery.isCount()) {
+                // nothing worth streaming
+                return new ResultListIterator<E>(amazonQuery == null ? new ArrayList<E>() : (List<E>) getResultList());
+            }
+            em.incrementQueryCount();
+            return new StreamingIterator<E>(em, tClass, this);
+        } catch (NoSuchDomainException e) {
+            return new ResultListIterator<E>(new ArrayList<E>());
+        } catch (PersistenceException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new PersistenceException(e);
+        }
+    }
+
+    private static class ResultListIterator<E> implements CloseableIterator<E> {
+        private Iterator<E> it;
+
+        ResultListIterator(List<E> list) {
+            this.it = list.iterator();
+        }
+
+        public boolean hasNext() {
+            return it != null && it.hasNext();
+        }
+
+        public E next() {
+            if (it == null) throw new NoSuchElementException();
+            return it.next();
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        public void close() {
+            it = null;
+        }
+    }
+
     public Object getSingleResult() {
         List<?> resultList = getResultList();
         if (resultList instanceof LazyList<?>) {
@@ -0,0 +1,15 @@
+package com.spaceprogram.simplejpa.query;
+
+import java.io.Closeable;
+import java.util.Iterator;
+
+/**
+ * Forward only iterator over query results, see SimpleQuery.iterate(). Call close() if you stop before the end.
+ */
+public interface CloseableIterator<E> extends Iterator<E>, Closeable {
+
+    /**
+     * Releases the current page, hasNext() returns false afterwards.
+     */
+    void close();
+}
@@ -45,8 +45,7 @@ public class QueryImpl extends AbstractQuery {
 
     public static List<String> tokenizeWhere(String where) {
         List<String> split = new ArrayList<String>();
-        Pattern pattern = Pattern.compile(conditionRegex, Pattern.CASE_INSENSITIVE);
-        Matcher matcher = pattern.matcher(where);
+        Matcher matcher = CONDITION_PATTERN.matcher(where);
         int lastIndex = 0;
         String s;
         int i = 0;
@@ -69,7 +68,16 @@ public class QueryImpl extends AbstractQuery {
     private JPAQuery q;
 
     public static String conditionRegex = "(<>)|(>=)|(<=)|=|>|<|\\band\\b|\\bor\\b|\\bis\\b|\\blike\\b";
+    private static final Pattern CONDITION_PATTERN = Pattern.compile(conditionRegex, Pattern.CASE_INSENSITIVE);
     private String qString;
+    /**
+     * Shared parse results for qString, null if the query didn't come from the plan cache.
+     */
+    private QueryPlan plan;
+    /**
+     * Set while building the select template for the plan, parameters are recorded instead of converted.
+     */
+    private QueryPlan.SelectTemplate compiling;
 
     // private AmazonQueryString amazonQuery;
     private Map<String, List<String>> foreignIds = new HashMap();
@@ -85,9 +93,15 @@ public class QueryImpl extends AbstractQuery {
         super(em);
         this.qString = qString;
         logger.fine("query=" + qString);
-        this.q = new JPAQuery();
-        JPAQueryParser parser = new JPAQueryParser(q, qString);
-        parser.parse();
+        QueryPlanCache planCache = em.getFactory().getQueryPlanCache();
+        if (planCache != null) {
+            plan = planCache.getPlan(qString);
+            this.q = plan.newQuery();
+        } else {
+            this.q = new JPAQuery();
+            JPAQueryParser parser = new JPAQueryParser(q, qString);
+            parser.parse();
+        }
         init(em);
     }
 
@@ -124,6 +138,9 @@ public class QueryImpl extends AbstractQuery {
             } else {
                 // no id method, so query for other object(s) first, then apply the returned value to the original query.
                 // todo: this needs some work (multiple ref objects? multiple params on same ref object?)
+                if (compiling != null) {
+                    compiling.setDynamic();
+                }
                 List<String> ids = foreignIds.get(field);
 // System.out.println("got foreign ids=" + ids);
                 if (ids == null) {
@@ -248,12 +265,72 @@ public class QueryImpl extends AbstractQuery {
     }
 
     public AmazonQueryString createAmazonQuery(boolean appendLimit) throws NoResultsException, AmazonClientException {
+        String fullQuery;
+        boolean count;
+        if (plan != null) {
+            QueryPlan.SelectTemplate template = plan.getSelectTemplate();
+            if (template == null) {
+                template = compileSelectTemplate();
+                plan.setSelectTemplate(template);
+            }
+            fullQuery = template.isDynamic() ? buildSelect() : template.bind(this);
+            count = template.isCount();
+        } else {
+            fullQuery = buildSelect();
+            count = isCount();
+        }
+        if (fullQuery == null) {
+            return null;
+        }
+        if (logger.isLoggable(Level.FINE))
+            logger.fine("amazonQuery: " + fullQuery);
+        if (em.getFactory().isPrintQueries()) {
+            System.out.println("amazonQuery: " + fullQuery);
+        }
+
+        if (!count && appendLimit && maxResults >= 0) {
+            fullQuery += " limit " + Math.min(MAX_RESULTS_PER_REQUEST, maxResults);
+        }
+        return new AmazonQueryString(fullQuery, count);
+    }
+
+    private boolean isCount() {
         String select = q.getResult();
-        boolean count = false;
-        if (select != null && select.contains("count")) {
-// System.out.println("HAS COUNT: " + select);
-            count = true;
+        return select != null && select.contains("count");
+    }
+
+    /**
+     * Builds the select once with markers where the parameters go, so later queries with the same JPQL only have to
+     * convert their parameters.
+     */
+    private QueryPlan.SelectTemplate compileSelectTemplate() {
+        QueryPlan.SelectTemplate template = new QueryPlan.SelectTemplate(isCount());
+        compiling = template;
+        try {
+            template.finish(buildSelect());
+        } finally {
+            compiling = null;
+        }
+        return template;
+    }
+
+    String bindParam(String param, PersistentProperty property) {
+        return super.getParamValueAsStringForAmazonQuery(param, property);
+    }
+
+    @Override
+    protected String getParamValueAsStringForAmazonQuery(String param, PersistentProperty property) {
+        if (compiling != null && paramName(param) != null) {
+            return compiling.slot(param, property);
         }
+        return super.getParamValueAsStringForAmazonQuery(param, property);
+    }
+
+    /**
+     * @return the select without a limit, or null if it can't match anything
+     */
+    private String buildSelect() throws AmazonClientException {
+        boolean count = isCount();
         AnnotationInfo ai = em.getAnnotationManager().getAnnotationInfo(tClass);
 
         // Make sure querying the root Entity class
@@ -314,16 +391,7 @@ public class QueryImpl extends AbstractQuery {
             fullQuery.append("where ");
             fullQuery.append(amazonQuery);
         }
-        String logString = "amazonQuery: Domain=" + domainName + ", query=" + fullQuery;
-        logger.fine(logString);
-        if (em.getFactory().isPrintQueries()) {
-            System.out.println(logString);
-        }
-
-        if (!count && appendLimit && maxResults >= 0) {
-            fullQuery.append(" limit ").append(Math.min(MAX_RESULTS_PER_REQUEST, maxResults));
-        }
-        return new AmazonQueryString(fullQuery.toString(), count);
+        return fullQuery.toString();
     }
 
     public Map<String, List<String>> getForeignIds() {
@@ -387,6 +455,7 @@ public class QueryImpl extends AbstractQuery {
      */
     public void setQ(JPAQuery q) {
         this.q = q;
+        this.plan = null;
     }
 
     public void setQString(String qString) {
@@ -398,7 +467,7 @@ public class QueryImpl extends AbstractQuery {
         String where = q.getFilter();
         where = where.trim();
         // now split it into pieces
-        List<String> whereTokens = tokenizeWhere(where);
+        List<String> whereTokens = plan != null && where.equals(plan.getFilter()) ? plan.getWhereTokens() : tokenizeWhere(where);
         Boolean aok = false;
         for (int i = 0; i < whereTokens.size();) {
             if (aok && i > 0) {
@@ -0,0 +1,138 @@
+package com.spaceprogram.simplejpa.query;
+
+import com.spaceprogram.simplejpa.PersistentProperty;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Everything about a JPQL query that doesn't depend on its parameters: the parsed query, the tokenized where clause
+ * and, once the first QueryImpl using it has run, the SimpleDB select with slots for the parameters.
+ * <p/>
+ * Plans are shared between threads through the QueryPlanCache so nothing in here changes after it's set.
+ */
+public class QueryPlan {
+    private final String qString;
+    private final JPAQuery query;
+    private final String filter;
+    private final List<String> whereTokens;
+    private volatile SelectTemplate selectTemplate;
+
+    public QueryPlan(String qString) {
+        this.qString = qString;
+        this.query = new JPAQuery();
+        new JPAQueryParser(query, qString).parse();
+        this.filter = query.getFilter() == null ? null : query.getFilter().trim();
+        this.whereTokens = filter == null ? null : Collections.unmodifiableList(QueryImpl.tokenizeWhere(filter));
+    }
+
+    public String getQString() {
+        return qString;
+    }
+
+    /**
+     * @return a copy of the parsed query that the caller can modify
+     */
+    public JPAQuery newQuery() {
+        try {
+            return (JPAQuery) query.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return the trimmed where clause the tokens were made from
+     */
+    public String getFilter() {
+        return filter;
+    }
+
+    public List<String> getWhereTokens() {
+        return whereTokens;
+    }
+
+    SelectTemplate getSelectTemplate() {
+        return selectTemplate;
+    }
+
+    void setSelectTemplate(SelectTemplate selectTemplate) {
+        this.selectTemplate = selectTemplate;
+    }
+
+    /**
+     * The SimpleDB select for a query split around its parameters, so binding is just appending the converted values
+     * between the fixed parts.
+     */
+    static class SelectTemplate {
+        private static final char MARK = '\u0000';
+
+        private final boolean count;
+        private boolean dynamic;
+        private final List<String> params = new ArrayList<String>();
+        private final List<PersistentProperty> properties = new ArrayList<PersistentProperty>();
+        private List<String> parts;
+
+        SelectTemplate(boolean count) {
+            this.count = count;
+        }
+
+        /**
+         * Records a parameter while the select is being built and returns a marker to put in its place.
+         */
+        String slot(String param, PersistentProperty property) {
+            params.add(param);
+            properties.add(property);
+            return MARK + Integer.toString(params.size() - 1) + MARK;
+        }
+
+        /**
+         * The select depends on more than its parameters (eg: a sub query on a referenced object), build it each time.
+         */
+        void setDynamic() {
+            dynamic = true;
+        }
+
+        boolean isDynamic() {
+            return dynamic;
+        }
+
+        boolean isCount() {
+            return count;
+        }
+
+        /**
+         * Splits the select that was built with slot() markers into its fixed parts.
+         */
+        void finish(String select) {
+            if (select == null) {
+                dynamic = true;
+                return;
+            }
+            List<String> parts = new ArrayList<String>(params.size() + 1);
+            int from = 0;
+            for (int i = 0; i < params.size(); i++) {
+                String marker = MARK + Integer.toString(i) + MARK;
+                int at = select.indexOf(marker, from);
+                if (at < 0) {
+                    dynamic = true;
+                    return;
+                }
+                parts.add(select.substring(from, at));
+                from = at + marker.length();
+            }
+            parts.add(select.substring(from));
+            this.parts = parts;
+        }
+
+        String bind(QueryImpl query) {
+            StringBuilder sb = new StringBuilder(parts.get(0));
+            for (int i = 0; i < params.size(); i++) {
+                sb.append(query.bindParam(params.get(i), properties.get(i)));
+                sb.append(parts.get(i + 1));
+            }
+            return sb.toString();
+        }
+    }
+}
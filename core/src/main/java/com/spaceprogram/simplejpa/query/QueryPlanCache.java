@@ -0,0 +1,38 @@
+package com.spaceprogram.simplejpa.query;
+
+import org.apache.commons.collections.map.LRUMap;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Bounded cache of QueryPlan's keyed by the JPQL string, held by the factory so every EntityManager shares it.
+ */
+public class QueryPlanCache {
+    private final Map<String, QueryPlan> plans;
+
+    public QueryPlanCache(int maxSize) {
+        plans = Collections.synchronizedMap(new LRUMap(maxSize));
+    }
+
+    /**
+     * @return the plan for the query, parsing it if it isn't cached yet
+     */
+    public QueryPlan getPlan(String qString) {
+        QueryPlan plan = plans.get(qString);
+        if (plan == null) {
+            // parsing twice on a race is harmless, both plans are equivalent
+            plan = new QueryPlan(qString);
+            plans.put(qString, plan);
+        }
+        return plan;
+    }
+
+    public int size() {
+        return plans.size();
+    }
+
+    public void clear() {
+        plans.clear();
+    }
+}
@@ -9,12 +9,25 @@ public interface SimpleQuery extends Query {
 
     int MAX_RESULTS_PER_REQUEST = 2500;
 
+    /**
+     * Query hint, set to true to load the OneToMany collections of each page of results together, see BatchFetch.
+     */
+    String HINT_BATCH_FETCH = "simplejpa.batchFetch";
+
     /**
      * Same as getSingleResult, but does not throw NonUniqueResultException or NoResultException
      * @return first result or null if no results.
      */
     Object getSingleResultNoThrow();
 
+    /**
+     * Streams the results instead of building a LazyList. Only the current page is kept in memory so this is the
+     * one to use for scanning very large domains. Close the iterator if you don't read it to the end.
+     *
+     * @return a forward only iterator over the results
+     */
+    <E> CloseableIterator<E> iterate();
+
     /**
      * Specify if SimpleDB should use a consistent read, or a eventual consistency read with query
      * @param consistentRead true if consistent read, false if an eventual consistency read
@@ -37,6 +50,11 @@ public interface SimpleQuery extends Query {
      */
     public int getMaxResults();
 
+    /**
+     * @return whether the OneToMany collections of the results are loaded a page at a time
+     */
+    public boolean isBatchFetch();
+
     /**
      * @param appendLimit whether to append a max number of records limit to the query when building it
      * @return a representation of the SimpleDB specific query string
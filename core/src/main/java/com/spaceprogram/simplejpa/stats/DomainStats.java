@@ -0,0 +1,203 @@
+package com.spaceprogram.simplejpa.stats;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counts of what was sent to and read from one SimpleDB domain, which is one root entity class, so the busy ones can
+ * be told apart. Latencies of the SimpleDB calls are kept per Operation as in OpStats.
+ * <p/>
+ * All the counters are plain getters that only ever go up, so they can be bound to other metrics libraries as
+ * function counters without this depending on them. The factory registers one as an MBean per domain when jmx is on.
+ */
+public class DomainStats implements DomainStatsMBean {
+    private final String domainName;
+
+    private final StripedCounter itemsRead;
+    private final StripedCounter itemsWritten;
+    private final StripedCounter itemsDeleted;
+    private final StripedCounter attsPut;
+    private final StripedCounter attsDeleted;
+    private final StripedCounter bytesSent;
+    private final StripedCounter queryPages;
+    private final StripedCounter cacheHits;
+    private final StripedCounter cacheMisses;
+    /**
+     * Indexed by Operation ordinal.
+     */
+    private final LatencyHistogram[] latencies = new LatencyHistogram[Operation.values().length];
+
+    public DomainStats(String domainName) {
+        this.domainName = domainName;
+        // updated by every thread using the domain
+        int stripes = StripedCounter.defaultStripes();
+        itemsRead = new StripedCounter(stripes);
+        itemsWritten = new StripedCounter(stripes);
+        itemsDeleted = new StripedCounter(stripes);
+        attsPut = new StripedCounter(stripes);
+        attsDeleted = new StripedCounter(stripes);
+        bytesSent = new StripedCounter(stripes);
+        queryPages = new StripedCounter(stripes);
+        cacheHits = new StripedCounter(stripes);
+        cacheMisses = new StripedCounter(stripes);
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = new LatencyHistogram(stripes);
+        }
+    }
+
+    /**
+     * Items read by id.
+     */
+    public void read(int numItems, long nanos) {
+        itemsRead.add(numItems);
+        latencies[Operation.GET.ordinal()].record(nanos);
+    }
+
+    /**
+     * One page of a select.
+     */
+    public void queryPage(int numItems, long nanos) {
+        queryPages.increment();
+        itemsRead.add(numItems);
+        latencies[Operation.SELECT.ordinal()].record(nanos);
+    }
+
+    /**
+     * @param bytes UTF-8 size of the attribute names and values sent
+     */
+    public void written(int numAtts, long bytes, long nanos) {
+        itemsWritten.increment();
+        attsPut.add(numAtts);
+        bytesSent.add(bytes);
+        latencies[Operation.PUT.ordinal()].record(nanos);
+    }
+
+    /**
+     * @param numAtts 0 if the whole item was deleted
+     */
+    public void deleted(int numAtts, long nanos) {
+        if (numAtts == 0) {
+            itemsDeleted.increment();
+        } else {
+            attsDeleted.add(numAtts);
+        }
+        latencies[Operation.DELETE.ordinal()].record(nanos);
+    }
+
+    /**
+     * Whole items deleted by one batch call.
+     */
+    public void itemsDeleted(int numItems, long nanos) {
+        itemsDeleted.add(numItems);
+        latencies[Operation.DELETE.ordinal()].record(nanos);
+    }
+
+    public void cacheHits(int count) {
+        cacheHits.add(count);
+    }
+
+    public void cacheMisses(int count) {
+        cacheMisses.add(count);
+    }
+
+    public LatencySnapshot getLatency(Operation operation) {
+        return latencies[operation.ordinal()].snapshot();
+    }
+
+    public String getDomainName() {
+        return domainName;
+    }
+
+    public long getItemsRead() {
+        return itemsRead.get();
+    }
+
+    public long getItemsWritten() {
+        return itemsWritten.get();
+    }
+
+    public long getItemsDeleted() {
+        return itemsDeleted.get();
+    }
+
+    public long getAttsPut() {
+        return attsPut.get();
+    }
+
+    public long getAttsDeleted() {
+        return attsDeleted.get();
+    }
+
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    public long getQueryPages() {
+        return queryPages.get();
+    }
+
+    public long getCacheHits() {
+        return cacheHits.get();
+    }
+
+    public long getCacheMisses() {
+        return cacheMisses.get();
+    }
+
+    public double getGetP99Millis() {
+        return p99Millis(Operation.GET);
+    }
+
+    public double getPutP99Millis() {
+        return p99Millis(Operation.PUT);
+    }
+
+    public double getDeleteP99Millis() {
+        return p99Millis(Operation.DELETE);
+    }
+
+    public double getSelectP99Millis() {
+        return p99Millis(Operation.SELECT);
+    }
+
+    private double p99Millis(Operation operation) {
+        return (double) getLatency(operation).getP99() / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * @return how many bytes s takes in UTF-8, without encoding it
+     */
+    public static int utf8Length(String s) {
+        int length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c)) {
+                // the pair is 4 bytes
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    @Override
+    public String toString() {
+        return "DomainStats{" +
+                "domainName=" + domainName +
+                ", itemsRead=" + itemsRead +
+                ", itemsWritten=" + itemsWritten +
+                ", itemsDeleted=" + itemsDeleted +
+                ", attsPut=" + attsPut +
+                ", attsDeleted=" + attsDeleted +
+                ", bytesSent=" + bytesSent +
+                ", queryPages=" + queryPages +
+                ", cacheHits=" + cacheHits +
+                ", cacheMisses=" + cacheMisses +
+                '}';
+    }
+}
@@ -0,0 +1,35 @@
+package com.spaceprogram.simplejpa.stats;
+
+/**
+ * What DomainStats shows over JMX.
+ */
+public interface DomainStatsMBean {
+
+    String getDomainName();
+
+    long getItemsRead();
+
+    long getItemsWritten();
+
+    long getItemsDeleted();
+
+    long getAttsPut();
+
+    long getAttsDeleted();
+
+    long getBytesSent();
+
+    long getQueryPages();
+
+    long getCacheHits();
+
+    long getCacheMisses();
+
+    double getGetP99Millis();
+
+    double getPutP99Millis();
+
+    double getDeleteP99Millis();
+
+    double getSelectP99Millis();
+}
@@ -0,0 +1,107 @@
+package com.spaceprogram.simplejpa.stats;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records latencies in nanoseconds into log-linear buckets, the same layout HdrHistogram uses: each power of two is
+ * split into 16 equal buckets so any recorded value is reported to within about 6%. Values from 1ns up to a little
+ * over two minutes fit, anything longer is counted in the top bucket.
+ * <p/>
+ * Recording is a few atomic increments with no locks and no allocation, so it's cheap enough to do for every call.
+ * Reading takes a LatencySnapshot, either of everything recorded or of what was recorded since the last interval
+ * snapshot.
+ */
+public class LatencyHistogram {
+    static final int SUB_BUCKET_BITS = 4;
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    /**
+     * 2^37ns is about 137 seconds.
+     */
+    static final int MAX_EXPONENT = 37;
+    static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final StripedCounter count;
+    private final StripedCounter sum;
+    private final AtomicLong max = new AtomicLong();
+    /**
+     * Totals as of the last interval snapshot, only touched when taking one.
+     */
+    private LatencySnapshot lastInterval = LatencySnapshot.EMPTY;
+
+    public LatencyHistogram() {
+        this(1);
+    }
+
+    /**
+     * @param stripes for the count and sum every record adds to, see StripedCounter. The buckets are spread out by the
+     *                values themselves and the max is seldom written.
+     */
+    public LatencyHistogram(int stripes) {
+        count = new StripedCounter(stripes);
+        sum = new StripedCounter(stripes);
+    }
+
+    /**
+     * @param nanos negative values are counted as 0
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        counts.incrementAndGet(bucket(nanos));
+        count.increment();
+        sum.add(nanos);
+        long currentMax = max.get();
+        while (nanos > currentMax && !max.compareAndSet(currentMax, nanos)) {
+            currentMax = max.get();
+        }
+    }
+
+    static int bucket(long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return (int) nanos;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int shift = exponent - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((nanos >>> shift) - SUB_BUCKETS);
+    }
+
+    /**
+     * @return the largest value that falls into the bucket
+     */
+    static long bucketMax(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lowest = (long) (bucket % SUB_BUCKETS + SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    /**
+     * @return everything recorded so far. Calls recorded while this runs may be partly included.
+     */
+    public LatencySnapshot snapshot() {
+        long[] bucketCounts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            bucketCounts[i] = counts.get(i);
+        }
+        return new LatencySnapshot(bucketCounts, count.get(), sum.get(), max.get());
+    }
+
+    /**
+     * @return what was recorded since the previous call, or since this was created. The max is only to within a
+     *         bucket since it isn't kept per interval.
+     */
+    public synchronized LatencySnapshot intervalSnapshot() {
+        LatencySnapshot total = snapshot();
+        LatencySnapshot interval = total.minus(lastInterval);
+        lastInterval = total;
+        return interval;
+    }
+}
@@ -0,0 +1,104 @@
+package com.spaceprogram.simplejpa.stats;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A copy of a LatencyHistogram's counts that percentiles can be read from. All values are in nanoseconds.
+ */
+public class LatencySnapshot {
+    static final LatencySnapshot EMPTY = new LatencySnapshot(new long[LatencyHistogram.BUCKETS], 0, 0, 0);
+
+    private final long[] counts;
+    private final long count;
+    private final long sum;
+    private final long max;
+
+    LatencySnapshot(long[] counts, long count, long sum, long max) {
+        this.counts = counts;
+        this.count = count;
+        this.sum = sum;
+        this.max = max;
+    }
+
+    /**
+     * @return what was recorded between earlier and this
+     */
+    LatencySnapshot minus(LatencySnapshot earlier) {
+        long[] diff = new long[counts.length];
+        int highest = -1;
+        for (int i = 0; i < counts.length; i++) {
+            diff[i] = counts[i] - earlier.counts[i];
+            if (diff[i] > 0) {
+                highest = i;
+            }
+        }
+        // the max isn't kept per interval, the top bucket of the interval is the closest we have
+        long intervalMax = highest < 0 ? 0 : Math.min(max, LatencyHistogram.bucketMax(highest));
+        return new LatencySnapshot(diff, count - earlier.count, sum - earlier.sum, intervalMax);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * @return the mean, 0 if nothing was recorded
+     */
+    public long getMean() {
+        return count == 0 ? 0 : sum / count;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the value at or below which percentile percent of the values fall, 0 if nothing was recorded
+     */
+    public long getPercentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(percentile / 100 * count);
+        if (rank < 1) {
+            rank = 1;
+        }
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return i == counts.length - 1 ? max : Math.min(max, LatencyHistogram.bucketMax(i));
+            }
+        }
+        return max;
+    }
+
+    public long getP50() {
+        return getPercentile(50);
+    }
+
+    public long getP90() {
+        return getPercentile(90);
+    }
+
+    public long getP99() {
+        return getPercentile(99);
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.3fms", (double) nanos / TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    @Override
+    public String toString() {
+        return "LatencySnapshot{" +
+                "count=" + count +
+                ", mean=" + millis(getMean()) +
+                ", p50=" + millis(getP50()) +
+                ", p90=" + millis(getP90()) +
+                ", p99=" + millis(getP99()) +
+                ", max=" + millis(max) +
+                '}';
+    }
+}
@@ -1,103 +1,186 @@
 package com.spaceprogram.simplejpa.stats;
 
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Holds stats about the last operation performed. Useful for testing.
  * <p/>
+ * Durations are passed in as nanoseconds. The totals are kept in milliseconds as before, and unless this was created
+ * without them, a LatencyHistogram per Operation gives the percentiles.
+ * <p/>
+ * Stats shared by many threads, like the factory's global ones, should be created with several stripes so the threads
+ * don't all contend on the same counters.
+ * <p/>
  * User: treeder
  * Date: Apr 9, 2008
  * Time: 8:34:44 PM
  */
 public class OpStats implements Statistics {
-    private AtomicInteger puts = new AtomicInteger();
-    private AtomicInteger putsDuration = new AtomicInteger();
+    private final StripedCounter puts;
+    private final StripedCounter putsDuration;
+
+    private final StripedCounter deletes;
+    private final StripedCounter attsDeleted;
+    private final StripedCounter attsDeletedDuration;
+
+    private final StripedCounter gets;
+    private final StripedCounter getsDuration;
+
+    private final StripedCounter s3Puts;
+    private final StripedCounter s3PutsDuration;
+
+    private final StripedCounter s3Gets;
+    private final StripedCounter s3GetsDuration;
+
+    private final StripedCounter attsPut;
+    private final StripedCounter attsPutDuration;
+
+    private final StripedCounter queries;
+
+    /**
+     * Indexed by Operation ordinal, null if latencies aren't recorded.
+     */
+    private final LatencyHistogram[] latencies;
+
+    public OpStats() {
+        this(true);
+    }
 
-    private AtomicInteger deletes = new AtomicInteger();
-    private AtomicInteger attsDeleted = new AtomicInteger();
-    private AtomicLong attsDeletedDuration = new AtomicLong();
+    /**
+     * @param recordLatency false to keep only the totals, eg: for short lived stats of a single operation
+     */
+    public OpStats(boolean recordLatency) {
+        this(recordLatency, 1);
+    }
 
-    private AtomicInteger gets = new AtomicInteger();
-    private AtomicLong getsDuration = new AtomicLong();
+    /**
+     * @param stripes how many threads can update each counter without contending, see StripedCounter
+     */
+    public OpStats(boolean recordLatency, int stripes) {
+        puts = new StripedCounter(stripes);
+        putsDuration = new StripedCounter(stripes);
+        deletes = new StripedCounter(stripes);
+        attsDeleted = new StripedCounter(stripes);
+        attsDeletedDuration = new StripedCounter(stripes);
+        gets = new StripedCounter(stripes);
+        getsDuration = new StripedCounter(stripes);
+        s3Puts = new StripedCounter(stripes);
+        s3PutsDuration = new StripedCounter(stripes);
+        s3Gets = new StripedCounter(stripes);
+        s3GetsDuration = new StripedCounter(stripes);
+        attsPut = new StripedCounter(stripes);
+        attsPutDuration = new StripedCounter(stripes);
+        queries = new StripedCounter(stripes);
+        if (recordLatency) {
+            latencies = new LatencyHistogram[Operation.values().length];
+            for (int i = 0; i < latencies.length; i++) {
+                latencies[i] = new LatencyHistogram(stripes);
+            }
+        } else {
+            latencies = null;
+        }
+    }
+
+    public void record(Operation operation, long nanos) {
+        if (latencies != null) {
+            latencies[operation.ordinal()].record(nanos);
+        }
+    }
 
-    private AtomicInteger s3Puts = new AtomicInteger();
-    private AtomicLong s3PutsDuration = new AtomicLong();
+    public LatencySnapshot getLatency(Operation operation) {
+        return latencies == null ? LatencySnapshot.EMPTY : latencies[operation.ordinal()].snapshot();
+    }
 
-    private AtomicInteger s3Gets = new AtomicInteger();
-    private AtomicLong s3GetsDuration = new AtomicLong();
+    public LatencySnapshot getIntervalLatency(Operation operation) {
+        return latencies == null ? LatencySnapshot.EMPTY : latencies[operation.ordinal()].intervalSnapshot();
+    }
 
-    private AtomicInteger attsPut = new AtomicInteger();
-    private AtomicLong attsPutDuration = new AtomicLong();
+    private static long millis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
 
-    public AtomicInteger queries = new AtomicInteger();
 
+    public void s3Put(long nanos) {
+        s3Puts.increment();
+        s3PutsDuration.add(millis(nanos));
+        record(Operation.S3_PUT, nanos);
+    }
 
-    public void s3Put(long duration) {
-        s3Puts.incrementAndGet();
-        s3PutsDuration.addAndGet(duration);
+    public void s3Get(long nanos) {
+        s3Gets.increment();
+        s3GetsDuration.add(millis(nanos));
+        record(Operation.S3_GET, nanos);
     }
 
-    public void s3Get(long duration) {
-        s3Gets.incrementAndGet();
-        s3GetsDuration.addAndGet(duration);
+    public void attsPut(int numAtts, long nanos) {
+        puts.increment();
+        putsDuration.add(millis(nanos));
+        attsPut.add(numAtts);
+        attsPutDuration.add(millis(nanos));
+        record(Operation.PUT, nanos);
     }
 
-    public void attsPut(int numAtts, long duration) {
-        puts.incrementAndGet();
-        attsPut.addAndGet(numAtts);
-        attsPutDuration.addAndGet(duration);
+    public void attsDeleted(int attsDeleted, long nanos) {
+        deletes.increment();
+        this.attsDeleted.add(attsDeleted);
+        attsDeletedDuration.add(millis(nanos));
+        record(Operation.DELETE, nanos);
     }
 
-    public void attsDeleted(int attsDeleted, long duration) {
-        deletes.incrementAndGet();
-        this.attsDeleted.addAndGet(attsDeleted);
-        attsDeletedDuration.addAndGet(duration);
+    public void got(int numItems, long nanos) {
+        gets.add(numItems);
+        getsDuration.add(millis(nanos));
+        record(Operation.GET, nanos);
     }
 
-    public void got(int numItems, long duration2) {
-        gets.addAndGet(numItems);
-        getsDuration.addAndGet(duration2);
+    public void queried() {
+        queries.increment();
     }
 
+    /*
+     * The setters only reset the totals, they're meant for tests.
+     */
+
     public int getPuts() {
-        return puts.get();
+        return (int) puts.get();
     }
 
     public void setPuts(AtomicInteger puts) {
-        this.puts = puts;
+        this.puts.set(puts.get());
     }
 
     public int getPutsDuration() {
-        return putsDuration.get();
+        return (int) putsDuration.get();
     }
 
     public void setPutsDuration(AtomicInteger putsDuration) {
-        this.putsDuration = putsDuration;
+        this.putsDuration.set(putsDuration.get());
     }
 
     public int getS3Puts() {
-        return s3Puts.get();
+        return (int) s3Puts.get();
     }
 
     public void setS3Puts(AtomicInteger s3Puts) {
-        this.s3Puts = s3Puts;
+        this.s3Puts.set(s3Puts.get());
     }
 
     public long getS3PutsDuration() {
         return s3PutsDuration.get();
     }
 
-    public void setS3PutsDuration(AtomicLong s3GetsDuration) {
-        this.s3PutsDuration = s3PutsDuration;
+    public void setS3PutsDuration(AtomicLong s3PutsDuration) {
+        this.s3PutsDuration.set(s3PutsDuration.get());
     }
 
     public int getS3Gets() {
-        return s3Gets.get();
+        return (int) s3Gets.get();
     }
 
     public void setS3Gets(AtomicInteger s3Gets) {
-        this.s3Gets = s3Gets;
+        this.s3Gets.set(s3Gets.get());
     }
 
     public long getS3GetsDuration() {
@@ -105,15 +188,15 @@ public class OpStats implements Statistics {
     }
 
     public void setS3GetsDuration(AtomicLong s3GetsDuration) {
-        this.s3GetsDuration = s3GetsDuration;
+        this.s3GetsDuration.set(s3GetsDuration.get());
     }
 
     public int getAttsPut() {
-        return attsPut.get();
+        return (int) attsPut.get();
     }
 
     public void setAttsPut(AtomicInteger attsPut) {
-        this.attsPut = attsPut;
+        this.attsPut.set(attsPut.get());
     }
 
     public long getAttsPutDuration() {
@@ -121,7 +204,7 @@ public class OpStats implements Statistics {
     }
 
     public void setAttsPutDuration(AtomicLong attsPutDuration) {
-        this.attsPutDuration = attsPutDuration;
+        this.attsPutDuration.set(attsPutDuration.get());
     }
 
     public long getAttsDeletedDuration() {
@@ -129,27 +212,27 @@ public class OpStats implements Statistics {
     }
 
     public void setAttsDeletedDuration(AtomicLong attsDeletedDuration) {
-        this.attsDeletedDuration = attsDeletedDuration;
+        this.attsDeletedDuration.set(attsDeletedDuration.get());
     }
 
     public int getAttsDeleted() {
-        return attsDeleted.get();
+        return (int) attsDeleted.get();
     }
 
     public void setAttsDeleted(AtomicInteger attsDeleted) {
-        this.attsDeleted = attsDeleted;
+        this.attsDeleted.set(attsDeleted.get());
     }
 
     public int getDeletes(){
-        return deletes.get();
+        return (int) deletes.get();
     }
 
     public int getGets() {
-        return gets.get();
+        return (int) gets.get();
     }
 
     public void setGets(AtomicInteger gets) {
-        this.gets = gets;
+        this.gets.set(gets.get());
     }
 
     public long getGetsDuration() {
@@ -157,19 +240,19 @@ public class OpStats implements Statistics {
     }
 
     public void setGetsDuration(AtomicLong getsDuration) {
-        this.getsDuration = getsDuration;
+        this.getsDuration.set(getsDuration.get());
     }
 
     public int getQueries() {
-        return queries.get();
+        return (int) queries.get();
     }
 
     public void setQueries(AtomicInteger queries) {
-        this.queries = queries;
+        this.queries.set(queries.get());
     }
 
     public void incrementGets() {
-        this.gets.incrementAndGet();
+        this.gets.increment();
     }
 
     @Override
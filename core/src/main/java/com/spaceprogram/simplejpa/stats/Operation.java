@@ -0,0 +1,29 @@
+package com.spaceprogram.simplejpa.stats;
+
+/**
+ * The kinds of call whose latency is recorded, see Statistics.getLatency.
+ */
+public enum Operation {
+    /**
+     * Items read by id.
+     */
+    GET,
+    /**
+     * putAttributes, one per object saved.
+     */
+    PUT,
+    /**
+     * deleteAttributes.
+     */
+    DELETE,
+    /**
+     * One page of a select.
+     */
+    SELECT,
+    S3_GET,
+    S3_PUT,
+    /**
+     * Building an object from its attributes, without any lazy loading it triggers.
+     */
+    BUILD
+}
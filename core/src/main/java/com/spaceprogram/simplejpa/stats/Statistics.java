@@ -6,4 +6,15 @@ package com.spaceprogram.simplejpa.stats;
  * Time: 6:07:28 PM
  */
 public interface Statistics {
+
+    /**
+     * @return the latencies recorded for the operation so far
+     */
+    LatencySnapshot getLatency(Operation operation);
+
+    /**
+     * @return the latencies recorded for the operation since the last call to this for it, eg: for reporting every
+     *         minute
+     */
+    LatencySnapshot getIntervalLatency(Operation operation);
 }
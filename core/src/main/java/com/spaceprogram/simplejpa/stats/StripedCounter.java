@@ -0,0 +1,87 @@
+package com.spaceprogram.simplejpa.stats;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter that many threads can add to without all of them fighting over one cache line. Each thread adds to one of
+ * several cells picked by its id, and reading sums the cells. The cells are spaced a cache line apart so neighbouring
+ * ones don't share a line.
+ * <p/>
+ * Much like LongAdder, which isn't available before Java 8. Adding is as cheap as an AtomicLong when uncontended, reading
+ * is slower, so it suits counters that are written on every call and read now and then. With one stripe it's just an
+ * AtomicLong.
+ */
+public class StripedCounter {
+    /**
+     * Longs per cache line.
+     */
+    private static final int PAD = 8;
+    private static final int MAX_STRIPES = 64;
+
+    private final AtomicLongArray cells;
+    private final int mask;
+    private final int spacing;
+
+    /**
+     * @param stripes rounded up to a power of two
+     */
+    public StripedCounter(int stripes) {
+        int n = 1;
+        while (n < stripes && n < MAX_STRIPES) {
+            n <<= 1;
+        }
+        mask = n - 1;
+        spacing = n == 1 ? 1 : PAD;
+        cells = new AtomicLongArray(n * spacing);
+    }
+
+    /**
+     * @return stripes for a counter shared by every thread, enough for one per processor
+     */
+    public static int defaultStripes() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    private int cell() {
+        if (mask == 0) {
+            return 0;
+        }
+        // thread ids are handed out in order, the multiply spreads them over the cells
+        long id = Thread.currentThread().getId();
+        return ((int) ((id * 0x9E3779B97F4A7C15L) >>> 40) & mask) * spacing;
+    }
+
+    public void add(long x) {
+        cells.addAndGet(cell(), x);
+    }
+
+    public void increment() {
+        add(1);
+    }
+
+    /**
+     * @return the sum of the cells. Adds made while this runs may or may not be included.
+     */
+    public long get() {
+        long sum = 0;
+        for (int i = 0; i < cells.length(); i += spacing) {
+            sum += cells.get(i);
+        }
+        return sum;
+    }
+
+    /**
+     * Only meant for resetting a counter no one is adding to, concurrent adds can be lost.
+     */
+    public void set(long value) {
+        for (int i = 0; i < cells.length(); i += spacing) {
+            cells.set(i, 0);
+        }
+        cells.set(0, value);
+    }
+
+    @Override
+    public String toString() {
+        return Long.toString(get());
+    }
+}
@@ -0,0 +1,77 @@
+package com.spaceprogram.simplejpa.util;
+
+/**
+ * Limits how many calls are in flight at once, with the limit found by additive increase and multiplicative decrease.
+ * <p/>
+ * Every call that succeeds grows the limit by 1/limit, so about one more slot per limit's worth of successes, and a
+ * throttled call halves it. Halving happens at most once per backoff interval since a burst of calls usually all get
+ * throttled together. This keeps the number of calls near what the service will take instead of piling retries onto
+ * it.
+ */
+public class AdaptiveLimiter {
+    private static final long BACKOFF_INTERVAL_MILLIS = 200;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private double limit;
+    private int inFlight;
+    private long lastBackoff;
+    private long throttled;
+
+    /**
+     * @param minLimit     the limit never drops below this, at least 1
+     * @param maxLimit     or grows above this
+     * @param initialLimit where it starts
+     */
+    public AdaptiveLimiter(int minLimit, int maxLimit, int initialLimit) {
+        if (minLimit < 1 || maxLimit < minLimit) {
+            throw new IllegalArgumentException("Need 1 <= minLimit <= maxLimit, got " + minLimit + " and " + maxLimit);
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+    }
+
+    /**
+     * Waits for a slot, each call must be followed by one to release.
+     */
+    public synchronized void acquire() throws InterruptedException {
+        while (inFlight >= (int) limit) {
+            wait();
+        }
+        inFlight++;
+    }
+
+    /**
+     * @param wasThrottled true if the service turned the call away because of load
+     */
+    public synchronized void release(boolean wasThrottled) {
+        inFlight--;
+        if (wasThrottled) {
+            throttled++;
+            long now = System.currentTimeMillis();
+            if (now - lastBackoff >= BACKOFF_INTERVAL_MILLIS) {
+                lastBackoff = now;
+                limit = Math.max(minLimit, limit / 2);
+            }
+        } else if (limit < maxLimit) {
+            limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+        notifyAll();
+    }
+
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * @return how many calls were throttled since this was created
+     */
+    public synchronized long getThrottled() {
+        return throttled;
+    }
+}
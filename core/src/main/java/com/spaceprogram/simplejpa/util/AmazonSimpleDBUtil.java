@@ -31,7 +31,9 @@ import java.io.Serializable;
 import java.math.BigDecimal;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.Calendar;
 import java.util.Date;
+import java.util.GregorianCalendar;
 import java.util.TimeZone;
 
 /**
@@ -45,6 +47,44 @@ public class AmazonSimpleDBUtil {
     private static String dateFormat = "yyyy-MM-dd'T'HH:mm:ss.SSSZ";
     public static final int LONG_DIGITS = 20;
 
+    /** offset used by encodeLong, encodeDouble and friends, same as EntityManagerSimpleJPA.OFFSET_VALUE */
+    private static final BigDecimal LONG_OFFSET = new BigDecimal(Long.MIN_VALUE).negate();
+    /** largest value encodeLong can produce, 2^64 - 1 */
+    private static final String MAX_ENCODED_LONG = "18446744073709551615";
+    private static final int ENCODED_DATE_LENGTH = 29;
+    /** dates from before this are left to SimpleDateFormat, which knows about the julian calendar cutover */
+    private static final int GREGORIAN_YEARS = 1600;
+
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    /** formatters and calendars aren't thread safe so each thread keeps its own */
+    private static final ThreadLocal<SimpleDateFormat> dateFormatters = new ThreadLocal<SimpleDateFormat>() {
+        @Override
+        protected SimpleDateFormat initialValue() {
+            SimpleDateFormat dateFormatter = new SimpleDateFormat(dateFormat);
+            dateFormatter.setTimeZone(UTC);
+            return dateFormatter;
+        }
+    };
+    private static final ThreadLocal<Calendar> utcCalendars = new ThreadLocal<Calendar>() {
+        @Override
+        protected Calendar initialValue() {
+            return new GregorianCalendar(UTC);
+        }
+    };
+
+    private static String padZeroes(String number, int numZeroes) {
+        if (numZeroes <= 0) {
+            return number;
+        }
+        char[] chars = new char[numZeroes + number.length()];
+        for (int i = 0; i < numZeroes; i++) {
+            chars[i] = '0';
+        }
+        number.getChars(0, number.length(), chars, numZeroes);
+        return new String(chars);
+    }
+
     /**
      * Encodes positive integer value into a string by zero-padding number up to the specified number of digits.
      *
@@ -55,12 +95,7 @@ public class AmazonSimpleDBUtil {
     public static String encodeZeroPadding(int number, int maxNumDigits) {
         String integerString = Integer.toString(number);
         int numZeroes = maxNumDigits - integerString.length();
-        StringBuffer strBuffer = new StringBuffer(numZeroes + integerString.length());
-        for (int i = 0; i < numZeroes; i++) {
-            strBuffer.insert(i, '0');
-        }
-        strBuffer.append(integerString);
-        return strBuffer.toString();
+        return padZeroes(integerString, numZeroes);
     }
 
     /**
@@ -75,12 +110,7 @@ public class AmazonSimpleDBUtil {
         int numBeforeDecimal = floatString.indexOf('.');
         numBeforeDecimal = (numBeforeDecimal >= 0 ? numBeforeDecimal : floatString.length());
         int numZeroes = maxNumDigits - numBeforeDecimal;
-        StringBuffer strBuffer = new StringBuffer(numZeroes + floatString.length());
-        for (int i = 0; i < numZeroes; i++) {
-            strBuffer.insert(i, '0');
-        }
-        strBuffer.append(floatString);
-        return strBuffer.toString();
+        return padZeroes(floatString, numZeroes);
     }
 
     /**
@@ -117,24 +147,14 @@ public class AmazonSimpleDBUtil {
         long offsetNumber = number + offsetValue;
         String longString = Long.toString(offsetNumber);
         int numZeroes = maxNumDigits - longString.length();
-        StringBuffer strBuffer = new StringBuffer(numZeroes + longString.length());
-        for (int i = 0; i < numZeroes; i++) {
-            strBuffer.insert(i, '0');
-        }
-        strBuffer.append(longString);
-        return strBuffer.toString();
+        return padZeroes(longString, numZeroes);
     }
 
     public static String encodeRealNumberRange(BigDecimal number, int maxNumDigits, BigDecimal offsetValue) {
         BigDecimal offsetNumber = number.add(offsetValue);
         String longString = offsetNumber.toString();
         int numZeroes = maxNumDigits - longString.length();
-        StringBuffer strBuffer = new StringBuffer(numZeroes + longString.length());
-        for (int i = 0; i < numZeroes; i++) {
-            strBuffer.insert(i, '0');
-        }
-        strBuffer.append(longString);
-        return strBuffer.toString();
+        return padZeroes(longString, numZeroes);
     }
 
     /**
@@ -156,12 +176,7 @@ public class AmazonSimpleDBUtil {
         String longString = Long.toString(offsetNumber);
         int numBeforeDecimal = longString.length();
         int numZeroes = maxDigitsLeft + maxDigitsRight - numBeforeDecimal;
-        StringBuffer strBuffer = new StringBuffer(numZeroes + longString.length());
-        for (int i = 0; i < numZeroes; i++) {
-            strBuffer.insert(i, '0');
-        }
-        strBuffer.append(longString);
-        return strBuffer.toString();
+        return padZeroes(longString, numZeroes);
     }
 
     public static String encodeRealNumberRange(BigDecimal number, int maxDigitsLeft, int maxDigitsRight, BigDecimal offsetValue) {
@@ -179,12 +194,7 @@ public class AmazonSimpleDBUtil {
 //        System.out.println("shifted string=" + longString);
         int numBeforeDecimal = longString.length();
         int numZeroes = maxDigitsLeft + maxDigitsRight - numBeforeDecimal;
-        StringBuffer strBuffer = new StringBuffer(numZeroes + longString.length());
-        for (int i = 0; i < numZeroes; i++) {
-            strBuffer.insert(i, '0');
-        }
-        strBuffer.append(longString);
-        return strBuffer.toString();
+        return padZeroes(longString, numZeroes);
     }
 
     /**
@@ -230,7 +240,262 @@ public class AmazonSimpleDBUtil {
 //        System.out.println("tempVal=" + tempVal);
         return (tempVal.divide(shiftMultiplier));
     }
-    
+
+    /**
+     * Encodes an int or long the way simplejpa stores them. Gives the same string as
+     * encodeRealNumberRange(new BigDecimal(number), LONG_DIGITS, 2^63) without going through BigDecimal.
+     *
+     * @param number value to be encoded
+     * @return LONG_DIGITS long string
+     */
+    public static String encodeLong(long number) {
+        char[] chars = new char[LONG_DIGITS];
+        // adding 2^63 just flips the sign bit when read as unsigned
+        writeUnsigned(number ^ Long.MIN_VALUE, chars, 0, LONG_DIGITS);
+        return new String(chars);
+    }
+
+    /**
+     * Decodes a value created by encodeLong, or by encodeRealNumberRange with the same offset.
+     *
+     * @throws NumberFormatException if the value isn't a long
+     */
+    public static long decodeLong(String value) {
+        if (isUnsignedLong(value, 0, value.length())) {
+            return parseUnsigned(value, 0, value.length()) ^ Long.MIN_VALUE;
+        }
+        return Long.parseLong(decodeRealNumberRange(value, LONG_OFFSET).toString());
+    }
+
+    /**
+     * @throws NumberFormatException if the value isn't an int
+     * @see #decodeLong(String)
+     */
+    public static int decodeInt(String value) {
+        if (isUnsignedLong(value, 0, value.length())) {
+            long number = parseUnsigned(value, 0, value.length()) ^ Long.MIN_VALUE;
+            if (number >= Integer.MIN_VALUE && number <= Integer.MAX_VALUE) {
+                return (int) number;
+            }
+        }
+        return Integer.parseInt(decodeRealNumberRange(value, LONG_OFFSET).toString());
+    }
+
+    /**
+     * Encodes a double the way simplejpa stores them. Gives the same string as
+     * encodeRealNumberRange(new BigDecimal(Double.toString(number)), LONG_DIGITS, LONG_DIGITS, 2^63) but only uses
+     * BigDecimal for values of 10^18 and up.
+     */
+    public static String encodeDouble(double number) {
+        return encodeDecimal(Double.toString(number));
+    }
+
+    /**
+     * Same as encodeDouble but starting from Float.toString so the stored value is the one the float prints as.
+     */
+    public static String encodeFloat(float number) {
+        return encodeDecimal(Float.toString(number));
+    }
+
+    /**
+     * Decodes a value created by encodeDouble, or by encodeRealNumberRange with the same digits and offset.
+     */
+    public static double decodeDouble(String value) {
+        String decimal = decodeDecimal(value);
+        if (decimal == null) {
+            decimal = decodeRealNumberRange(value, LONG_DIGITS, LONG_OFFSET).toString();
+        }
+        return Double.parseDouble(decimal);
+    }
+
+    /**
+     * @see #decodeDouble(String)
+     */
+    public static float decodeFloat(String value) {
+        String decimal = decodeDecimal(value);
+        if (decimal == null) {
+            decimal = decodeRealNumberRange(value, LONG_DIGITS, LONG_OFFSET).toString();
+        }
+        return Float.parseFloat(decimal);
+    }
+
+    /**
+     * The value is split into the integer part plus 2^63, and the fraction rounded half up to LONG_DIGITS digits,
+     * each written as LONG_DIGITS digits. A negative number with a fraction borrows one from the integer part.
+     *
+     * @param decimal output of Double.toString or Float.toString
+     */
+    private static String encodeDecimal(String decimal) {
+        int length = decimal.length();
+        boolean negative = decimal.charAt(0) == '-';
+        int expIndex = decimal.indexOf('E');
+        int exp = 0;
+        if (expIndex >= 0) {
+            boolean negativeExp = decimal.charAt(expIndex + 1) == '-';
+            for (int i = expIndex + (negativeExp ? 2 : 1); i < length; i++) {
+                exp = exp * 10 + (decimal.charAt(i) - '0');
+            }
+            if (negativeExp) {
+                exp = -exp;
+            }
+        }
+        int mantissaEnd = expIndex >= 0 ? expIndex : length;
+        char[] digits = new char[mantissaEnd];
+        int numDigits = 0;
+        int point = -1;
+        for (int i = negative ? 1 : 0; i < mantissaEnd; i++) {
+            char c = decimal.charAt(i);
+            if (c == '.') {
+                point = numDigits;
+            } else {
+                digits[numDigits++] = c;
+            }
+        }
+        int intDigits = (point >= 0 ? point : numDigits) + exp;
+        if (intDigits > 18) {
+            return encodeRealNumberRange(new BigDecimal(decimal), LONG_DIGITS, LONG_DIGITS, LONG_OFFSET);
+        }
+
+        long intPart = 0;
+        for (int i = 0; i < intDigits; i++) {
+            intPart = intPart * 10 + (i < numDigits ? digits[i] - '0' : 0);
+        }
+        char[] chars = new char[LONG_DIGITS * 2];
+        boolean fractionZero = true;
+        for (int i = 0; i < LONG_DIGITS; i++) {
+            int src = intDigits + i;
+            char c = src >= 0 && src < numDigits ? digits[src] : '0';
+            chars[LONG_DIGITS + i] = c;
+            fractionZero &= c == '0';
+        }
+        int roundSrc = intDigits + LONG_DIGITS;
+        if (roundSrc >= 0 && roundSrc < numDigits && digits[roundSrc] >= '5') {
+            int i = chars.length - 1;
+            while (i >= LONG_DIGITS && chars[i] == '9') {
+                chars[i--] = '0';
+            }
+            if (i >= LONG_DIGITS) {
+                chars[i]++;
+                fractionZero = false;
+            } else {
+                intPart++;
+                fractionZero = true;
+            }
+        }
+
+        long high;
+        if (!negative) {
+            high = intPart;
+        } else if (fractionZero) {
+            high = -intPart;
+        } else {
+            high = -intPart - 1;
+            complement(chars, LONG_DIGITS, chars.length);
+        }
+        writeUnsigned(high ^ Long.MIN_VALUE, chars, 0, LONG_DIGITS);
+        return new String(chars);
+    }
+
+    /**
+     * @return the plain decimal string of an encoded value, null if it isn't in the form encodeDecimal writes
+     */
+    private static String decodeDecimal(String value) {
+        if (value.length() != LONG_DIGITS * 2 || !isUnsignedLong(value, 0, LONG_DIGITS) || !isDigits(value, LONG_DIGITS, LONG_DIGITS * 2)) {
+            return null;
+        }
+        long high = parseUnsigned(value, 0, LONG_DIGITS) ^ Long.MIN_VALUE;
+        boolean fractionZero = true;
+        for (int i = LONG_DIGITS; i < value.length() && fractionZero; i++) {
+            fractionZero = value.charAt(i) == '0';
+        }
+        StringBuilder sb = new StringBuilder(LONG_DIGITS * 2 + 2);
+        if (high >= 0 || fractionZero) {
+            sb.append(high).append('.').append(value, LONG_DIGITS, value.length());
+        } else {
+            // high is the floor, so -(~high) - fraction
+            char[] fraction = new char[LONG_DIGITS];
+            value.getChars(LONG_DIGITS, value.length(), fraction, 0);
+            complement(fraction, 0, LONG_DIGITS);
+            sb.append('-').append(~high).append('.').append(fraction);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Replaces the non zero decimal digits in chars[from, to) with 10^(to - from) minus them.
+     */
+    private static void complement(char[] chars, int from, int to) {
+        int i = to - 1;
+        while (chars[i] == '0') {
+            i--;
+        }
+        chars[i] = (char) ('0' + 10 - (chars[i] - '0'));
+        while (--i >= from) {
+            chars[i] = (char) ('0' + 9 - (chars[i] - '0'));
+        }
+    }
+
+    /**
+     * Writes unsigned as an unsigned decimal right aligned and zero padded into chars[offset, offset + length).
+     */
+    private static void writeUnsigned(long unsigned, char[] chars, int offset, int length) {
+        int pos = offset + length;
+        if (unsigned < 0) {
+            // top bit set, one unsigned division by 10 brings it into positive range
+            long quotient = (unsigned >>> 1) / 5;
+            chars[--pos] = (char) ('0' + (unsigned - quotient * 10));
+            unsigned = quotient;
+        }
+        while (unsigned != 0) {
+            chars[--pos] = (char) ('0' + (unsigned % 10));
+            unsigned /= 10;
+        }
+        while (pos > offset) {
+            chars[--pos] = '0';
+        }
+    }
+
+    private static boolean isDigits(String value, int from, int to) {
+        for (int i = from; i < to; i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if value[from, to) is all digits and fits in 64 bits unsigned
+     */
+    private static boolean isUnsignedLong(String value, int from, int to) {
+        int length = to - from;
+        if (length == 0 || length > LONG_DIGITS || !isDigits(value, from, to)) {
+            return false;
+        }
+        if (length == LONG_DIGITS) {
+            for (int i = 0; i < LONG_DIGITS; i++) {
+                char c = value.charAt(from + i);
+                char max = MAX_ENCODED_LONG.charAt(i);
+                if (c != max) {
+                    return c < max;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Only for values checked by isUnsignedLong, overflow past Long.MAX_VALUE wraps into the sign bit as intended.
+     */
+    private static long parseUnsigned(String value, int from, int to) {
+        long unsigned = 0;
+        for (int i = from; i < to; i++) {
+            unsigned = unsigned * 10 + (value.charAt(i) - '0');
+        }
+        return unsigned;
+    }
+
 
     /**
      * Encodes date value into string format that can be compared lexicographically
@@ -239,11 +504,30 @@ public class AmazonSimpleDBUtil {
      * @return string representation of the date value
      */
     public static String encodeDate(Date date) {
-        SimpleDateFormat dateFormatter = new SimpleDateFormat(dateFormat);
-        dateFormatter.setTimeZone(TimeZone.getTimeZone("UTC"));
-        /* Java doesn't handle ISO8601 nicely: need to add ':' manually */
-        String result = dateFormatter.format(date);
-        return result.substring(0, result.length() - 2) + ":" + result.substring(result.length() - 2);
+        Calendar cal = utcCalendars.get();
+        cal.setTime(date);
+        int year = cal.get(Calendar.YEAR);
+        if (cal.get(Calendar.ERA) != GregorianCalendar.AD || year > 9999) {
+            /* Java doesn't handle ISO8601 nicely: need to add ':' manually */
+            String result = dateFormatters.get().format(date);
+            return result.substring(0, result.length() - 2) + ":" + result.substring(result.length() - 2);
+        }
+        char[] chars = new char[ENCODED_DATE_LENGTH];
+        writeUnsigned(year, chars, 0, 4);
+        chars[4] = '-';
+        writeUnsigned(cal.get(Calendar.MONTH) + 1, chars, 5, 2);
+        chars[7] = '-';
+        writeUnsigned(cal.get(Calendar.DAY_OF_MONTH), chars, 8, 2);
+        chars[10] = 'T';
+        writeUnsigned(cal.get(Calendar.HOUR_OF_DAY), chars, 11, 2);
+        chars[13] = ':';
+        writeUnsigned(cal.get(Calendar.MINUTE), chars, 14, 2);
+        chars[16] = ':';
+        writeUnsigned(cal.get(Calendar.SECOND), chars, 17, 2);
+        chars[19] = '.';
+        writeUnsigned(cal.get(Calendar.MILLISECOND), chars, 20, 3);
+        "+00:00".getChars(0, 6, chars, 23);
+        return new String(chars);
     }
 
     /**
@@ -253,10 +537,21 @@ public class AmazonSimpleDBUtil {
      * @return			original date value
      */
     public static Date decodeDate(String value) throws ParseException {
+        if (value.length() == ENCODED_DATE_LENGTH && value.endsWith("+00:00") && value.charAt(4) == '-' && value.charAt(7) == '-'
+                && value.charAt(10) == 'T' && value.charAt(13) == ':' && value.charAt(16) == ':' && value.charAt(19) == '.'
+                && isDigits(value, 0, 4) && isDigits(value, 5, 7) && isDigits(value, 8, 10) && isDigits(value, 11, 13)
+                && isDigits(value, 14, 16) && isDigits(value, 17, 19) && isDigits(value, 20, 23)
+                && parseUnsigned(value, 0, 4) >= GREGORIAN_YEARS) {
+            Calendar cal = utcCalendars.get();
+            cal.clear();
+            cal.set((int) parseUnsigned(value, 0, 4), (int) parseUnsigned(value, 5, 7) - 1, (int) parseUnsigned(value, 8, 10),
+                    (int) parseUnsigned(value, 11, 13), (int) parseUnsigned(value, 14, 16), (int) parseUnsigned(value, 17, 19));
+            cal.set(Calendar.MILLISECOND, (int) parseUnsigned(value, 20, 23));
+            return cal.getTime();
+        }
+        // other offsets or formats written by something else
         String javaValue = value.substring(0, value.length() - 3) + value.substring(value.length() - 2);
-        SimpleDateFormat dateFormatter = new SimpleDateFormat(dateFormat);
-        dateFormatter.setTimeZone(TimeZone.getTimeZone("UTC"));
-        return dateFormatter.parse(javaValue);
+        return dateFormatters.get().parse(javaValue);
     }
 
 
@@ -0,0 +1,84 @@
+package com.spaceprogram.simplejpa.util;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * How the factory creates the executors for async operations, parallel fetches and lob puts, set with the executor
+ * property.
+ * <p/>
+ * The threads mostly wait on SimpleDB and S3, so an idle fixed pool of 100 platform threads is a lot of stack for
+ * nothing. ELASTIC keeps the same bound but only starts threads when there's work and lets idle ones go, VIRTUAL uses a
+ * virtual thread per task where the JVM has them (Java 21 and up) so thousands of calls can be in flight at once.
+ */
+public enum ExecutorStrategy {
+    /**
+     * Always keeps threads started, the default.
+     */
+    FIXED {
+        @Override
+        public ExecutorService create(int threads) {
+            return Executors.newFixedThreadPool(threads);
+        }
+    },
+    /**
+     * Up to threads, started on demand and stopped after a minute idle.
+     */
+    ELASTIC {
+        @Override
+        public ExecutorService create(int threads) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, IDLE_SECONDS, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>());
+            executor.allowCoreThreadTimeOut(true);
+            return executor;
+        }
+    },
+    /**
+     * A new virtual thread for each task, unbounded so threads is ignored. Falls back to ELASTIC on JVMs without
+     * virtual threads.
+     */
+    VIRTUAL {
+        @Override
+        public ExecutorService create(int threads) {
+            try {
+                // looked up at runtime since this is built for older JVMs
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (NoSuchMethodException e) {
+                logger.warning("Virtual threads aren't available on this JVM, using the elastic executor instead.");
+            } catch (IllegalAccessException e) {
+                logger.warning("Could not create virtual thread executor, using the elastic executor instead: " + e);
+            } catch (InvocationTargetException e) {
+                logger.warning("Could not create virtual thread executor, using the elastic executor instead: " + e.getCause());
+            }
+            return ELASTIC.create(threads);
+        }
+    };
+
+    private static Logger logger = Logger.getLogger(ExecutorStrategy.class.getName());
+
+    private static final long IDLE_SECONDS = 60;
+
+    /**
+     * @param threads most threads to run at once
+     */
+    public abstract ExecutorService create(int threads);
+
+    /**
+     * @param name case insensitive, null for FIXED
+     */
+    public static ExecutorStrategy forName(String name) {
+        if (name == null || name.length() == 0) {
+            return FIXED;
+        }
+        try {
+            return valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown executor " + name + ", should be fixed, elastic or virtual.");
+        }
+    }
+}
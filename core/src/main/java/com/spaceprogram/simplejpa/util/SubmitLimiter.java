@@ -0,0 +1,65 @@
+package com.spaceprogram.simplejpa.util;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Bounds how many async operations can be pending at once so callers can't queue work faster than SimpleDB takes it
+ * until the heap fills. Once the bound is reached, submitting either waits for a pending operation to finish or fails
+ * straight away with a RejectedExecutionException.
+ * <p/>
+ * A permit is given back when the operation completes, fails or is cancelled, including while it's still queued. Tasks
+ * left over from shutdownNow() hold theirs until they're cancelled.
+ */
+public class SubmitLimiter {
+    private final int maxPending;
+    private final boolean block;
+    private final Semaphore permits;
+
+    /**
+     * @param maxPending most operations queued or running at once
+     * @param block      true to wait when full, false to throw
+     */
+    public SubmitLimiter(int maxPending, boolean block) {
+        this.maxPending = maxPending;
+        this.block = block;
+        this.permits = new Semaphore(maxPending);
+    }
+
+    public <T> Future<T> submit(ExecutorService executor, Callable<T> task) {
+        if (block) {
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException("Interrupted waiting to submit.", e);
+            }
+        } else if (!permits.tryAcquire()) {
+            throw new RejectedExecutionException("Already " + maxPending + " async operations pending.");
+        }
+        FutureTask<T> future = new FutureTask<T>(task) {
+            @Override
+            protected void done() {
+                permits.release();
+            }
+        };
+        try {
+            executor.execute(future);
+            return future;
+        } catch (RejectedExecutionException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * @return operations queued or running
+     */
+    public int getPending() {
+        return maxPending - permits.availablePermits();
+    }
+}
@@ -0,0 +1,261 @@
+package com.spaceprogram.simplejpa.util;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.simpledb.AmazonSimpleDB;
+import com.amazonaws.services.simpledb.model.BatchDeleteAttributesRequest;
+import com.amazonaws.services.simpledb.model.BatchPutAttributesRequest;
+import com.amazonaws.services.simpledb.model.CreateDomainRequest;
+import com.amazonaws.services.simpledb.model.DeleteAttributesRequest;
+import com.amazonaws.services.simpledb.model.DeleteDomainRequest;
+import com.amazonaws.services.simpledb.model.DomainMetadataRequest;
+import com.amazonaws.services.simpledb.model.DomainMetadataResult;
+import com.amazonaws.services.simpledb.model.GetAttributesRequest;
+import com.amazonaws.services.simpledb.model.GetAttributesResult;
+import com.amazonaws.services.simpledb.model.ListDomainsRequest;
+import com.amazonaws.services.simpledb.model.ListDomainsResult;
+import com.amazonaws.services.simpledb.model.PutAttributesRequest;
+import com.amazonaws.services.simpledb.model.SelectRequest;
+import com.amazonaws.services.simpledb.model.SelectResult;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Wraps the SimpleDB client so every call first waits for its domain's TokenBucket and a slot from the
+ * AdaptiveLimiter. Calls turned away with ServiceUnavailable shrink the limiter, the rest grow it.
+ * <p/>
+ * Either part can be left out by passing null for the limiter or 0 for the rate.
+ */
+public class ThrottledSimpleDB implements AmazonSimpleDB {
+    private static final String SERVICE_UNAVAILABLE = "ServiceUnavailable";
+
+    private final AmazonSimpleDB db;
+    private final AdaptiveLimiter limiter;
+    private final double domainPermitsPerSecond;
+    private final double domainBurst;
+    private final ConcurrentMap<String, TokenBucket> domainBuckets = new ConcurrentHashMap<String, TokenBucket>();
+
+    /**
+     * @param db                     the real client
+     * @param limiter                null for no concurrency limit
+     * @param domainPermitsPerSecond calls per second allowed to each domain, 0 for no limit
+     * @param domainBurst            calls a domain can take at once after being idle
+     */
+    public ThrottledSimpleDB(AmazonSimpleDB db, AdaptiveLimiter limiter, double domainPermitsPerSecond, double domainBurst) {
+        this.db = db;
+        this.limiter = limiter;
+        this.domainPermitsPerSecond = domainPermitsPerSecond;
+        this.domainBurst = domainBurst;
+    }
+
+    public AdaptiveLimiter getLimiter() {
+        return limiter;
+    }
+
+    public AmazonSimpleDB getSimpleDb() {
+        return db;
+    }
+
+    /**
+     * @param domainName null if the call isn't for one domain
+     */
+    private void before(String domainName) {
+        try {
+            if (domainName != null && domainPermitsPerSecond > 0) {
+                TokenBucket bucket = domainBuckets.get(domainName);
+                if (bucket == null) {
+                    TokenBucket newBucket = new TokenBucket(domainPermitsPerSecond, domainBurst);
+                    bucket = domainBuckets.putIfAbsent(domainName, newBucket);
+                    if (bucket == null) {
+                        bucket = newBucket;
+                    }
+                }
+                bucket.acquire();
+            }
+            if (limiter != null) {
+                limiter.acquire();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AmazonClientException("Interrupted waiting to call SimpleDB.", e);
+        }
+    }
+
+    private void after(boolean throttled) {
+        if (limiter != null) {
+            limiter.release(throttled);
+        }
+    }
+
+    static boolean isThrottled(AmazonClientException e) {
+        if (e instanceof AmazonServiceException) {
+            AmazonServiceException se = (AmazonServiceException) e;
+            return SERVICE_UNAVAILABLE.equals(se.getErrorCode()) || se.getStatusCode() == 503;
+        }
+        return false;
+    }
+
+    /**
+     * @return the domain of a select expression built like "select * from `domain` ...", null if it isn't
+     */
+    public static String selectDomain(String selectExpression) {
+        if (selectExpression == null) {
+            return null;
+        }
+        int from = selectExpression.toLowerCase().indexOf(" from `");
+        if (from < 0) {
+            return null;
+        }
+        int start = from + 7;
+        int end = selectExpression.indexOf('`', start);
+        return end < 0 ? null : selectExpression.substring(start, end);
+    }
+
+    public void setEndpoint(String endpoint) throws IllegalArgumentException {
+        db.setEndpoint(endpoint);
+    }
+
+    public SelectResult select(SelectRequest request) throws AmazonServiceException, AmazonClientException {
+        before(selectDomain(request.getSelectExpression()));
+        boolean throttled = false;
+        try {
+            return db.select(request);
+        } catch (AmazonClientException e) {
+            throttled = isThrottled(e);
+            throw e;
+        } finally {
+            after(throttled);
+        }
+    }
+
+    public void putAttributes(PutAttributesRequest request) throws AmazonServiceException, AmazonClientException {
+        before(request.getDomainName());
+        boolean throttled = false;
+        try {
+            db.putAttributes(request);
+        } catch (AmazonClientException e) {
+            throttled = isThrottled(e);
+            throw e;
+        } finally {
+            after(throttled);
+        }
+    }
+
+    public void batchDeleteAttributes(BatchDeleteAttributesRequest request) throws AmazonServiceException, AmazonClientException {
+        before(request.getDomainName());
+        boolean throttled = false;
+        try {
+            db.batchDeleteAttributes(request);
+        } catch (AmazonClientException e) {
+            throttled = isThrottled(e);
+            throw e;
+        } finally {
+            after(throttled);
+        }
+    }
+
+    public void deleteDomain(DeleteDomainRequest request) throws AmazonServiceException, AmazonClientException {
+        before(request.getDomainName());
+        boolean throttled = false;
+        try {
+            db.deleteDomain(request);
+        } catch (AmazonClientException e) {
+            throttled = isThrottled(e);
+            throw e;
+        } finally {
+            after(throttled);
+        }
+    }
+
+    public void createDomain(CreateDomainRequest request) throws AmazonServiceException, AmazonClientException {
+        before(request.getDomainName());
+        boolean throttled = false;
+        try {
+            db.createDomain(request);
+        } catch (AmazonClientException e) {
+            throttled = isThrottled(e);
+            throw e;
+        } finally {
+            after(throttled);
+        }
+    }
+
+    public void deleteAttributes(DeleteAttributesRequest request) throws AmazonServiceException, AmazonClientException {
+        before(request.getDomainName());
+        boolean throttled = false;
+        try {
+            db.deleteAttributes(request);
+        } catch (AmazonClientException e) {
+            throttled = isThrottled(e);
+            throw e;
+        } finally {
+            after(throttled);
+        }
+    }
+
+    public ListDomainsResult listDomains(ListDomainsRequest request) throws AmazonServiceException, AmazonClientException {
+        before(null);
+        boolean throttled = false;
+        try {
+            return db.listDomains(request);
+        } catch (AmazonClientException e) {
+            throttled = isThrottled(e);
+            throw e;
+        } finally {
+            after(throttled);
+        }
+    }
+
+    public GetAttributesResult getAttributes(GetAttributesRequest request) throws AmazonServiceException, AmazonClientException {
+        before(request.getDomainName());
+        boolean throttled = false;
+        try {
+            return db.getAttributes(request);
+        } catch (AmazonClientException e) {
+            throttled = isThrottled(e);
+            throw e;
+        } finally {
+            after(throttled);
+        }
+    }
+
+    public void batchPutAttributes(BatchPutAttributesRequest request) throws AmazonServiceException, AmazonClientException {
+        before(request.getDomainName());
+        boolean throttled = false;
+        try {
+            db.batchPutAttributes(request);
+        } catch (AmazonClientException e) {
+            throttled = isThrottled(e);
+            throw e;
+        } finally {
+            after(throttled);
+        }
+    }
+
+    public DomainMetadataResult domainMetadata(DomainMetadataRequest request) throws AmazonServiceException, AmazonClientException {
+        before(request.getDomainName());
+        boolean throttled = false;
+        try {
+            return db.domainMetadata(request);
+        } catch (AmazonClientException e) {
+            throttled = isThrottled(e);
+            throw e;
+        } finally {
+            after(throttled);
+        }
+    }
+
+    public ListDomainsResult listDomains() throws AmazonServiceException, AmazonClientException {
+        before(null);
+        boolean throttled = false;
+        try {
+            return db.listDomains();
+        } catch (AmazonClientException e) {
+            throttled = isThrottled(e);
+            throw e;
+        } finally {
+            after(throttled);
+        }
+    }
+}
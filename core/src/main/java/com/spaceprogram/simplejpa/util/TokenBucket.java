@@ -0,0 +1,54 @@
+package com.spaceprogram.simplejpa.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lets through up to a steady rate of calls, with bursts up to the bucket's size.
+ * <p/>
+ * A caller that finds the bucket empty reserves the next token and sleeps until it's due, so waiting callers are let
+ * through in the order they arrived and nobody spins.
+ */
+public class TokenBucket {
+    private final double permitsPerSecond;
+    private final double burst;
+    private double tokens;
+    private long lastRefill;
+
+    /**
+     * @param permitsPerSecond steady rate
+     * @param burst            most tokens that can build up while idle, at least 1
+     */
+    public TokenBucket(double permitsPerSecond, double burst) {
+        if (permitsPerSecond <= 0) {
+            throw new IllegalArgumentException("permitsPerSecond must be positive, got " + permitsPerSecond);
+        }
+        this.permitsPerSecond = permitsPerSecond;
+        this.burst = Math.max(1, burst);
+        this.tokens = this.burst;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * Takes a token, waiting for one if the bucket is empty.
+     */
+    public void acquire() throws InterruptedException {
+        long waitNanos = reserve();
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    /**
+     * @return nanos until the reserved token is due, 0 if one was available
+     */
+    synchronized long reserve() {
+        long now = System.nanoTime();
+        tokens = Math.min(burst, tokens + (now - lastRefill) * permitsPerSecond / TimeUnit.SECONDS.toNanos(1));
+        lastRefill = now;
+        tokens -= 1;
+        if (tokens >= 0) {
+            return 0;
+        }
+        return (long) (-tokens * TimeUnit.SECONDS.toNanos(1) / permitsPerSecond);
+    }
+}
@@ -5,6 +5,10 @@ import org.junit.Assert;
 import org.junit.Test;
 
 import java.math.BigDecimal;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Random;
+import java.util.TimeZone;
 
 /**
  * User: treeder
@@ -142,6 +146,74 @@ Does not work
         Assert.assertTrue(bdx.compareTo(bgdecoded) == 0);
     }
 
+    @Test
+    public void testFastLongMatchesBigDecimal() {
+        Random random = new Random(42);
+        long[] edges = {0, 1, -1, Integer.MAX_VALUE, Integer.MIN_VALUE, Long.MAX_VALUE, Long.MIN_VALUE};
+        for (int i = 0; i < 10000; i++) {
+            long x = i < edges.length ? edges[i] : random.nextLong() >> random.nextInt(64);
+            String expected = AmazonSimpleDBUtil.encodeRealNumberRange(new BigDecimal(x), AmazonSimpleDBUtil.LONG_DIGITS, EntityManagerSimpleJPA.OFFSET_VALUE);
+            String encoded = AmazonSimpleDBUtil.encodeLong(x);
+            Assert.assertEquals(expected, encoded);
+            Assert.assertEquals(x, AmazonSimpleDBUtil.decodeLong(encoded));
+            if (x == (int) x) {
+                Assert.assertEquals((int) x, AmazonSimpleDBUtil.decodeInt(encoded));
+            }
+        }
+        try {
+            AmazonSimpleDBUtil.decodeInt(AmazonSimpleDBUtil.encodeLong(Long.MAX_VALUE));
+            Assert.fail("Expected NumberFormatException");
+        } catch (NumberFormatException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testFastDoubleMatchesBigDecimal() {
+        Random random = new Random(42);
+        double[] edges = {0.0, -0.0, 1.0, -1.0, 0.5, -0.5, 0.1, -0.1, 1e-21, -1e-21, 5e-21, -5e-21, 9.999999999999999e-21,
+                123456789012345678.0, -123456789012345678.0, 1e18, -1e18, 1e19, Double.MAX_VALUE, -Double.MAX_VALUE, Double.MIN_VALUE};
+        for (int i = 0; i < 10000; i++) {
+            double x = i < edges.length ? edges[i] : (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(44) - 24);
+            String expected = AmazonSimpleDBUtil.encodeRealNumberRange(new BigDecimal(Double.toString(x)), AmazonSimpleDBUtil.LONG_DIGITS,
+                    AmazonSimpleDBUtil.LONG_DIGITS, EntityManagerSimpleJPA.OFFSET_VALUE);
+            String encoded = AmazonSimpleDBUtil.encodeDouble(x);
+            Assert.assertEquals(Double.toString(x), expected, encoded);
+            double oldDecoded = Double.parseDouble(AmazonSimpleDBUtil.decodeRealNumberRange(encoded, AmazonSimpleDBUtil.LONG_DIGITS,
+                    EntityManagerSimpleJPA.OFFSET_VALUE).toString());
+            Assert.assertEquals(Double.toString(x), Double.doubleToLongBits(oldDecoded), Double.doubleToLongBits(AmazonSimpleDBUtil.decodeDouble(encoded)));
+
+            float f = (float) x;
+            if (!Float.isInfinite(f)) {
+                expected = AmazonSimpleDBUtil.encodeRealNumberRange(new BigDecimal(Float.toString(f)), AmazonSimpleDBUtil.LONG_DIGITS,
+                        AmazonSimpleDBUtil.LONG_DIGITS, EntityManagerSimpleJPA.OFFSET_VALUE);
+                encoded = AmazonSimpleDBUtil.encodeFloat(f);
+                Assert.assertEquals(Float.toString(f), expected, encoded);
+                float oldFloat = Float.parseFloat(AmazonSimpleDBUtil.decodeRealNumberRange(encoded, AmazonSimpleDBUtil.LONG_DIGITS,
+                        EntityManagerSimpleJPA.OFFSET_VALUE).toString());
+                Assert.assertEquals(Float.floatToIntBits(oldFloat), Float.floatToIntBits(AmazonSimpleDBUtil.decodeFloat(encoded)));
+            }
+        }
+    }
+
+    @Test
+    public void testFastDateMatchesSimpleDateFormat() throws Exception {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        Random random = new Random(42);
+        for (int i = 0; i < 1000; i++) {
+            // SimpleDateFormat itself doesn't round trip dates around the julian cutover
+            Date date = new Date((long) ((random.nextDouble() - 0.3) * 20000000000000L));
+            String expected = format.format(date);
+            expected = expected.substring(0, expected.length() - 2) + ":" + expected.substring(expected.length() - 2);
+            String encoded = AmazonSimpleDBUtil.encodeDate(date);
+            Assert.assertEquals(expected, encoded);
+            Assert.assertEquals(date, AmazonSimpleDBUtil.decodeDate(encoded));
+        }
+        // written with another offset
+        Assert.assertEquals(format.parse("2010-01-02T03:04:05.006-0500"), AmazonSimpleDBUtil.decodeDate("2010-01-02T03:04:05.006-05:00"));
+    }
+
     @Test
     public void bigDecimalTests() {
         BigDecimal bd = new BigDecimal("123.455");
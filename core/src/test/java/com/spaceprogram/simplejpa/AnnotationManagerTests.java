@@ -0,0 +1,78 @@
+package com.spaceprogram.simplejpa;
+
+import com.spaceprogram.simplejpa.model.TimestampEntityListener;
+import net.sf.cglib.proxy.Enhancer;
+import net.sf.cglib.proxy.NoOp;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.persistence.Entity;
+import javax.persistence.PostLoad;
+import javax.persistence.PrePersist;
+import javax.persistence.PreUpdate;
+
+/**
+ * Class metadata is read once per class: threads racing on the same class get the same AnnotationInfo, a cglib
+ * subclass maps to the info of the class it enhances, and the entity listener table is built with it.
+ */
+public class AnnotationManagerTests {
+
+    @Test
+    public void testConcurrentLookupsShareOneInfo() throws Exception {
+        final AnnotationManager annotationManager = new AnnotationManager(new SimpleJPAConfig());
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<AnnotationInfo>> futures = new ArrayList<Future<AnnotationInfo>>();
+        for (int i = 0; i < 8; i++) {
+            futures.add(executor.submit(new Callable<AnnotationInfo>() {
+                public AnnotationInfo call() throws Exception {
+                    start.await();
+                    return annotationManager.getAnnotationInfo(MyInheritanceObject2.class);
+                }
+            }));
+        }
+        start.countDown();
+        AnnotationInfo ai = futures.get(0).get();
+        for (Future<AnnotationInfo> future : futures) {
+            Assert.assertSame(ai, future.get());
+        }
+        executor.shutdown();
+        Assert.assertSame(ai, annotationManager.getAnnotationInfoByDiscriminator(ai.getDiscriminatorValue()));
+    }
+
+    @Test
+    public void testEnhancedClass() throws Exception {
+        AnnotationManager annotationManager = new AnnotationManager(new SimpleJPAConfig());
+        Object enhanced = Enhancer.create(MyTestObject.class, NoOp.INSTANCE);
+        Assert.assertNotSame(MyTestObject.class, enhanced.getClass());
+        AnnotationInfo ai = annotationManager.getAnnotationInfo(enhanced);
+        Assert.assertSame(MyTestObject.class, ai.getMainClass());
+        Assert.assertSame(ai, annotationManager.getAnnotationInfo(MyTestObject.class));
+    }
+
+    @Test
+    public void testEntityListenersShareOneInstance() throws Exception {
+        AnnotationManager annotationManager = new AnnotationManager(new SimpleJPAConfig());
+        AnnotationInfo ai = annotationManager.getAnnotationInfo(MyTestObject3.class);
+        AnnotationManager.ClassMethodEntry[] prePersist = ai.getEntityListeners(PrePersist.class);
+        Assert.assertEquals(1, prePersist.length);
+        Assert.assertEquals(1, ai.getEntityListeners(PreUpdate.class).length);
+        Assert.assertNull(ai.getEntityListeners(PostLoad.class));
+        Assert.assertNull(ai.getEntityListeners(Entity.class));
+        Assert.assertNull(annotationManager.getAnnotationInfo(MyTestObject.class).getEntityListeners(PrePersist.class));
+
+        MyTestObject3 ob = new MyTestObject3();
+        prePersist[0].invoke(ob);
+        Assert.assertNotNull(ob.getCreated());
+        Assert.assertSame(annotationManager.getListenerInstance(TimestampEntityListener.class),
+                annotationManager.getListenerInstance(TimestampEntityListener.class));
+    }
+}
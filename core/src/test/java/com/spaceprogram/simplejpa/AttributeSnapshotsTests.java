@@ -0,0 +1,189 @@
+package com.spaceprogram.simplejpa;
+
+import com.amazonaws.services.simpledb.model.Attribute;
+import com.amazonaws.services.simpledb.model.PutAttributesRequest;
+import com.amazonaws.services.simpledb.model.ReplaceableAttribute;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.persistence.EntityManager;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Dirty checking in Save: the diffing on its own, then saves through an EntityManager on InMemorySimpleDB to check
+ * that only objects loaded from SimpleDB are diffed and that a lob whose content didn't change isn't put to S3 again.
+ */
+public class AttributeSnapshotsTests {
+
+    @Test
+    public void testOnlyChangedAttributesAreSent() {
+        AttributeSnapshots snapshots = new AttributeSnapshots(10);
+        Object o = new Object();
+        snapshots.loaded(o, Arrays.asList(new Attribute("name", "bob"), new Attribute("age", "01"),
+                new Attribute("tags", "a"), new Attribute("tags", "b")));
+        Map<String, Set<String>> snapshot = snapshots.get(o);
+
+        List<ReplaceableAttribute> toPut = Arrays.asList(new ReplaceableAttribute("name", "bob", true),
+                new ReplaceableAttribute("age", "02", true),
+                new ReplaceableAttribute("tags", "a", true), new ReplaceableAttribute("tags", "b", true));
+        List<ReplaceableAttribute> changed = AttributeSnapshots.changed(snapshot, toPut);
+        Assert.assertEquals(1, changed.size());
+        Assert.assertEquals("age", changed.get(0).getName());
+
+        // dropping one value of a multi-valued attribute resends the whole attribute
+        toPut = Arrays.asList(new ReplaceableAttribute("tags", "a", true));
+        Assert.assertEquals(1, AttributeSnapshots.changed(snapshot, toPut).size());
+    }
+
+    @Test
+    public void testOnlyExistingAttributesAreDeleted() {
+        AttributeSnapshots snapshots = new AttributeSnapshots(10);
+        Object o = new Object();
+        snapshots.loaded(o, Arrays.asList(new Attribute("name", "bob")));
+        List<Attribute> existing = AttributeSnapshots.existing(snapshots.get(o),
+                Arrays.asList(new Attribute("name", null), new Attribute("age", null)));
+        Assert.assertEquals(1, existing.size());
+        Assert.assertEquals("name", existing.get(0).getName());
+    }
+
+    @Test
+    public void testWrittenUpdatesSnapshot() {
+        AttributeSnapshots snapshots = new AttributeSnapshots(10);
+        Object o = new Object();
+        snapshots.loaded(o, Arrays.asList(new Attribute("name", "bob"), new Attribute("age", "01")));
+        snapshots.written(o, Arrays.asList(new ReplaceableAttribute("age", "02", true)),
+                Collections.singletonList("name"));
+        Map<String, Set<String>> snapshot = snapshots.get(o);
+        Assert.assertFalse(snapshot.containsKey("name"));
+        Assert.assertEquals(Collections.singleton("02"), snapshot.get("age"));
+    }
+
+    @Test
+    public void testOnlyTracksGivenNumberOfObjects() {
+        AttributeSnapshots snapshots = new AttributeSnapshots(1);
+        Object first = new Object();
+        Object second = new Object();
+        snapshots.loaded(first, Arrays.asList(new Attribute("name", "bob")));
+        snapshots.loaded(second, Arrays.asList(new Attribute("name", "bob")));
+        Assert.assertNotNull(snapshots.get(first));
+        Assert.assertNull(snapshots.get(second));
+        // writes don't start tracking an object
+        snapshots.written(second, Arrays.asList(new ReplaceableAttribute("name", "bob", true)), Collections.<String>emptyList());
+        Assert.assertNull(snapshots.get(second));
+    }
+
+    static EntityManagerFactoryImpl newFactory(InMemorySimpleDB db, InMemoryS3 s3) {
+        return InMemoryFactory.create("snapshots", db, s3, Collections.singletonMap("snapshotCacheSize", "100"),
+                MyTestObject.class, MyTestObject2.class, MyTestObject3.class, MyTestObject4.class,
+                LazyTestObject.class, LazyTestReference.class);
+    }
+
+    @Test
+    public void testLoadedObjectSendsOnlyChanges() {
+        InMemorySimpleDB db = new InMemorySimpleDB();
+        EntityManagerFactoryImpl factory = newFactory(db, new InMemoryS3());
+        try {
+            EntityManager em = factory.createEntityManager();
+            MyTestObject o = new MyTestObject();
+            o.setId("1");
+            o.setName("bob");
+            o.setAge(30);
+            em.persist(o);
+
+            MyTestObject loaded = em.find(MyTestObject.class, "1");
+            loaded.setName("alice");
+            em.persist(loaded);
+            List<ReplaceableAttribute> put = db.getLastPut("snapshots-MyTestObject", "1");
+            Assert.assertEquals(1, put.size());
+            Assert.assertEquals("name", put.get(0).getName());
+        } finally {
+            factory.close();
+        }
+    }
+
+    @Test
+    public void testLoadedObjectDeletesOnlyStoredAttributes() {
+        InMemorySimpleDB db = new InMemorySimpleDB();
+        EntityManagerFactoryImpl factory = newFactory(db, new InMemoryS3());
+        try {
+            EntityManagerSimpleJPA em = (EntityManagerSimpleJPA) factory.createEntityManager();
+            MyTestObject o = new MyTestObject();
+            o.setId("1");
+            o.setName("bob");
+            o.setAge(30);
+            em.persist(o);
+
+            // every other field is null too but was never written
+            MyTestObject loaded = em.find(MyTestObject.class, "1");
+            loaded.setName(null);
+            em.persist(loaded);
+            Assert.assertEquals(1, em.getLastOpStats().getAttsDeleted());
+            Assert.assertNull(db.getValues("snapshots-MyTestObject", "1", "name"));
+        } finally {
+            factory.close();
+        }
+    }
+
+    @Test
+    public void testNewInstanceWithExistingIdIsWrittenInFull() {
+        InMemorySimpleDB db = new InMemorySimpleDB();
+        EntityManagerFactoryImpl factory = newFactory(db, new InMemoryS3());
+        try {
+            EntityManager em = factory.createEntityManager();
+            MyTestObject o = new MyTestObject();
+            o.setId("1");
+            o.setName("bob");
+            o.setAge(30);
+            em.persist(o);
+            em.find(MyTestObject.class, "1");
+
+            // changed by someone else since it was loaded
+            db.putAttributes(new PutAttributesRequest().withDomainName("snapshots-MyTestObject").withItemName("1")
+                    .withAttributes(new ReplaceableAttribute("name", "carol", true)));
+
+            MyTestObject again = new MyTestObject();
+            again.setId("1");
+            again.setName("bob");
+            again.setAge(30);
+            em.persist(again);
+            Assert.assertEquals(Collections.singleton("bob"), db.getValues("snapshots-MyTestObject", "1", "name"));
+            Assert.assertEquals(2, db.getLastPut("snapshots-MyTestObject", "1").size());
+        } finally {
+            factory.close();
+        }
+    }
+
+    @Test
+    public void testUnchangedLobIsNotPutAgain() {
+        InMemorySimpleDB db = new InMemorySimpleDB();
+        InMemoryS3 s3 = new InMemoryS3();
+        EntityManagerFactoryImpl factory = newFactory(db, s3);
+        // so the lob is loaded with the object
+        factory.setLazyLoading(true);
+        try {
+            LazyTestObject o = new LazyTestObject();
+            o.setId("1");
+            o.setText("hello");
+            factory.createEntityManager().persist(o);
+            Assert.assertEquals(1, s3.getPuts());
+
+            LazyTestObject loaded = factory.createEntityManager().find(LazyTestObject.class, "1");
+            Assert.assertEquals("hello", loaded.getText());
+            loaded.setName("bob");
+            EntityManager em = factory.createEntityManager();
+            em.persist(loaded);
+            Assert.assertEquals(1, s3.getPuts());
+            Assert.assertEquals(1, db.getLastPut("snapshots-LazyTestObject", "1").size());
+
+            loaded.setText("changed");
+            em.persist(loaded);
+            Assert.assertEquals(2, s3.getPuts());
+        } finally {
+            factory.close();
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.spaceprogram.simplejpa;
+
+import com.amazonaws.services.simpledb.model.Attribute;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.persistence.Column;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The fields of this class as an entity: an item's attributes land in the slot of their column, the @Column name for
+ * tags, a multi valued column keeps every value in order, and attributes no property maps to are skipped apart from
+ * the discriminator.
+ */
+public class AttributeValuesTests {
+
+    private String name;
+    @Column(name = "tagList")
+    private List<String> tags;
+    private Integer age;
+
+    private AnnotationInfo annotationInfo() throws Exception {
+        AnnotationInfo ai = new AnnotationInfo();
+        for (String field : new String[]{"name", "tags", "age"}) {
+            ai.addField(AttributeValuesTests.class.getDeclaredField(field));
+        }
+        return ai;
+    }
+
+    @Test
+    public void testGroupsByColumn() throws Exception {
+        AnnotationInfo ai = annotationInfo();
+        List<Attribute> atts = Arrays.asList(new Attribute("tagList", "a"), new Attribute("name", "bob"), new Attribute("other", "x"),
+                new Attribute("tagList", "b"), new Attribute(EntityManagerFactoryImpl.DTYPE, "Sub"));
+        AttributeValues values = new AttributeValues(ai, atts);
+        Assert.assertEquals("bob", values.getValue(ai.getPersistentProperty("name")));
+        Assert.assertEquals(Collections.singletonList("bob"), values.getValues(ai.getPersistentProperty("name")));
+        Assert.assertEquals(Arrays.asList("a", "b"), values.getValues(ai.getPersistentProperty("tags")));
+        Assert.assertEquals("a", values.getValue(ai.getPersistentProperty("tags")));
+        Assert.assertNull(values.getValue(ai.getPersistentProperty("age")));
+        Assert.assertTrue(values.getValues(ai.getPersistentProperty("age")).isEmpty());
+        Assert.assertEquals("Sub", values.getDiscriminator());
+        Assert.assertEquals(-1, ai.getColumnSlot("other"));
+    }
+}
@@ -0,0 +1,51 @@
+package com.spaceprogram.simplejpa;
+
+import com.amazonaws.services.simpledb.model.PutAttributesRequest;
+import com.amazonaws.services.simpledb.model.ReplaceableAttribute;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+
+/**
+ * @BatchFetch on InMemorySimpleDB: using the children of one parent loads the children of every parent in the page,
+ * with one select per 20 parents, and hands each parent its own children.
+ */
+public class BatchFetchGroupTests {
+
+    @Test
+    public void testChildrenOfPageLoadedTogether() {
+        InMemorySimpleDB db = new InMemorySimpleDB();
+        for (int i = 0; i < 25; i++) {
+            db.putAttributes(new PutAttributesRequest().withDomainName("batch-BatchTestParent").withItemName("p" + i)
+                    .withAttributes(new ReplaceableAttribute("name", "parent" + i, true)));
+            for (int j = 0; j < 2; j++) {
+                db.putAttributes(new PutAttributesRequest().withDomainName("batch-BatchTestChild").withItemName("c" + i + "-" + j)
+                        .withAttributes(new ReplaceableAttribute("name", "child" + i + "-" + j, true),
+                                new ReplaceableAttribute("parent_id", "p" + i, true)));
+            }
+        }
+        EntityManagerFactoryImpl factory = InMemoryFactory.create("batch", db, BatchTestParent.class, BatchTestChild.class);
+        try {
+            List<BatchTestParent> parents = factory.createEntityManager()
+                    .createQuery("select o from BatchTestParent o").getResultList();
+            Assert.assertEquals("parent0", parents.get(0).getName());
+            Assert.assertEquals(1, db.getCalls("select"));
+
+            int count = 0;
+            for (BatchTestParent parent : parents) {
+                List<BatchTestChild> children = parent.getChildren();
+                Assert.assertEquals(2, children.size());
+                String i = parent.getId().substring(1);
+                Assert.assertEquals("child" + i + "-0", children.get(0).getName());
+                Assert.assertEquals("child" + i + "-1", children.get(1).getName());
+                count++;
+            }
+            Assert.assertEquals(25, count);
+            // the parents, then 20 and 5 parents' children
+            Assert.assertEquals(3, db.getCalls("select"));
+        } finally {
+            factory.close();
+        }
+    }
+}
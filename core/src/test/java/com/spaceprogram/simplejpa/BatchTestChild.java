@@ -0,0 +1,37 @@
+package com.spaceprogram.simplejpa;
+
+import javax.persistence.*;
+
+@Entity
+public class BatchTestChild {
+    @Id
+    private String id;
+    private String name;
+
+    @ManyToOne
+    private BatchTestParent parent;
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public BatchTestParent getParent() {
+        return parent;
+    }
+
+    public void setParent(BatchTestParent parent) {
+        this.parent = parent;
+    }
+}
@@ -0,0 +1,42 @@
+package com.spaceprogram.simplejpa;
+
+import javax.persistence.*;
+import java.util.List;
+
+/**
+ * Annotated on the fields, with children that are batch fetched across a page of parents.
+ */
+@Entity
+public class BatchTestParent {
+    @Id
+    private String id;
+    private String name;
+
+    @OneToMany(mappedBy = "parent")
+    @BatchFetch
+    private List<BatchTestChild> children;
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public List<BatchTestChild> getChildren() {
+        return children;
+    }
+
+    public void setChildren(List<BatchTestChild> children) {
+        this.children = children;
+    }
+}
@@ -0,0 +1,76 @@
+package com.spaceprogram.simplejpa;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * The entity index: readIndex skips comments and blank lines, and running the processor in a real javac compile
+ * lists the @Entity classes, nested ones by binary name, and nothing else.
+ */
+public class EntityIndexProcessorTests {
+
+    private static class Source extends SimpleJavaFileObject {
+        private final String code;
+
+        Source(String className, String code) {
+            super(URI.create("string:///" + className.replace('.', '/') + Kind.SOURCE.extension), Kind.SOURCE);
+            this.code = code;
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return code;
+        }
+    }
+
+    @Test
+    public void testReadIndex() throws Exception {
+        String index = "# entities\n\ncom.example.A\n  com.example.B$Inner  \n";
+        Assert.assertEquals(Arrays.asList("com.example.A", "com.example.B$Inner"),
+                EntityIndexProcessor.readIndex(new ByteArrayInputStream(index.getBytes("UTF-8"))));
+    }
+
+    @Test
+    public void testProcessorWritesIndex() throws Exception {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        // only there when running on a JDK
+        Assume.assumeNotNull(compiler);
+
+        File out = File.createTempFile("entityindex", "");
+        out.delete();
+        out.mkdirs();
+        StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, null);
+        try {
+            JavaFileObject entity = new Source("idx.Outer",
+                    "package idx;\n" +
+                            "@javax.persistence.Entity public class Outer {\n" +
+                            "    @javax.persistence.Entity public static class Inner {}\n" +
+                            "}\n");
+            JavaFileObject plain = new Source("idx.Plain", "package idx;\npublic class Plain {}\n");
+            JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager, null,
+                    Arrays.asList("-classpath", System.getProperty("java.class.path"), "-d", out.getPath()),
+                    null, Arrays.asList(entity, plain));
+            task.setProcessors(Collections.singleton(new EntityIndexProcessor()));
+            Assert.assertTrue(task.call());
+
+            File index = new File(out, EntityIndexProcessor.ENTITY_INDEX);
+            Assert.assertEquals(Arrays.asList("idx.Outer", "idx.Outer$Inner"),
+                    EntityIndexProcessor.readIndex(new FileInputStream(index)));
+        } finally {
+            fileManager.close();
+        }
+    }
+}
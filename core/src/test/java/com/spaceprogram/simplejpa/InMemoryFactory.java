@@ -0,0 +1,34 @@
+package com.spaceprogram.simplejpa;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Creates an EntityManagerFactory on InMemorySimpleDB and InMemoryS3, so tests can run an EntityManager without AWS.
+ */
+public class InMemoryFactory {
+
+    public static EntityManagerFactoryImpl create(String persistenceUnitName, InMemorySimpleDB db, Class<?>... entities) {
+        return create(persistenceUnitName, db, new InMemoryS3(), null, entities);
+    }
+
+    /**
+     * @param props any other factory properties, can be null
+     */
+    public static EntityManagerFactoryImpl create(String persistenceUnitName, InMemorySimpleDB db, InMemoryS3 s3,
+                                                  Map<String, ?> props, Class<?>... entities) {
+        Map<String, Object> allProps = new HashMap<String, Object>();
+        if (props != null) {
+            allProps.putAll(props);
+        }
+        allProps.put("simpleDbClient", db);
+        allProps.put("s3Client", s3.getClient());
+        Set<String> classNames = new HashSet<String>();
+        for (Class<?> entity : entities) {
+            classNames.add(entity.getName());
+        }
+        return new EntityManagerFactoryImpl(persistenceUnitName, allProps, null, classNames);
+    }
+}
@@ -0,0 +1,72 @@
+package com.spaceprogram.simplejpa;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import com.amazonaws.services.s3.model.S3Object;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The few S3 calls lobs use, kept in memory and passed to the factory as s3Client. Any other call throws.
+ * <p/>
+ * AmazonS3 has far too many methods to implement for this, so the client is a dynamic proxy onto this class.
+ */
+public class InMemoryS3 implements InvocationHandler {
+    private final Map<String, byte[]> objects = new ConcurrentHashMap<String, byte[]>();
+    private final AtomicInteger puts = new AtomicInteger();
+    /**
+     * Thrown by every put when set.
+     */
+    private volatile RuntimeException putFailure;
+
+    public AmazonS3 getClient() {
+        return (AmazonS3) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{AmazonS3.class}, this);
+    }
+
+    public int getPuts() {
+        return puts.get();
+    }
+
+    public boolean contains(String key) {
+        return objects.containsKey(key);
+    }
+
+    public void setPutFailure(RuntimeException putFailure) {
+        this.putFailure = putFailure;
+    }
+
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        String name = method.getName();
+        if (name.equals("doesBucketExist")) {
+            return true;
+        } else if (name.equals("putObject") && args.length == 4) {
+            puts.incrementAndGet();
+            if (putFailure != null) {
+                throw putFailure;
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            InputStream in = (InputStream) args[2];
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                bytes.write(buffer, 0, read);
+            }
+            objects.put((String) args[1], bytes.toByteArray());
+            return new PutObjectResult();
+        } else if (name.equals("getObject") && args.length == 2) {
+            S3Object s3Object = new S3Object();
+            s3Object.setKey((String) args[1]);
+            s3Object.setObjectContent(new ByteArrayInputStream(objects.get(args[1])));
+            return s3Object;
+        }
+        throw new UnsupportedOperationException(method.toString());
+    }
+}
@@ -0,0 +1,243 @@
+package com.spaceprogram.simplejpa;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.simpledb.AmazonSimpleDB;
+import com.amazonaws.services.simpledb.model.Attribute;
+import com.amazonaws.services.simpledb.model.BatchDeleteAttributesRequest;
+import com.amazonaws.services.simpledb.model.BatchPutAttributesRequest;
+import com.amazonaws.services.simpledb.model.CreateDomainRequest;
+import com.amazonaws.services.simpledb.model.DeletableItem;
+import com.amazonaws.services.simpledb.model.DeleteAttributesRequest;
+import com.amazonaws.services.simpledb.model.DeleteDomainRequest;
+import com.amazonaws.services.simpledb.model.DomainMetadataRequest;
+import com.amazonaws.services.simpledb.model.DomainMetadataResult;
+import com.amazonaws.services.simpledb.model.GetAttributesRequest;
+import com.amazonaws.services.simpledb.model.GetAttributesResult;
+import com.amazonaws.services.simpledb.model.Item;
+import com.amazonaws.services.simpledb.model.ListDomainsRequest;
+import com.amazonaws.services.simpledb.model.ListDomainsResult;
+import com.amazonaws.services.simpledb.model.PutAttributesRequest;
+import com.amazonaws.services.simpledb.model.ReplaceableAttribute;
+import com.amazonaws.services.simpledb.model.ReplaceableItem;
+import com.amazonaws.services.simpledb.model.SelectRequest;
+import com.amazonaws.services.simpledb.model.SelectResult;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * SimpleDB kept in memory, passed to the factory as simpleDbClient so tests can run an EntityManager without AWS.
+ * <p/>
+ * Select only understands "select * from `domain`", optionally with "where itemName() in (...)", which is what find
+ * and findAll send, or "where `attribute` in (...)", which is what batch fetching sends, and "limit n". A limited select returns the position of the next item as its nextToken. Calls
+ * are counted by method name and the last put of each item is kept so tests can check what was sent.
+ */
+public class InMemorySimpleDB implements AmazonSimpleDB {
+    private static final Pattern SELECT = Pattern.compile("select \\* from `([^`]+)`\\s*(?:where (itemName\\(\\)|`[^`]+`) in \\((.*)\\))?\\s*(?:limit (\\d+))?");
+    private static final Pattern QUOTED = Pattern.compile("'((?:[^']|'')*)'");
+
+    /**
+     * domain -> item name -> attribute name -> values
+     */
+    private final Map<String, Map<String, Map<String, Set<String>>>> domains = new LinkedHashMap<String, Map<String, Map<String, Set<String>>>>();
+    private final Map<String, Integer> calls = new HashMap<String, Integer>();
+    private final Map<String, List<ReplaceableAttribute>> lastPuts = new HashMap<String, List<ReplaceableAttribute>>();
+
+    public synchronized int getCalls(String method) {
+        Integer count = calls.get(method);
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * @return the attributes sent by the last putAttributes for the item, null if there wasn't one
+     */
+    public synchronized List<ReplaceableAttribute> getLastPut(String domainName, String itemName) {
+        return lastPuts.get(domainName + "/" + itemName);
+    }
+
+    /**
+     * @return the stored values of one attribute, null if the item or attribute doesn't exist
+     */
+    public synchronized Set<String> getValues(String domainName, String itemName, String attributeName) {
+        Map<String, Set<String>> item = domain(domainName).get(itemName);
+        return item == null ? null : item.get(attributeName);
+    }
+
+    private void called(String method) {
+        calls.put(method, getCalls(method) + 1);
+    }
+
+    private Map<String, Map<String, Set<String>>> domain(String domainName) {
+        Map<String, Map<String, Set<String>>> domain = domains.get(domainName);
+        if (domain == null) {
+            domain = new LinkedHashMap<String, Map<String, Set<String>>>();
+            domains.put(domainName, domain);
+        }
+        return domain;
+    }
+
+    private void put(String domainName, String itemName, List<ReplaceableAttribute> atts) {
+        Map<String, Map<String, Set<String>>> domain = domain(domainName);
+        Map<String, Set<String>> item = domain.get(itemName);
+        if (item == null) {
+            item = new LinkedHashMap<String, Set<String>>();
+            domain.put(itemName, item);
+        }
+        for (ReplaceableAttribute att : atts) {
+            if (Boolean.TRUE.equals(att.getReplace())) {
+                item.remove(att.getName());
+            }
+        }
+        for (ReplaceableAttribute att : atts) {
+            Set<String> values = item.get(att.getName());
+            if (values == null) {
+                values = new LinkedHashSet<String>();
+                item.put(att.getName(), values);
+            }
+            values.add(att.getValue());
+        }
+        lastPuts.put(domainName + "/" + itemName, new ArrayList<ReplaceableAttribute>(atts));
+    }
+
+    private void delete(String domainName, String itemName, List<Attribute> atts) {
+        Map<String, Map<String, Set<String>>> domain = domain(domainName);
+        Map<String, Set<String>> item = domain.get(itemName);
+        if (item == null) {
+            return;
+        }
+        if (atts == null || atts.isEmpty()) {
+            domain.remove(itemName);
+            return;
+        }
+        for (Attribute att : atts) {
+            if (att.getValue() == null) {
+                item.remove(att.getName());
+            } else if (item.containsKey(att.getName())) {
+                item.get(att.getName()).remove(att.getValue());
+            }
+        }
+        if (item.isEmpty()) {
+            domain.remove(itemName);
+        }
+    }
+
+    private static List<Attribute> attributes(Map<String, Set<String>> item) {
+        List<Attribute> atts = new ArrayList<Attribute>();
+        if (item != null) {
+            for (Map.Entry<String, Set<String>> entry : item.entrySet()) {
+                for (String value : entry.getValue()) {
+                    atts.add(new Attribute(entry.getKey(), value));
+                }
+            }
+        }
+        return atts;
+    }
+
+    public void setEndpoint(String endpoint) throws IllegalArgumentException {
+    }
+
+    public synchronized SelectResult select(SelectRequest request) throws AmazonServiceException, AmazonClientException {
+        called("select");
+        Matcher m = SELECT.matcher(request.getSelectExpression());
+        if (!m.matches()) {
+            throw new UnsupportedOperationException("Can't run " + request.getSelectExpression());
+        }
+        Map<String, Map<String, Set<String>>> domain = domain(m.group(1));
+        List<Item> items = new ArrayList<Item>();
+        List<String> values = new ArrayList<String>();
+        if (m.group(3) != null) {
+            Matcher quoted = QUOTED.matcher(m.group(3));
+            while (quoted.find()) {
+                values.add(quoted.group(1).replace("''", "'"));
+            }
+        }
+        if (m.group(2) == null) {
+            for (Map.Entry<String, Map<String, Set<String>>> entry : domain.entrySet()) {
+                items.add(new Item(entry.getKey(), attributes(entry.getValue())));
+            }
+        } else if (m.group(2).startsWith("`")) {
+            String attributeName = m.group(2).substring(1, m.group(2).length() - 1);
+            for (Map.Entry<String, Map<String, Set<String>>> entry : domain.entrySet()) {
+                Set<String> stored = entry.getValue().get(attributeName);
+                if (stored != null && !Collections.disjoint(stored, values)) {
+                    items.add(new Item(entry.getKey(), attributes(entry.getValue())));
+                }
+            }
+        } else {
+            for (String itemName : values) {
+                if (domain.containsKey(itemName)) {
+                    items.add(new Item(itemName, attributes(domain.get(itemName))));
+                }
+            }
+        }
+        int start = request.getNextToken() == null ? 0 : Integer.parseInt(request.getNextToken());
+        int end = m.group(4) == null ? items.size() : Math.min(items.size(), start + Integer.parseInt(m.group(4)));
+        SelectResult result = new SelectResult().withItems(new ArrayList<Item>(items.subList(start, end)));
+        if (end < items.size()) {
+            result.setNextToken(String.valueOf(end));
+        }
+        return result;
+    }
+
+    public synchronized void putAttributes(PutAttributesRequest request) throws AmazonServiceException, AmazonClientException {
+        called("putAttributes");
+        put(request.getDomainName(), request.getItemName(), request.getAttributes());
+    }
+
+    public synchronized void batchDeleteAttributes(BatchDeleteAttributesRequest request) throws AmazonServiceException, AmazonClientException {
+        called("batchDeleteAttributes");
+        for (DeletableItem item : request.getItems()) {
+            delete(request.getDomainName(), item.getName(), item.getAttributes());
+        }
+    }
+
+    public synchronized void deleteDomain(DeleteDomainRequest request) throws AmazonServiceException, AmazonClientException {
+        called("deleteDomain");
+        domains.remove(request.getDomainName());
+    }
+
+    public synchronized void createDomain(CreateDomainRequest request) throws AmazonServiceException, AmazonClientException {
+        called("createDomain");
+        domain(request.getDomainName());
+    }
+
+    public synchronized void deleteAttributes(DeleteAttributesRequest request) throws AmazonServiceException, AmazonClientException {
+        called("deleteAttributes");
+        delete(request.getDomainName(), request.getItemName(), request.getAttributes());
+    }
+
+    public synchronized ListDomainsResult listDomains(ListDomainsRequest request) throws AmazonServiceException, AmazonClientException {
+        called("listDomains");
+        return new ListDomainsResult().withDomainNames(new ArrayList<String>(domains.keySet()));
+    }
+
+    public synchronized GetAttributesResult getAttributes(GetAttributesRequest request) throws AmazonServiceException, AmazonClientException {
+        called("getAttributes");
+        return new GetAttributesResult().withAttributes(attributes(domain(request.getDomainName()).get(request.getItemName())));
+    }
+
+    public synchronized void batchPutAttributes(BatchPutAttributesRequest request) throws AmazonServiceException, AmazonClientException {
+        called("batchPutAttributes");
+        for (ReplaceableItem item : request.getItems()) {
+            put(request.getDomainName(), item.getName(), item.getAttributes());
+        }
+    }
+
+    public synchronized DomainMetadataResult domainMetadata(DomainMetadataRequest request) throws AmazonServiceException, AmazonClientException {
+        called("domainMetadata");
+        return new DomainMetadataResult().withItemCount(domain(request.getDomainName()).size());
+    }
+
+    public ListDomainsResult listDomains() throws AmazonServiceException, AmazonClientException {
+        return listDomains(new ListDomainsRequest());
+    }
+}
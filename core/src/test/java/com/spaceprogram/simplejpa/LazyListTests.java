@@ -0,0 +1,128 @@
+package com.spaceprogram.simplejpa;
+
+import com.amazonaws.services.simpledb.model.PutAttributesRequest;
+import com.amazonaws.services.simpledb.model.ReplaceableAttribute;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * LazyList prefetching on InMemorySimpleDB, 2 items a page: pages come back in order with every item, at most
+ * prefetchDepth pages are fetched ahead of the one being read and cancelPrefetch stops the fetching ahead.
+ */
+public class LazyListTests {
+    private InMemorySimpleDB db;
+    private IdleAwareExecutor executor;
+    private EntityManagerFactoryImpl factory;
+
+    @Before
+    public void setUp() {
+        db = new InMemorySimpleDB();
+        for (int i = 0; i < 10; i++) {
+            db.putAttributes(new PutAttributesRequest().withDomainName("lazylist-MyTestObject").withItemName("id" + i)
+                    .withAttributes(new ReplaceableAttribute("name", "name" + i, true)));
+        }
+        executor = new IdleAwareExecutor();
+        Map<String, Object> props = new HashMap<String, Object>();
+        props.put("executorService", executor);
+        props.put("lazyListPrefetchDepth", "2");
+        factory = InMemoryFactory.create("lazylist", db, new InMemoryS3(), props, MyTestObject.class);
+    }
+
+    @After
+    public void tearDown() {
+        factory.close();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testPrefetchKeepsOrderAndStaysAhead() throws Exception {
+        LazyList<MyTestObject> list = query();
+        Assert.assertEquals("name0", list.get(0).getName());
+        executor.awaitIdle();
+        // the page being read and 2 ahead of it
+        Assert.assertEquals(3, db.getCalls("select"));
+
+        Assert.assertEquals("name2", list.get(2).getName());
+        executor.awaitIdle();
+        Assert.assertEquals(4, db.getCalls("select"));
+
+        List<String> names = new ArrayList<String>();
+        for (MyTestObject o : list) {
+            names.add(o.getName());
+        }
+        executor.awaitIdle();
+        Assert.assertEquals(10, names.size());
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals("name" + i, names.get(i));
+        }
+        Assert.assertEquals(5, db.getCalls("select"));
+    }
+
+    @Test
+    public void testCancelPrefetch() throws Exception {
+        LazyList<MyTestObject> list = query();
+        list.get(0);
+        executor.awaitIdle();
+        Assert.assertEquals(3, db.getCalls("select"));
+
+        list.cancelPrefetch();
+        // cancelled pages are fetched again from where the list got to
+        Assert.assertEquals("name9", list.get(9).getName());
+        Assert.assertEquals("name3", list.get(3).getName());
+        executor.awaitIdle();
+        Assert.assertEquals(10, list.getFetchedSize());
+    }
+
+    private LazyList<MyTestObject> query() {
+        LazyList<MyTestObject> list = (LazyList<MyTestObject>) factory.createEntityManager()
+                .createQuery("select o from MyTestObject o").getResultList();
+        list.setMaxResultsPerToken(2);
+        return list;
+    }
+
+    /**
+     * Knows when no task is queued or running. A page fetch queues the next one before it finishes, so idle means
+     * the prefetching has stopped.
+     */
+    private static class IdleAwareExecutor extends ThreadPoolExecutor {
+        private int pending;
+
+        IdleAwareExecutor() {
+            super(4, 4, 0, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            synchronized (this) {
+                pending++;
+            }
+            super.execute(command);
+        }
+
+        @Override
+        protected void afterExecute(Runnable r, Throwable t) {
+            synchronized (this) {
+                pending--;
+                notifyAll();
+            }
+        }
+
+        synchronized void awaitIdle() throws InterruptedException {
+            long end = System.currentTimeMillis() + 10000;
+            while (pending > 0 && System.currentTimeMillis() < end) {
+                wait(100);
+            }
+            Assert.assertEquals(0, pending);
+        }
+    }
+}
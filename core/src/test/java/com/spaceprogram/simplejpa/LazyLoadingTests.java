@@ -0,0 +1,178 @@
+package com.spaceprogram.simplejpa;
+
+import com.amazonaws.services.simpledb.model.PutAttributesRequest;
+import com.amazonaws.services.simpledb.model.ReplaceableAttribute;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.persistence.EntityManager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ManyToOne references of objects built with lazyLoading on: loaded on first access, all at once for objects that came
+ * from the same findAll or for the keys of one ManyToMany, and left as stored when an object is saved before they're
+ * loaded. A lob loaded this way isn't put to S3 again unless its content changed.
+ */
+public class LazyLoadingTests {
+
+    static EntityManagerFactoryImpl newFactory(InMemorySimpleDB db) {
+        return newFactory(db, new InMemoryS3());
+    }
+
+    static EntityManagerFactoryImpl newFactory(InMemorySimpleDB db, InMemoryS3 s3) {
+        return InMemoryFactory.create("lazy", db, s3, Collections.singletonMap("lazyLoading", "true"),
+                LazyTestObject.class, LazyTestReference.class, ManyToManyTestObject1.class, ManyToManyTestObject2.class);
+    }
+
+    private static void put(InMemorySimpleDB db, String domainName, String itemName, String name, String value) {
+        db.putAttributes(new PutAttributesRequest().withDomainName(domainName).withItemName(itemName)
+                .withAttributes(new ReplaceableAttribute(name, value, true)));
+    }
+
+    private static InMemorySimpleDB newDb() {
+        InMemorySimpleDB db = new InMemorySimpleDB();
+        put(db, "lazy-LazyTestReference", "a", "name", "first");
+        put(db, "lazy-LazyTestReference", "b", "name", "second");
+        put(db, "lazy-LazyTestObject", "1", "reference_id", "a");
+        put(db, "lazy-LazyTestObject", "2", "reference_id", "b");
+        // refers to an object that doesn't exist
+        put(db, "lazy-LazyTestObject", "3", "reference_id", "gone");
+        return db;
+    }
+
+    @Test
+    public void testReferencesOfFindAllLoadedTogether() {
+        InMemorySimpleDB db = newDb();
+        EntityManagerFactoryImpl factory = newFactory(db);
+        try {
+            EntityManagerSimpleJPA em = (EntityManagerSimpleJPA) factory.createEntityManager();
+            Map<String, LazyTestObject> found = em.findAll(LazyTestObject.class, Arrays.asList("1", "2", "3"));
+            Assert.assertEquals(1, db.getCalls("select"));
+
+            Assert.assertEquals("first", found.get("1").getReference().getName());
+            Assert.assertEquals(2, db.getCalls("select"));
+            Assert.assertEquals("second", found.get("2").getReference().getName());
+            Assert.assertNull(found.get("3").getReference());
+            Assert.assertEquals(2, db.getCalls("select"));
+            Assert.assertEquals(0, db.getCalls("getAttributes"));
+        } finally {
+            factory.close();
+        }
+    }
+
+    @Test
+    public void testReferenceOfFindLoadedOnAccess() {
+        InMemorySimpleDB db = newDb();
+        EntityManagerFactoryImpl factory = newFactory(db);
+        try {
+            EntityManagerSimpleJPA em = (EntityManagerSimpleJPA) factory.createEntityManager();
+            LazyTestObject o = em.find(LazyTestObject.class, "1");
+            Assert.assertEquals("first", o.getReference().getName());
+            Assert.assertNull(em.find(LazyTestObject.class, "3").getReference());
+        } finally {
+            factory.close();
+        }
+    }
+
+    @Test
+    public void testManyToManyKeysLoadedTogether() {
+        InMemorySimpleDB db = new InMemorySimpleDB();
+        put(db, "lazy-ManyToManyTestObject2", "x", "id", "x");
+        put(db, "lazy-ManyToManyTestObject2", "y", "id", "y");
+        db.putAttributes(new PutAttributesRequest().withDomainName("lazy-ManyToManyTestObject1").withItemName("m")
+                .withAttributes(new ReplaceableAttribute("otherObjects_id", "x", false),
+                        new ReplaceableAttribute("otherObjects_id", "gone", false),
+                        new ReplaceableAttribute("otherObjects_id", "y", false)));
+        EntityManagerFactoryImpl factory = newFactory(db);
+        try {
+            EntityManagerSimpleJPA em = (EntityManagerSimpleJPA) factory.createEntityManager();
+            ManyToManyTestObject1 o = em.find(ManyToManyTestObject1.class, "m");
+            Assert.assertEquals(1, db.getCalls("getAttributes"));
+
+            List<String> ids = new ArrayList<String>();
+            for (ManyToManyTestObject2 other : o.getOtherObjects()) {
+                ids.add(other == null ? null : other.getId());
+            }
+            // in the order of the keys, which are a HashSet
+            Assert.assertEquals(3, ids.size());
+            Assert.assertTrue(ids.containsAll(Arrays.asList(null, "x", "y")));
+            Assert.assertEquals(1, db.getCalls("select"));
+            Assert.assertEquals(1, db.getCalls("getAttributes"));
+        } finally {
+            factory.close();
+        }
+    }
+
+    @Test
+    public void testUnchangedLobIsNotPutAgain() {
+        InMemorySimpleDB db = new InMemorySimpleDB();
+        InMemoryS3 s3 = new InMemoryS3();
+        EntityManagerFactoryImpl factory = newFactory(db, s3);
+        try {
+            LazyTestObject o = new LazyTestObject();
+            o.setId("1");
+            o.setText("hello");
+            factory.createEntityManager().persist(o);
+            Assert.assertEquals(1, s3.getPuts());
+
+            EntityManager em = factory.createEntityManager();
+            LazyTestObject loaded = em.find(LazyTestObject.class, "1");
+            Assert.assertEquals("hello", loaded.getText());
+            loaded.setName("bob");
+            em.persist(loaded);
+            Assert.assertEquals(1, s3.getPuts());
+
+            loaded.setText("changed");
+            em.persist(loaded);
+            Assert.assertEquals(2, s3.getPuts());
+            em.persist(loaded);
+            Assert.assertEquals(2, s3.getPuts());
+        } finally {
+            factory.close();
+        }
+    }
+
+    @Test
+    public void testNoLobHashWithoutLazyLoading() {
+        InMemorySimpleDB db = new InMemorySimpleDB();
+        EntityManagerFactoryImpl factory = newFactory(db);
+        // nothing loaded could carry the hash to compare with
+        factory.setLazyLoading(false);
+        try {
+            LazyTestObject o = new LazyTestObject();
+            o.setId("1");
+            o.setText("hello");
+            factory.createEntityManager().persist(o);
+            for (ReplaceableAttribute att : db.getLastPut("lazy-LazyTestObject", "1")) {
+                Assert.assertFalse(att.getName().endsWith("-lobhash"));
+            }
+        } finally {
+            factory.close();
+        }
+    }
+
+    @Test
+    public void testSaveKeepsUnloadedReference() {
+        InMemorySimpleDB db = newDb();
+        EntityManagerFactoryImpl factory = newFactory(db);
+        try {
+            EntityManagerSimpleJPA em = (EntityManagerSimpleJPA) factory.createEntityManager();
+            LazyTestObject o = em.find(LazyTestObject.class, "2");
+            o.setName("renamed");
+            em.persist(o);
+            Assert.assertEquals(Collections.singleton("b"), db.getValues("lazy-LazyTestObject", "2", "reference_id"));
+
+            o.setReference(null);
+            em.persist(o);
+            Assert.assertNull(db.getValues("lazy-LazyTestObject", "2", "reference_id"));
+        } finally {
+            factory.close();
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.spaceprogram.simplejpa;
+
+import javax.persistence.*;
+
+/**
+ * Annotated on the fields, with a reference and a lob that are loaded lazily.
+ */
+@Entity
+public class LazyTestObject {
+    @Id
+    private String id;
+    private String name;
+
+    @ManyToOne
+    private LazyTestReference reference;
+
+    @Lob
+    private String text;
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public LazyTestReference getReference() {
+        return reference;
+    }
+
+    public void setReference(LazyTestReference reference) {
+        this.reference = reference;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public void setText(String text) {
+        this.text = text;
+    }
+}
@@ -0,0 +1,26 @@
+package com.spaceprogram.simplejpa;
+
+import javax.persistence.*;
+
+@Entity
+public class LazyTestReference {
+    @Id
+    private String id;
+    private String name;
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+}
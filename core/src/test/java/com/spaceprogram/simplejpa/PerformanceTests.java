@@ -117,6 +117,20 @@ public class PerformanceTests extends BaseTestClass{
         duration = System.currentTimeMillis() - start;
         printAndLog("duration of retreival and prints after first load=" + duration);
 
+        factory.clearSecondLevelCache();
+        start = System.currentTimeMillis();
+        System.out.println("querying for all objects with prefetch...");
+        query = em.createQuery("select o from MyTestObject o ");
+        LazyList<MyTestObject> lazyList = (LazyList<MyTestObject>) query.getResultList();
+        lazyList.setMaxResultsPerToken(20);
+        lazyList.setPrefetchDepth(2);
+        int count = 0;
+        for (MyTestObject ob : lazyList) {
+            count++;
+        }
+        duration = System.currentTimeMillis() - start;
+        printAndLog("duration of retreival with prefetch=" + duration + ", " + count + " items");
+
         em.close();
     }
 
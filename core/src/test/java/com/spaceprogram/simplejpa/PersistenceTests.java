@@ -6,6 +6,8 @@ import org.junit.Assert;
 import org.junit.Test;
 
 import com.amazonaws.AmazonClientException;
+import com.spaceprogram.simplejpa.query.CloseableIterator;
+import com.spaceprogram.simplejpa.query.SimpleQuery;
 
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceException;
@@ -180,6 +182,136 @@ public class PersistenceTests extends BaseTestClass {
         em.close();
     }
 
+    @Test
+    public void removeAll() {
+        SimpleEntityManager em = (SimpleEntityManager) factory.createEntityManager();
+
+        List<MyTestObject> objects = new ArrayList<MyTestObject>();
+        for (int i = 0; i < 30; i++) {
+            MyTestObject object = new MyTestObject();
+            object.setName("removeAll " + i);
+            em.persist(object);
+            objects.add(object);
+        }
+        em.removeAll(objects);
+        em.close();
+
+        em = (SimpleEntityManager) factory.createEntityManager();
+        for (MyTestObject object : objects) {
+            Assert.assertNull(em.find(MyTestObject.class, object.getId()));
+        }
+        em.close();
+    }
+
+    @Test
+    public void findAll() {
+        SimpleEntityManager em = (SimpleEntityManager) factory.createEntityManager();
+
+        List<MyTestObject> objects = new ArrayList<MyTestObject>();
+        List<String> ids = new ArrayList<String>();
+        for (int i = 0; i < 25; i++) {
+            MyTestObject object = new MyTestObject();
+            object.setName("findAll " + i);
+            em.persist(object);
+            objects.add(object);
+            ids.add(object.getId());
+        }
+        ids.add(5, "doesnotexist");
+        em.close();
+        factory.clearSecondLevelCache();
+
+        em = (SimpleEntityManager) factory.createEntityManager();
+        Map<String, MyTestObject> found = em.findAll(MyTestObject.class, ids);
+        Assert.assertEquals(25, found.size());
+        Iterator<MyTestObject> it = objects.iterator();
+        for (Map.Entry<String, MyTestObject> entry : found.entrySet()) {
+            MyTestObject expected = it.next();
+            Assert.assertEquals(expected.getId(), entry.getKey());
+            Assert.assertEquals(expected.getName(), entry.getValue().getName());
+        }
+        em.removeAll(objects);
+        em.close();
+    }
+
+    @Test
+    public void iterate() {
+        SimpleEntityManager em = (SimpleEntityManager) factory.createEntityManager();
+
+        List<MyTestObject> objects = new ArrayList<MyTestObject>();
+        for (int i = 0; i < 30; i++) {
+            MyTestObject object = new MyTestObject();
+            object.setName("iterate");
+            object.setAge(i);
+            em.persist(object);
+            objects.add(object);
+        }
+
+        SimpleQuery query = (SimpleQuery) em.createQuery("select o from MyTestObject o where o.name = :name");
+        query.setParameter("name", "iterate");
+        CloseableIterator<MyTestObject> it = query.iterate();
+        int count = 0;
+        while (it.hasNext()) {
+            Assert.assertEquals("iterate", it.next().getName());
+            count++;
+        }
+        Assert.assertEquals(30, count);
+
+        query.setMaxResults(12);
+        it = query.iterate();
+        count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        Assert.assertEquals(12, count);
+
+        it = query.iterate();
+        it.next();
+        it.close();
+        Assert.assertFalse(it.hasNext());
+
+        em.removeAll(objects);
+        em.close();
+    }
+
+    @Test
+    public void batchFetchOneToMany() {
+        SimpleEntityManager em = (SimpleEntityManager) factory.createEntityManager();
+
+        List<Object> toRemove = new ArrayList<Object>();
+        for (int i = 0; i < 3; i++) {
+            MyTestObject object = new MyTestObject();
+            object.setName("batchFetch");
+            object.setAge(i);
+            em.persist(object);
+            toRemove.add(object);
+            for (int j = 0; j <= i; j++) {
+                MyTestObject2 ob2 = new MyTestObject2("batchFetch " + i + " " + j, j);
+                ob2.setMyTestObject(object);
+                em.persist(ob2);
+                toRemove.add(ob2);
+            }
+        }
+        em.close();
+        factory.clearSecondLevelCache();
+
+        em = (SimpleEntityManager) factory.createEntityManager();
+        Query query = em.createQuery("select o from MyTestObject o where o.name = :name");
+        query.setParameter("name", "batchFetch");
+        query.setHint(SimpleQuery.HINT_BATCH_FETCH, true);
+        List<MyTestObject> obs = query.getResultList();
+        Assert.assertEquals(3, obs.size());
+        for (MyTestObject ob : obs) {
+            Assert.assertEquals(ob.getAge() + 1, ob.getMyList().size());
+            for (MyTestObject2 ob2 : ob.getMyList()) {
+                Assert.assertTrue(ob2.getName().startsWith("batchFetch " + ob.getAge() + " "));
+            }
+        }
+
+        em.removeAll(toRemove);
+        em.close();
+    }
+
     int counter = 0;
 
     private MyTestObject makeTestObjects(EntityManager em) {
@@ -0,0 +1,68 @@
+package com.spaceprogram.simplejpa;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * The codec picked for each field type of this class must encode exactly like padOrConvertIfRequired and decode back
+ * to the same value, including collections, strings split over several chunks and serialized objects.
+ */
+public class PropertyCodecTests {
+
+    private int intField;
+    private Long longField;
+    private double doubleField;
+    private BigDecimal bigDecimalField;
+    private Date dateField;
+    private String stringField;
+    private List<Date> dates;
+    private Object objectField;
+
+    private PropertyCodec codec(String fieldName) throws Exception {
+        return new PersistentField(PropertyCodecTests.class.getDeclaredField(fieldName)).getCodec();
+    }
+
+    private void assertRoundTrip(String fieldName, Object value) throws Exception {
+        PropertyCodec codec = codec(fieldName);
+        String encoded = codec.encode(value);
+        Assert.assertEquals(EntityManagerSimpleJPA.padOrConvertIfRequired(value), encoded);
+        Assert.assertEquals(value, codec.decode(Collections.singleton(encoded)));
+    }
+
+    @Test
+    public void testRoundTrips() throws Exception {
+        assertRoundTrip("intField", -42);
+        assertRoundTrip("longField", Long.MIN_VALUE);
+        assertRoundTrip("doubleField", 10.55);
+        assertRoundTrip("bigDecimalField", new BigDecimal("-1234.5"));
+        assertRoundTrip("dateField", new Date());
+        assertRoundTrip("stringField", "hello");
+        Assert.assertEquals(Double.NaN, (Double) codec("doubleField").decode(Collections.singleton("NaN")), 0.0);
+    }
+
+    @Test
+    public void testCollection() throws Exception {
+        PropertyCodec codec = codec("dates");
+        Date now = new Date();
+        String encoded = codec.getElementCodec().encode(now);
+        Assert.assertEquals(Arrays.asList(now, now), codec.decode(Arrays.asList(encoded, encoded)));
+    }
+
+    @Test
+    public void testChunkedString() throws Exception {
+        Assert.assertEquals("abcdef", codec("stringField").decode(Arrays.asList("def0001", "abc0000")));
+    }
+
+    @Test
+    public void testSerializable() throws Exception {
+        PropertyCodec codec = codec("objectField");
+        String encoded = codec.encode("x1".toCharArray());
+        Assert.assertArrayEquals("x1".toCharArray(), (char[]) codec.decode(Collections.singleton(encoded)));
+    }
+}
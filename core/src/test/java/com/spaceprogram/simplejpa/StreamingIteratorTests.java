@@ -0,0 +1,45 @@
+package com.spaceprogram.simplejpa;
+
+import com.amazonaws.services.simpledb.model.PutAttributesRequest;
+import com.amazonaws.services.simpledb.model.ReplaceableAttribute;
+import com.spaceprogram.simplejpa.query.CloseableIterator;
+import com.spaceprogram.simplejpa.query.SimpleQuery;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+
+/**
+ * StreamingIterator on InMemorySimpleDB with a session cache: every result is returned once, in order, and none of
+ * them are left in the session cache.
+ */
+public class StreamingIteratorTests {
+
+    @Test
+    public void testStreamedObjectsStayOutOfSessionCache() {
+        InMemorySimpleDB db = new InMemorySimpleDB();
+        for (int i = 0; i < 10; i++) {
+            db.putAttributes(new PutAttributesRequest().withDomainName("streaming-MyTestObject").withItemName("id" + i)
+                    .withAttributes(new ReplaceableAttribute("name", "name" + i, true)));
+        }
+        EntityManagerFactoryImpl factory = InMemoryFactory.create("streaming", db, new InMemoryS3(),
+                Collections.singletonMap("sessionless", "false"), MyTestObject.class);
+        try {
+            EntityManagerSimpleJPA em = (EntityManagerSimpleJPA) factory.createEntityManager();
+            CloseableIterator<MyTestObject> it = ((SimpleQuery) em.createQuery("select o from MyTestObject o")).iterate();
+            int count = 0;
+            while (it.hasNext()) {
+                Assert.assertEquals("name" + count, it.next().getName());
+                Assert.assertNull(em.cacheGet(MyTestObject.class, "id" + count));
+                count++;
+            }
+            Assert.assertEquals(10, count);
+
+            // found objects are still kept
+            MyTestObject found = em.find(MyTestObject.class, "id0");
+            Assert.assertSame(found, em.cacheGet(MyTestObject.class, "id0"));
+        } finally {
+            factory.close();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.spaceprogram.simplejpa.cache;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * LocalCache bounds: least recently used entries go first when it's full by count or by weight, entries expire after
+ * their time to live, and LocalCacheFactory hands out one cache per region sized from its own property.
+ */
+public class LocalCacheTests {
+
+    public static class LengthWeigher implements LocalCache.Weigher {
+        public int weigh(Object key, Object value) {
+            return value.toString().length();
+        }
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        LocalCache cache = new LocalCache("test", 3, 0, 0, 1, null);
+        cache.put("a", "1");
+        cache.put("b", "2");
+        cache.put("c", "3");
+        Assert.assertEquals("1", cache.getObj("a"));
+        cache.put("d", "4");
+        Assert.assertEquals(3, cache.size());
+        Assert.assertNull(cache.getObj("b"));
+        Assert.assertEquals("1", cache.getObj("a"));
+        Assert.assertEquals(1, cache.getEvictions());
+        Assert.assertEquals(2, cache.getHits());
+        Assert.assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testExpires() throws Exception {
+        LocalCache cache = new LocalCache("test", 100, 0, 20, 4, null);
+        cache.put("a", "1");
+        Assert.assertEquals("1", cache.getObj("a"));
+        Thread.sleep(50);
+        Assert.assertNull(cache.getObj("a"));
+        Assert.assertEquals(1, cache.getExpirations());
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testWeightBound() {
+        LocalCache cache = new LocalCache("test", 100, 10, 0, 1, new LengthWeigher());
+        cache.put("a", "12345");
+        cache.put("b", "12345");
+        Assert.assertEquals(10, cache.getWeight());
+        cache.put("c", "123");
+        Assert.assertNull(cache.getObj("a"));
+        Assert.assertEquals(8, cache.getWeight());
+        Assert.assertTrue(cache.remove("b"));
+        Assert.assertFalse(cache.remove("b"));
+        Assert.assertEquals(3, cache.getWeight());
+    }
+
+    @Test
+    public void testFactoryRegions() {
+        Map props = new HashMap();
+        props.put("localCache.maxSize", "1000");
+        props.put("localCache.maxSize.small", "1");
+        LocalCacheFactory factory = new LocalCacheFactory();
+        factory.init(props);
+        Cache small = factory.createCache("small");
+        Assert.assertSame(small, factory.createCache("small"));
+        small.put("a", "1");
+        small.put("b", "2");
+        Assert.assertEquals(1, small.size());
+        Cache big = factory.createCache("big");
+        big.put("a", "1");
+        big.put("b", "2");
+        Assert.assertEquals(2, big.size());
+        Assert.assertEquals(2, factory.getCaches().size());
+        factory.shutdown();
+        Assert.assertEquals(0, factory.getCaches().size());
+    }
+}
@@ -0,0 +1,55 @@
+package com.spaceprogram.simplejpa.operations;
+
+import com.amazonaws.services.simpledb.model.PutAttributesRequest;
+import com.amazonaws.services.simpledb.model.ReplaceableAttribute;
+import com.spaceprogram.simplejpa.EntityManagerFactoryImpl;
+import com.spaceprogram.simplejpa.EntityManagerSimpleJPA;
+import com.spaceprogram.simplejpa.InMemoryFactory;
+import com.spaceprogram.simplejpa.InMemoryS3;
+import com.spaceprogram.simplejpa.InMemorySimpleDB;
+import com.spaceprogram.simplejpa.MyTestObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * findAllAsync runs FindAll on the executor and FindAll hands its selects to the same executor, so with every thread
+ * taken by the FindAll itself the selects have to run on the calling thread rather than wait in the queue.
+ */
+public class FindAllTests {
+
+    @Test
+    public void testFindAllAsyncOnSingleThreadExecutor() throws Exception {
+        InMemorySimpleDB db = new InMemorySimpleDB();
+        List<String> ids = new ArrayList<String>();
+        for (int i = 0; i < 45; i++) {
+            String id = "id" + i;
+            ids.add(id);
+            db.putAttributes(new PutAttributesRequest().withDomainName("findall-MyTestObject").withItemName(id)
+                    .withAttributes(new ReplaceableAttribute("name", "name" + i, true)));
+        }
+        ids.add("missing");
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        EntityManagerFactoryImpl factory = InMemoryFactory.create("findall", db, new InMemoryS3(),
+                Collections.singletonMap("executorService", executor), MyTestObject.class);
+        try {
+            EntityManagerSimpleJPA em = (EntityManagerSimpleJPA) factory.createEntityManager();
+            Map<String, MyTestObject> found = em.findAllAsync(MyTestObject.class, ids).get(10, TimeUnit.SECONDS);
+            Assert.assertEquals(45, found.size());
+            Assert.assertEquals("name44", found.get("id44").getName());
+            Assert.assertFalse(found.containsKey("missing"));
+            Assert.assertEquals(3, db.getCalls("select"));
+        } finally {
+            factory.close();
+            executor.shutdownNow();
+        }
+    }
+}
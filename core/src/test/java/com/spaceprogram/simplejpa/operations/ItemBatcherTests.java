@@ -0,0 +1,109 @@
+package com.spaceprogram.simplejpa.operations;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * ItemBatcher with send() swapped for a recorder, so each test looks at the batches it was handed: a full batch goes
+ * out once, a partial one after the linger, a repeated item name starts a new batch and a failed send fails every
+ * caller in it.
+ */
+public class ItemBatcherTests {
+
+    private static class RecordingBatcher extends ItemBatcher<String> {
+        List<List<String>> sent = Collections.synchronizedList(new ArrayList<List<String>>());
+        RuntimeException toThrow;
+
+        RecordingBatcher(int batchSize, long lingerMillis) {
+            super(batchSize, lingerMillis);
+        }
+
+        @Override
+        protected String itemName(String item) {
+            return item;
+        }
+
+        @Override
+        protected void send(String domainName, List<String> items) {
+            sent.add(new ArrayList<String>(items));
+            if (toThrow != null) throw toThrow;
+        }
+    }
+
+    private List<Future> submitAll(ExecutorService executor, final ItemBatcher<String> batcher, List<String> items) {
+        List<Future> futures = new ArrayList<Future>();
+        for (final String item : items) {
+            futures.add(executor.submit(new Callable<Object>() {
+                public Object call() throws Exception {
+                    batcher.submit("domain", item);
+                    return item;
+                }
+            }));
+        }
+        return futures;
+    }
+
+    @Test
+    public void testFullBatchIsSentOnce() throws Exception {
+        RecordingBatcher batcher = new RecordingBatcher(25, 60000);
+        ExecutorService executor = Executors.newFixedThreadPool(25);
+        List<String> items = new ArrayList<String>();
+        for (int i = 0; i < 25; i++) {
+            items.add("item" + i);
+        }
+        for (Future future : submitAll(executor, batcher, items)) {
+            future.get();
+        }
+        executor.shutdown();
+        Assert.assertEquals(1, batcher.sent.size());
+        Assert.assertEquals(25, batcher.sent.get(0).size());
+    }
+
+    @Test
+    public void testLingerFlushesPartialBatch() throws Exception {
+        RecordingBatcher batcher = new RecordingBatcher(25, 50);
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        for (Future future : submitAll(executor, batcher, java.util.Arrays.asList("a", "b", "c"))) {
+            future.get();
+        }
+        executor.shutdown();
+        int total = 0;
+        for (List<String> batch : batcher.sent) {
+            total += batch.size();
+        }
+        Assert.assertEquals(3, total);
+    }
+
+    @Test
+    public void testDuplicateItemNameStartsNewBatch() throws Exception {
+        RecordingBatcher batcher = new RecordingBatcher(2, 0);
+        batcher.submit("domain", "a");
+        batcher.submit("domain", "a");
+        Assert.assertEquals(2, batcher.sent.size());
+    }
+
+    @Test
+    public void testErrorReachesEveryCaller() throws Exception {
+        RecordingBatcher batcher = new RecordingBatcher(2, 60000);
+        batcher.toThrow = new IllegalStateException("boom");
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        for (Future future : submitAll(executor, batcher, java.util.Arrays.asList("a", "b"))) {
+            try {
+                future.get();
+                Assert.fail("Expected the batch error");
+            } catch (ExecutionException e) {
+                Assert.assertEquals("boom", e.getCause().getMessage());
+            }
+        }
+        executor.shutdown();
+    }
+}
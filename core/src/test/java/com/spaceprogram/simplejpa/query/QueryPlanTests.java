@@ -0,0 +1,38 @@
+package com.spaceprogram.simplejpa.query;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks the parts of a query plan that don't need an EntityManager.
+ */
+public class QueryPlanTests {
+
+    @Test
+    public void testParsedOnce() {
+        QueryPlanCache cache = new QueryPlanCache(10);
+        String q = "select o from MyTestObject o where o.age = :age and o.name = 'larry'";
+        QueryPlan plan = cache.getPlan(q);
+        Assert.assertSame(plan, cache.getPlan(q));
+        Assert.assertEquals("o.age = :age and o.name = 'larry'", plan.getFilter());
+        Assert.assertEquals(7, plan.getWhereTokens().size());
+
+        // each query gets its own copy to modify
+        JPAQuery copy = plan.newQuery();
+        copy.setResult("count(*)");
+        Assert.assertEquals("o", plan.newQuery().getResult());
+    }
+
+    @Test
+    public void testTemplateSplitsAroundParameters() {
+        QueryPlan.SelectTemplate template = new QueryPlan.SelectTemplate(false);
+        String select = "select * from `d` where `age` = " + template.slot(":age", null)
+                + " and `name` = " + template.slot(":name", null);
+        template.finish(select);
+        Assert.assertFalse(template.isDynamic());
+
+        QueryPlan.SelectTemplate nothing = new QueryPlan.SelectTemplate(false);
+        nothing.finish(null);
+        Assert.assertTrue(nothing.isDynamic());
+    }
+}
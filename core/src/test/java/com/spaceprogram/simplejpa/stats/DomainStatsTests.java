@@ -0,0 +1,104 @@
+package com.spaceprogram.simplejpa.stats;
+
+import com.spaceprogram.simplejpa.EntityManagerFactoryImpl;
+import com.spaceprogram.simplejpa.EntityManagerSimpleJPA;
+import com.spaceprogram.simplejpa.InMemoryFactory;
+import com.spaceprogram.simplejpa.InMemoryS3;
+import com.spaceprogram.simplejpa.InMemorySimpleDB;
+import com.spaceprogram.simplejpa.MyTestObject2;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per domain counters and latencies, how they're exposed as an MBean, and that find and removeAll on an
+ * EntityManager count against their domain: a cache hit without touching SimpleDB, a batch delete for every item.
+ */
+public class DomainStatsTests {
+
+    @Test
+    public void testUtf8Length() throws Exception {
+        String[] values = {"", "abc", "café", "€100", "😀 smile"};
+        for (String value : values) {
+            Assert.assertEquals(value, value.getBytes("UTF-8").length, DomainStats.utf8Length(value));
+        }
+    }
+
+    @Test
+    public void testCounters() {
+        DomainStats ds = new DomainStats("test-Person");
+        ds.read(1, TimeUnit.MILLISECONDS.toNanos(5));
+        ds.queryPage(20, TimeUnit.MILLISECONDS.toNanos(30));
+        ds.written(4, 100, TimeUnit.MILLISECONDS.toNanos(10));
+        ds.deleted(2, 1000);
+        ds.deleted(0, 1000);
+        ds.cacheHits(3);
+        ds.cacheMisses(1);
+
+        Assert.assertEquals(21, ds.getItemsRead());
+        Assert.assertEquals(1, ds.getQueryPages());
+        Assert.assertEquals(1, ds.getItemsWritten());
+        Assert.assertEquals(4, ds.getAttsPut());
+        Assert.assertEquals(100, ds.getBytesSent());
+        Assert.assertEquals(2, ds.getAttsDeleted());
+        Assert.assertEquals(1, ds.getItemsDeleted());
+        Assert.assertEquals(3, ds.getCacheHits());
+        Assert.assertEquals(1, ds.getCacheMisses());
+        Assert.assertEquals(2, ds.getLatency(Operation.DELETE).getCount());
+        Assert.assertEquals(30, ds.getSelectP99Millis(), 30 / 16.0);
+    }
+
+    @Test
+    public void testFindAndRemoveAll() {
+        InMemorySimpleDB db = new InMemorySimpleDB();
+        // so find has a session cache to hit
+        EntityManagerFactoryImpl factory = InMemoryFactory.create("stats", db, new InMemoryS3(),
+                Collections.singletonMap("sessionless", "false"), MyTestObject2.class);
+        try {
+            EntityManagerSimpleJPA em = (EntityManagerSimpleJPA) factory.createEntityManager();
+            List<MyTestObject2> objects = new ArrayList<MyTestObject2>();
+            for (int i = 0; i < 3; i++) {
+                MyTestObject2 o = new MyTestObject2("name" + i, i);
+                o.setId("id" + i);
+                em.persist(o);
+                objects.add(o);
+            }
+            DomainStats ds = em.getDomainStats("stats-MyTestObject2");
+
+            int listDomains = db.getCalls("listDomains");
+            int gets = db.getCalls("getAttributes");
+            // persist put it in the session cache
+            Assert.assertSame(objects.get(0), em.find(MyTestObject2.class, "id0"));
+            Assert.assertEquals(1, ds.getCacheHits());
+            Assert.assertEquals(listDomains, db.getCalls("listDomains"));
+            Assert.assertEquals(gets, db.getCalls("getAttributes"));
+
+            int deletes = em.getTotalOpStats().getDeletes();
+            long deleteLatencies = ds.getLatency(Operation.DELETE).getCount();
+            em.removeAll(objects);
+            Assert.assertEquals(3, ds.getItemsDeleted());
+            Assert.assertEquals(deleteLatencies + 1, ds.getLatency(Operation.DELETE).getCount());
+            Assert.assertEquals(deletes + 1, em.getTotalOpStats().getDeletes());
+        } finally {
+            factory.close();
+        }
+    }
+
+    @Test
+    public void testRegistersAsMBean() throws Exception {
+        MBeanServer server = MBeanServerFactory.newMBeanServer();
+        ObjectName name = new ObjectName("com.spaceprogram.simplejpa:type=DomainStats,domain=test-Person");
+        DomainStats ds = new DomainStats("test-Person");
+        ds.written(2, 10, 1000);
+        server.registerMBean(ds, name);
+        Assert.assertEquals(10L, server.getAttribute(name, "BytesSent"));
+        Assert.assertEquals("test-Person", server.getAttribute(name, "DomainName"));
+    }
+}
@@ -0,0 +1,77 @@
+package com.spaceprogram.simplejpa.stats;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * LatencyHistogram's log-linear buckets stay within 1/16 of any value, percentiles come out of a known spread of
+ * latencies, interval snapshots only hold what was recorded since the last one, and OpStats still keeps its totals in
+ * milliseconds.
+ */
+public class LatencyHistogramTests {
+
+    @Test
+    public void testBucketsCoverEveryValue() {
+        Random random = new Random(1);
+        for (int i = 0; i < 100000; i++) {
+            long nanos = random.nextLong() >>> (1 + random.nextInt(40));
+            if (nanos >= 1L << (LatencyHistogram.MAX_EXPONENT + 1)) {
+                continue;
+            }
+            int bucket = LatencyHistogram.bucket(nanos);
+            Assert.assertTrue(nanos + " above bucket " + bucket, nanos <= LatencyHistogram.bucketMax(bucket));
+            if (bucket > 0) {
+                Assert.assertTrue(nanos + " below bucket " + bucket, nanos > LatencyHistogram.bucketMax(bucket - 1));
+            }
+            // within 1/16 of the value
+            Assert.assertTrue(LatencyHistogram.bucketMax(bucket) - nanos <= nanos / LatencyHistogram.SUB_BUCKETS);
+        }
+        Assert.assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.bucket(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000000L);
+        }
+        LatencySnapshot snapshot = histogram.snapshot();
+        Assert.assertEquals(1000, snapshot.getCount());
+        Assert.assertEquals(1000000000L, snapshot.getMax());
+        assertClose(500000000L, snapshot.getP50());
+        assertClose(900000000L, snapshot.getP90());
+        assertClose(990000000L, snapshot.getP99());
+        assertClose(500500000L, snapshot.getMean());
+    }
+
+    @Test
+    public void testIntervals() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(5000000L);
+        Assert.assertEquals(1, histogram.intervalSnapshot().getCount());
+        LatencySnapshot empty = histogram.intervalSnapshot();
+        Assert.assertEquals(0, empty.getCount());
+        Assert.assertEquals(0, empty.getP99());
+        histogram.record(1000L);
+        LatencySnapshot interval = histogram.intervalSnapshot();
+        Assert.assertEquals(1, interval.getCount());
+        Assert.assertTrue(interval.getMax() < 5000000L);
+        Assert.assertEquals(2, histogram.snapshot().getCount());
+    }
+
+    @Test
+    public void testOpStatsKeepsMillisTotals() {
+        OpStats stats = new OpStats();
+        stats.attsPut(3, 2500000L);
+        Assert.assertEquals(2, stats.getAttsPutDuration());
+        Assert.assertEquals(2, stats.getPutsDuration());
+        Assert.assertEquals(1, stats.getLatency(Operation.PUT).getCount());
+        Assert.assertEquals(0, new OpStats(false).getLatency(Operation.PUT).getCount());
+    }
+
+    private static void assertClose(long expected, long actual) {
+        Assert.assertTrue("expected about " + expected + " but was " + actual, Math.abs(actual - expected) <= expected / 16);
+    }
+}
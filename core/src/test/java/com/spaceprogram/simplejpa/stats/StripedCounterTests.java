@@ -0,0 +1,62 @@
+package com.spaceprogram.simplejpa.stats;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Eight threads adding to a StripedCounter and to striped OpStats lose no updates, and set() replaces the sum
+ * whatever the number of stripes.
+ */
+public class StripedCounterTests {
+
+    @Test
+    public void testConcurrentAdds() throws Exception {
+        final StripedCounter counter = new StripedCounter(8);
+        final OpStats stats = new OpStats(true, 8);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Object>> futures = new ArrayList<Future<Object>>();
+            for (int t = 0; t < 8; t++) {
+                futures.add(executor.submit(new Callable<Object>() {
+                    public Object call() throws Exception {
+                        for (int i = 0; i < 10000; i++) {
+                            counter.add(2);
+                            stats.attsPut(3, 1000);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Object> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        Assert.assertEquals(160000, counter.get());
+        Assert.assertEquals(80000, stats.getPuts());
+        Assert.assertEquals(240000, stats.getAttsPut());
+        Assert.assertEquals(80000, stats.getLatency(Operation.PUT).getCount());
+    }
+
+    @Test
+    public void testSet() {
+        StripedCounter counter = new StripedCounter(3);
+        counter.add(5);
+        counter.set(42);
+        Assert.assertEquals(42, counter.get());
+        counter.increment();
+        Assert.assertEquals(43, counter.get());
+
+        StripedCounter single = new StripedCounter(1);
+        single.increment();
+        Assert.assertEquals(1, single.get());
+    }
+}
@@ -0,0 +1,50 @@
+package com.spaceprogram.simplejpa.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Picking an executor by its property value, and what each strategy builds: elastic starts with no threads and lets
+ * idle ones time out, virtual runs tasks whether or not the JVM has virtual threads.
+ */
+public class ExecutorStrategyTests {
+
+    @Test
+    public void testForName() {
+        Assert.assertSame(ExecutorStrategy.FIXED, ExecutorStrategy.forName(null));
+        Assert.assertSame(ExecutorStrategy.ELASTIC, ExecutorStrategy.forName("elastic"));
+        Assert.assertSame(ExecutorStrategy.VIRTUAL, ExecutorStrategy.forName(" Virtual "));
+        try {
+            ExecutorStrategy.forName("cached");
+            Assert.fail("should not accept an unknown executor");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testElasticStartsNoThreadsUpFront() throws Exception {
+        ExecutorService executor = ExecutorStrategy.ELASTIC.create(10);
+        ThreadPoolExecutor pool = (ThreadPoolExecutor) executor;
+        Assert.assertEquals(0, pool.getPoolSize());
+        Assert.assertEquals(10, pool.getMaximumPoolSize());
+        Assert.assertTrue(pool.allowsCoreThreadTimeOut());
+        executor.shutdown();
+    }
+
+    @Test
+    public void testVirtualRunsTasks() throws Exception {
+        // virtual threads where the JVM has them, otherwise the elastic fallback
+        ExecutorService executor = ExecutorStrategy.VIRTUAL.create(2);
+        Assert.assertEquals("done", executor.submit(new Callable<String>() {
+            public String call() throws Exception {
+                return "done";
+            }
+        }).get());
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,116 @@
+package com.spaceprogram.simplejpa.util;
+
+import com.amazonaws.AmazonServiceException;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The pieces that keep load on SimpleDB in check: AdaptiveLimiter's concurrency limit, TokenBucket's request rate,
+ * SubmitLimiter's bound on pending async operations, and how ThrottledSimpleDB tells a throttled response apart.
+ */
+public class ThrottlingTests {
+
+    @Test
+    public void testLimiterGrowsAndBacksOff() throws Exception {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(2, 10, 4);
+        for (int i = 0; i < 40; i++) {
+            limiter.acquire();
+            limiter.release(false);
+        }
+        Assert.assertTrue(limiter.getLimit() > 4);
+        int grown = limiter.getLimit();
+        limiter.acquire();
+        limiter.release(true);
+        Assert.assertEquals(grown / 2, limiter.getLimit());
+        // a burst of throttled calls only backs off once
+        limiter.acquire();
+        limiter.release(true);
+        Assert.assertEquals(grown / 2, limiter.getLimit());
+        Assert.assertEquals(2, limiter.getThrottled());
+        Assert.assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    public void testTokenBucketReservesAfterBurst() {
+        TokenBucket bucket = new TokenBucket(10, 2);
+        Assert.assertEquals(0, bucket.reserve());
+        Assert.assertEquals(0, bucket.reserve());
+        long wait = bucket.reserve();
+        Assert.assertTrue("wait=" + wait, wait > 50000000L && wait <= 100000000L);
+        // the next one queues up behind it
+        Assert.assertTrue(bucket.reserve() > wait);
+    }
+
+    @Test
+    public void testSubmitLimiterFailsFast() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        final CountDownLatch release = new CountDownLatch(1);
+        SubmitLimiter limiter = new SubmitLimiter(1, false);
+        Future<String> first = limiter.submit(executor, new Callable<String>() {
+            public String call() throws Exception {
+                release.await();
+                return "done";
+            }
+        });
+        try {
+            limiter.submit(executor, new Callable<String>() {
+                public String call() throws Exception {
+                    return "rejected";
+                }
+            });
+            Assert.fail("should reject once the limit is reached");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+        release.countDown();
+        Assert.assertEquals("done", first.get());
+        executor.shutdown();
+    }
+
+    @Test
+    public void testSubmitLimiterReleasesCancelled() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        final CountDownLatch release = new CountDownLatch(1);
+        SubmitLimiter limiter = new SubmitLimiter(2, false);
+        Future<String> first = limiter.submit(executor, new Callable<String>() {
+            public String call() throws Exception {
+                release.await();
+                return "done";
+            }
+        });
+        Future<String> queued = limiter.submit(executor, new Callable<String>() {
+            public String call() throws Exception {
+                return "never";
+            }
+        });
+        Assert.assertEquals(2, limiter.getPending());
+        Assert.assertTrue(queued.cancel(false));
+        Assert.assertEquals(1, limiter.getPending());
+
+        release.countDown();
+        Assert.assertEquals("done", first.get());
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        Assert.assertEquals(0, limiter.getPending());
+    }
+
+    @Test
+    public void testThrottledResponses() {
+        Assert.assertEquals("pu-Thing", ThrottledSimpleDB.selectDomain("select * from `pu-Thing` where `a` = '1'"));
+        Assert.assertNull(ThrottledSimpleDB.selectDomain("select count(*) from thing"));
+        AmazonServiceException e = new AmazonServiceException("busy");
+        e.setErrorCode("ServiceUnavailable");
+        Assert.assertTrue(ThrottledSimpleDB.isThrottled(e));
+        e.setErrorCode("InvalidQueryExpression");
+        e.setStatusCode(400);
+        Assert.assertFalse(ThrottledSimpleDB.isThrottled(e));
+    }
+}